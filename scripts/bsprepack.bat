@@ -0,0 +1,2 @@
+@echo off
+java -cp "%~dp0\bspsrc.jar" info.ata4.bsprepack.BspRepack %*
\ No newline at end of file
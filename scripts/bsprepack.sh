@@ -0,0 +1,3 @@
+#!/bin/sh
+BASEDIR=$(dirname "$0")
+java -cp "$BASEDIR/bspsrc.jar" info.ata4.bsprepack.BspRepack $*
\ No newline at end of file
@@ -0,0 +1,151 @@
+package info.ata4.benchmark;
+
+import info.ata4.bsplib.struct.BrushFlag;
+import info.ata4.bsplib.struct.BspData;
+import info.ata4.bsplib.struct.DBrush;
+import info.ata4.bsplib.struct.DBrushSide;
+import info.ata4.bsplib.struct.DPlane;
+import info.ata4.bsplib.struct.PlaneLump;
+import info.ata4.bsplib.vector.Vector3f;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible input data for the benchmarks.
+ */
+class BenchmarkData {
+
+    private static final long SEED = 0x42535053L;
+
+    private BenchmarkData() {
+    }
+
+    static Random random() {
+        return new Random(SEED);
+    }
+
+    /**
+     * Creates a lump buffer filled with random bytes.
+     */
+    static ByteBuffer randomLump(int size) {
+        byte[] data = new byte[size];
+        random().nextBytes(data);
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates a lump buffer that repeats a short random pattern, which
+     * compresses about as well as typical struct lumps.
+     */
+    static ByteBuffer patternLump(int size) {
+        Random random = random();
+        byte[] pattern = new byte[56];
+        byte[] data = new byte[size];
+
+        for (int i = 0; i < size; i += pattern.length) {
+            // change a few bytes in every packet like indices and offsets do
+            if (i % (pattern.length * 16) == 0) {
+                random.nextBytes(pattern);
+            }
+            pattern[random.nextInt(pattern.length)] = (byte) random.nextInt();
+            System.arraycopy(pattern, 0, data, i, Math.min(pattern.length, size - i));
+        }
+
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates BSP data with a grid of box brushes whose top edges are beveled
+     * by an additional sloped side.
+     */
+    static BspData boxBrushes(int count) {
+        Random random = random();
+
+        List<DPlane> planes = new ArrayList<>();
+        List<DBrushSide> brushSides = new ArrayList<>();
+        List<DBrush> brushes = new ArrayList<>();
+
+        int gridSize = (int) Math.ceil(Math.sqrt(count));
+
+        for (int i = 0; i < count; i++) {
+            Vector3f min = new Vector3f((i % gridSize) * 256, (i / gridSize) * 256, 0);
+            Vector3f max = min.add(new Vector3f(
+                    64 + random.nextInt(128),
+                    64 + random.nextInt(128),
+                    64 + random.nextInt(128)));
+
+            DBrush brush = new DBrush();
+            brush.fstside = brushSides.size();
+            brush.contents = EnumSet.of(BrushFlag.CONTENTS_SOLID);
+
+            addSide(planes, brushSides, Vector3f.BASE_VECTOR_X, max.x);
+            addSide(planes, brushSides, Vector3f.BASE_VECTOR_X.scalar(-1), -min.x);
+            addSide(planes, brushSides, Vector3f.BASE_VECTOR_Y, max.y);
+            addSide(planes, brushSides, Vector3f.BASE_VECTOR_Y.scalar(-1), -min.y);
+            addSide(planes, brushSides, Vector3f.BASE_VECTOR_Z, max.z);
+            addSide(planes, brushSides, Vector3f.BASE_VECTOR_Z.scalar(-1), -min.z);
+
+            // bevel the edge between +x and +z
+            Vector3f bevelNormal = new Vector3f(1, 0, 1).normalize();
+            Vector3f bevelPoint = new Vector3f(max.x - 16, min.y, max.z);
+            addSide(planes, brushSides, bevelNormal, bevelNormal.dot(bevelPoint));
+
+            brush.numside = brushSides.size() - brush.fstside;
+            brushes.add(brush);
+        }
+
+        BspData bsp = new BspData();
+        bsp.planes = PlaneLump.of(planes);
+        bsp.brushSides = brushSides;
+        bsp.brushes = brushes;
+        return bsp;
+    }
+
+    private static void addSide(List<DPlane> planes, List<DBrushSide> brushSides, Vector3f normal, float dist) {
+        DPlane plane = new DPlane();
+        plane.normal = normal;
+        plane.dist = dist;
+
+        DBrushSide side = new DBrushSide();
+        side.pnum = planes.size();
+
+        planes.add(plane);
+        brushSides.add(side);
+    }
+
+    /**
+     * Creates the text of an entity lump with point entities that have a
+     * typical number of keys.
+     */
+    static byte[] entityLump(int count) {
+        Random random = random();
+        StringBuilder sb = new StringBuilder(count * 256);
+
+        sb.append("{\n\"classname\" \"worldspawn\"\n\"mapversion\" \"1\"\n}\n");
+
+        for (int i = 0; i < count; i++) {
+            sb.append("{\n");
+            sb.append("\"origin\" \"").append(random.nextInt(8192) - 4096).append(' ')
+                    .append(random.nextInt(8192) - 4096).append(' ')
+                    .append(random.nextInt(1024)).append("\"\n");
+            sb.append("\"angles\" \"0 ").append(random.nextInt(360)).append(" 0\"\n");
+            sb.append("\"targetname\" \"ent_").append(i).append("\"\n");
+            sb.append("\"spawnflags\" \"").append(random.nextInt(256)).append("\"\n");
+            sb.append("\"rendercolor\" \"255 255 255\"\n");
+            sb.append("\"OnTrigger\" \"relay_").append(random.nextInt(count))
+                    .append(",Trigger,,0,-1\"\n");
+            sb.append("\"classname\" \"").append(i % 2 == 0 ? "light" : "logic_relay").append("\"\n");
+            sb.append("}\n");
+        }
+
+        sb.append('\0');
+
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,710 @@
+package info.ata4.benchmark;
+
+import info.ata4.bsplib.BspFile;
+import info.ata4.bsplib.lump.GameLump;
+import info.ata4.bsplib.lump.Lump;
+import info.ata4.bsplib.lump.LumpType;
+import info.ata4.bsplib.struct.*;
+import info.ata4.bsplib.util.StringMacroUtils;
+import info.ata4.bsplib.vector.Vector3f;
+import info.ata4.io.DataWriter;
+import info.ata4.io.DataWriters;
+import info.ata4.log.LogUtils;
+import org.apache.commons.cli.*;
+import org.apache.commons.io.EndianUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates synthetic but structurally valid VBSP files for benchmarks and
+ * end-to-end throughput tests.
+ * <p>
+ * All lumps are written with the {@link DStruct#write} implementations and
+ * saved with {@link BspFile#save}. The world consists of a grid of solid box
+ * brushes above a floor of displacements, with overlays on the floor, static
+ * props and point entities spread over the map.
+ */
+public class BspGenerator {
+
+    private static final Logger L = LogUtils.getLogger();
+
+    public static final int BSP_VERSION = 20;
+
+    /** brush sides and leaf brushes use 16 bit indices */
+    public static final int MAX_BRUSHES = 0xffff;
+
+    /** faces reference their displacement with a signed short */
+    public static final int MAX_DISPLACEMENTS = Short.MAX_VALUE;
+
+    public static final List<Integer> STATIC_PROP_VERSIONS = Arrays.asList(4, 5, 6, 8, 9, 10, 11);
+
+    private static final int BRUSH_GRID = 64;
+    private static final int BRUSH_SPACING = 256;
+    private static final int[] BRUSH_SIZES = {64, 128, 192};
+    private static final int BRUSH_SIDES = 6;
+
+    private static final int DISP_SPACING = 128;
+    private static final int FLOOR_Z = -1024;
+
+    private static final int PROP_MODELS = 16;
+
+    // texinfo 0 is used by overlays only, since lots of brush sides with
+    // texinfo 0 are detected as nodraw protection
+    private static final String[] TEXTURES = {
+        "DECALS/DECAL_CRATER001A",
+        "BRICK/BRICKWALL001A"
+    };
+
+    private static final int TEXINFO_OVERLAY = 0;
+    private static final int TEXINFO_BRUSH = 1;
+
+    public int brushes = 256;
+    public int displacements = 64;
+    public int dispPower = 3;
+    public int overlays = 64;
+    public int staticProps = 256;
+    public int staticPropVersion = 6;
+    public int entities = 256;
+    public boolean compress = false;
+    public long seed = 0x42535053L;
+
+    private Random random;
+    private int dispGrid;
+
+    /**
+     * Creates a generator whose object counts add up to approximately the
+     * given uncompressed file size. Brushes and displacements are limited by
+     * the format, so static props and entities make up the rest of larger
+     * maps.
+     *
+     * @param bytes approximate file size in bytes
+     * @return generator for the given size
+     */
+    public static BspGenerator forSize(long bytes) {
+        BspGenerator gen = new BspGenerator();
+
+        gen.brushes = (int) clamp(bytes / 10 / gen.brushBytes(), 1, MAX_BRUSHES);
+        gen.displacements = (int) clamp(bytes * 3 / 10 / gen.dispBytes(), 1, MAX_DISPLACEMENTS);
+        gen.overlays = (int) clamp(bytes / 20 / gen.overlayBytes(), 0, Integer.MAX_VALUE);
+
+        long rest = bytes
+                - (long) gen.brushes * gen.brushBytes()
+                - (long) gen.displacements * gen.dispBytes()
+                - (long) gen.overlays * gen.overlayBytes();
+        rest = Math.max(rest, 0);
+
+        gen.entities = (int) clamp(rest / 3 / gen.entityBytes(), 1, Integer.MAX_VALUE);
+        gen.staticProps = (int) clamp(rest * 2 / 3 / gen.staticPropBytes(), 0, Integer.MAX_VALUE);
+
+        return gen;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private int brushBytes() {
+        // brush, sides and leaf brush index, planes are shared
+        return 12 + BRUSH_SIDES * 8 + 2;
+    }
+
+    private int dispBytes() {
+        int size = (1 << dispPower) + 1;
+        // disp info, verts, triangle tags, face, edges and surface edges
+        return 176 + size * size * 20 + 2 * (size - 1) * (size - 1) * 2 + 56 + 4 * 4 + 4 * 4;
+    }
+
+    private int overlayBytes() {
+        return 352 + 8;
+    }
+
+    private int staticPropBytes() {
+        return createStaticProp().getSize();
+    }
+
+    private int entityBytes() {
+        return 200;
+    }
+
+    /**
+     * Generates the map and saves it to the given file.
+     *
+     * @param file output file
+     * @throws IOException if the map couldn't be written
+     */
+    public void generate(Path file) throws IOException {
+        if (brushes < 1 || brushes > MAX_BRUSHES) {
+            throw new IllegalArgumentException("Brush count must be between 1 and " + MAX_BRUSHES);
+        }
+        if (displacements < 0 || displacements > MAX_DISPLACEMENTS) {
+            throw new IllegalArgumentException("Displacement count must be between 0 and " + MAX_DISPLACEMENTS);
+        }
+        if (dispPower < 2 || dispPower > 4) {
+            throw new IllegalArgumentException("Displacement power must be between 2 and 4");
+        }
+        if (!STATIC_PROP_VERSIONS.contains(staticPropVersion)) {
+            throw new IllegalArgumentException("Unsupported static prop version " + staticPropVersion);
+        }
+
+        random = new Random(seed);
+        dispGrid = (int) Math.ceil(Math.sqrt(Math.max(displacements, 1)));
+
+        BspFile bsp = new BspFile();
+        bsp.create(BSP_VERSION, ByteOrder.LITTLE_ENDIAN);
+
+        Map<LumpType, ByteBuffer> lumps = new HashMap<>();
+
+        writeBrushes(lumps);
+        writeFaces(lumps);
+        writeTree(lumps);
+        writeTextures(lumps);
+        writeOverlays(lumps);
+
+        lumps.put(LumpType.LUMP_ENTITIES, createEntities());
+        lumps.put(LumpType.LUMP_PAKFILE, createPakFile());
+
+        for (Map.Entry<LumpType, ByteBuffer> entry : lumps.entrySet()) {
+            Lump lump = bsp.getLump(entry.getKey());
+            ByteBuffer bb = entry.getValue();
+            bb.flip();
+            lump.setBuffer(bb);
+        }
+
+        // newer maps use the leaf struct without ambient lighting
+        bsp.getLump(LumpType.LUMP_LEAFS).setVersion(1);
+
+        bsp.addGameLump(createStaticPropLump());
+
+        if (compress) {
+            bsp.compress();
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        Files.deleteIfExists(file);
+        bsp.save(file);
+
+        L.log(Level.INFO, "Generated {0} ({1} bytes)", new Object[]{file, Files.size(file)});
+    }
+
+    private static ByteBuffer allocate(long size) {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Lump too large: " + size + " bytes");
+        }
+        return ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static DataWriter writer(Map<LumpType, ByteBuffer> lumps, LumpType type, long size) {
+        ByteBuffer bb = allocate(size);
+        lumps.put(type, bb);
+        return DataWriters.forByteBuffer(bb);
+    }
+
+    private void writeBrushes(Map<LumpType, ByteBuffer> lumps) throws IOException {
+        // the planes of the boxes in the grid are shared between brushes,
+        // like in real maps, to stay below the plane index limit
+        Map<Long, Integer> planeIndex = new HashMap<>();
+        ByteBuffer planeBuffer = allocate((1 + 3L * BRUSH_GRID * (BRUSH_SIZES.length + 1)) * 20);
+        DataWriter planeOut = DataWriters.forByteBuffer(planeBuffer);
+        lumps.put(LumpType.LUMP_PLANES, planeBuffer);
+
+        DataWriter brushOut = writer(lumps, LumpType.LUMP_BRUSHES, brushes * 12L);
+        DataWriter sideOut = writer(lumps, LumpType.LUMP_BRUSHSIDES, brushes * BRUSH_SIDES * 8L);
+        DataWriter leafBrushOut = writer(lumps, LumpType.LUMP_LEAFBRUSHES, brushes * 2L);
+
+        DPlane plane = new DPlane();
+
+        // plane 0 is the floor, which is also used by the node and the faces
+        plane.normal = Vector3f.BASE_VECTOR_Z;
+        plane.dist = FLOOR_Z;
+        plane.type = 2;
+        plane.write(planeOut);
+
+        DBrush brush = new DBrush();
+        brush.numside = BRUSH_SIDES;
+        brush.contents = EnumSet.of(BrushFlag.CONTENTS_SOLID);
+
+        DBrushSide side = new DBrushSide();
+        side.texinfo = TEXINFO_BRUSH;
+        side.dispinfo = -1;
+
+        int[] min = new int[3];
+        int[] max = new int[3];
+
+        for (int i = 0; i < brushes; i++) {
+            min[0] = (i % BRUSH_GRID) * BRUSH_SPACING - BRUSH_GRID * BRUSH_SPACING / 2;
+            min[1] = (i / BRUSH_GRID % BRUSH_GRID) * BRUSH_SPACING - BRUSH_GRID * BRUSH_SPACING / 2;
+            min[2] = (i / (BRUSH_GRID * BRUSH_GRID)) * BRUSH_SPACING;
+
+            for (int j = 0; j < 3; j++) {
+                max[j] = min[j] + BRUSH_SIZES[random.nextInt(BRUSH_SIZES.length)];
+            }
+
+            brush.fstside = i * BRUSH_SIDES;
+            brush.write(brushOut);
+
+            for (int axis = 0; axis < 3; axis++) {
+                for (int sign = 1; sign >= -1; sign -= 2) {
+                    int dist = sign > 0 ? max[axis] : -min[axis];
+                    long key = ((long) axis << 40) | ((long) (sign + 1) << 32) | (dist & 0xffffffffL);
+
+                    Integer pnum = planeIndex.get(key);
+                    if (pnum == null) {
+                        pnum = planeIndex.size() + 1;
+                        planeIndex.put(key, pnum);
+
+                        float[] normal = new float[3];
+                        normal[axis] = sign;
+                        plane.normal = new Vector3f(normal);
+                        plane.dist = dist;
+                        plane.type = axis;
+                        plane.write(planeOut);
+                    }
+
+                    side.pnum = pnum;
+                    side.write(sideOut);
+                }
+            }
+
+            leafBrushOut.writeUnsignedShort(i);
+        }
+    }
+
+    private void writeFaces(Map<LumpType, ByteBuffer> lumps) throws IOException {
+        int faces = 1 + displacements;
+        int dispSize = (1 << dispPower) + 1;
+        int dispVerts = dispSize * dispSize;
+        int dispTris = 2 * (dispSize - 1) * (dispSize - 1);
+        int gridVerts = dispGrid + 1;
+
+        DataWriter vertOut = writer(lumps, LumpType.LUMP_VERTEXES, (4L + gridVerts * gridVerts) * 12);
+        DataWriter edgeOut = writer(lumps, LumpType.LUMP_EDGES, (1 + faces * 4L) * 4);
+        DataWriter surfEdgeOut = writer(lumps, LumpType.LUMP_SURFEDGES, faces * 4L * 4);
+        DataWriter faceOut = writer(lumps, LumpType.LUMP_FACES, faces * 56L);
+        DataWriter dispInfoOut = writer(lumps, LumpType.LUMP_DISPINFO, displacements * 176L);
+        DataWriter dispVertOut = writer(lumps, LumpType.LUMP_DISP_VERTS, (long) displacements * dispVerts * 20);
+        DataWriter dispTriOut = writer(lumps, LumpType.LUMP_DISP_TRIS, (long) displacements * dispTris * 2);
+
+        // floor corners, followed by the corners of the displacement grid
+        int floorExtent = Math.max(dispGrid * DISP_SPACING / 2, BRUSH_GRID * BRUSH_SPACING / 2);
+        DVertex vertex = new DVertex();
+        int[][] floorCorners = {{-1, -1}, {-1, 1}, {1, 1}, {1, -1}};
+        for (int[] corner : floorCorners) {
+            vertex.point = new Vector3f(corner[0] * floorExtent, corner[1] * floorExtent, FLOOR_Z);
+            vertex.write(vertOut);
+        }
+
+        int dispOrigin = -dispGrid * DISP_SPACING / 2;
+        for (int y = 0; y < gridVerts; y++) {
+            for (int x = 0; x < gridVerts; x++) {
+                vertex.point = new Vector3f(dispOrigin + x * DISP_SPACING,
+                        dispOrigin + y * DISP_SPACING, FLOOR_Z);
+                vertex.write(vertOut);
+            }
+        }
+
+        // edge 0 is unused in real maps as well
+        DEdge edge = new DEdge();
+        edge.write(edgeOut);
+
+        DFace face = new DFace();
+        face.pnum = 0;
+        face.numedge = 4;
+        face.texinfo = TEXINFO_BRUSH;
+        face.surfaceFogVolumeID = -1;
+        face.lightofs = -1;
+        face.styles = new byte[] {0, -1, -1, -1};
+
+        int edgeIndex = 1;
+
+        for (int i = 0; i < faces; i++) {
+            int[] corners;
+
+            if (i == 0) {
+                corners = new int[] {0, 1, 2, 3};
+                face.dispInfo = -1;
+                face.area = 4f * floorExtent * floorExtent;
+            } else {
+                int disp = i - 1;
+                int x = disp % dispGrid;
+                int y = disp / dispGrid;
+                int base = 4 + y * gridVerts + x;
+                corners = new int[] {base, base + gridVerts, base + gridVerts + 1, base + 1};
+                face.dispInfo = (short) disp;
+                face.area = DISP_SPACING * DISP_SPACING;
+            }
+
+            face.fstedge = i * 4;
+            face.origFace = i;
+            face.write(faceOut);
+
+            for (int j = 0; j < 4; j++) {
+                edge.v[0] = corners[j];
+                edge.v[1] = corners[(j + 1) % 4];
+                edge.write(edgeOut);
+                surfEdgeOut.writeInt(edgeIndex++);
+            }
+        }
+
+        DDispInfo dispInfo = new DDispInfo();
+        dispInfo.power = dispPower;
+        dispInfo.minTess = 0;
+        dispInfo.smoothingAngle = 0;
+        dispInfo.contents = 1;
+
+        DDispVert dispVert = new DDispVert();
+        dispVert.vector = Vector3f.BASE_VECTOR_Z;
+
+        DDispTri dispTri = new DDispTri();
+
+        for (int i = 0; i < displacements; i++) {
+            int x = i % dispGrid;
+            int y = i / dispGrid;
+
+            dispInfo.startPos = new Vector3f(dispOrigin + x * DISP_SPACING,
+                    dispOrigin + y * DISP_SPACING, FLOOR_Z);
+            dispInfo.dispVertStart = i * dispVerts;
+            dispInfo.dispTriStart = i * dispTris;
+            dispInfo.mapFace = i + 1;
+            dispInfo.write(dispInfoOut);
+
+            // gentle waves that match along the borders of neighbors
+            for (int v = 0; v < dispVerts; v++) {
+                double px = x + (v % dispSize) / (double) (dispSize - 1);
+                double py = y + (v / dispSize) / (double) (dispSize - 1);
+                dispVert.dist = (float) (16 * (Math.sin(px * Math.PI) * Math.cos(py * Math.PI) + 1));
+                dispVert.alpha = random.nextInt(256);
+                dispVert.write(dispVertOut);
+            }
+
+            for (int t = 0; t < dispTris; t++) {
+                dispTri.write(dispTriOut);
+            }
+        }
+    }
+
+    private void writeTree(Map<LumpType, ByteBuffer> lumps) throws IOException {
+        short[] mins = {-16384, -16384, -16384};
+        short[] maxs = {16383, 16383, 16383};
+
+        // a single node that puts all brushes into the first leaf and leaves
+        // the second one empty
+        DNode node = new DNode();
+        node.planenum = 0;
+        node.children[0] = -1;
+        node.children[1] = -2;
+        node.mins = mins;
+        node.maxs = maxs;
+        node.write(writer(lumps, LumpType.LUMP_NODES, node.getSize()));
+
+        DataWriter leafOut = writer(lumps, LumpType.LUMP_LEAFS, 2 * 32);
+
+        DLeaf leaf = new DLeafV1();
+        leaf.contents = 1;
+        leaf.cluster = -1;
+        leaf.mins = mins;
+        leaf.maxs = maxs;
+        leaf.fstleafbrush = 0;
+        leaf.numleafbrush = brushes;
+        leaf.leafWaterDataID = -1;
+        leaf.write(leafOut);
+
+        leaf.contents = 0;
+        leaf.cluster = 0;
+        leaf.numleafbrush = 0;
+        leaf.write(leafOut);
+
+        DModel model = new DModel();
+        model.mins = new Vector3f(mins[0], mins[1], mins[2]);
+        model.maxs = new Vector3f(maxs[0], maxs[1], maxs[2]);
+        model.origin = Vector3f.NULL;
+        model.headnode = 0;
+        model.fstface = 0;
+        model.numface = 1 + displacements;
+        model.write(writer(lumps, LumpType.LUMP_MODELS, model.getSize()));
+    }
+
+    private void writeTextures(Map<LumpType, ByteBuffer> lumps) throws IOException {
+        DataWriter texInfoOut = writer(lumps, LumpType.LUMP_TEXINFO, TEXTURES.length * 72L);
+        DataWriter texDataOut = writer(lumps, LumpType.LUMP_TEXDATA, TEXTURES.length * 32L);
+        DataWriter stringTableOut = writer(lumps, LumpType.LUMP_TEXDATA_STRING_TABLE, TEXTURES.length * 4L);
+
+        int stringDataSize = Arrays.stream(TEXTURES).mapToInt(t -> t.length() + 1).sum();
+        DataWriter stringDataOut = writer(lumps, LumpType.LUMP_TEXDATA_STRING_DATA, stringDataSize);
+
+        for (int i = 0; i < TEXTURES.length; i++) {
+            DTexInfo texInfo = new DTexInfo();
+            texInfo.textureVecsTexels[0][0] = 0.25f;
+            texInfo.textureVecsTexels[1][1] = -0.25f;
+            texInfo.lightmapVecsLuxels[0][0] = 0.0625f;
+            texInfo.lightmapVecsLuxels[1][1] = -0.0625f;
+            texInfo.flags = EnumSet.noneOf(SurfaceFlag.class);
+            texInfo.texdata = i;
+            texInfo.write(texInfoOut);
+
+            DTexData texData = new DTexData();
+            texData.reflectivity = new Vector3f(0.5f, 0.5f, 0.5f);
+            texData.texname = i;
+            texData.width = texData.viewWidth = 512;
+            texData.height = texData.viewHeight = 512;
+            texData.write(texDataOut);
+
+            stringTableOut.writeInt((int) stringDataOut.position());
+            stringDataOut.writeStringNull(TEXTURES[i]);
+        }
+    }
+
+    private void writeOverlays(Map<LumpType, ByteBuffer> lumps) throws IOException {
+        DataWriter overlayOut = writer(lumps, LumpType.LUMP_OVERLAYS, overlays * 352L);
+        DataWriter fadeOut = writer(lumps, LumpType.LUMP_OVERLAY_FADES, overlays * 8L);
+
+        DOverlay overlay = new DOverlay();
+        overlay.texinfo = TEXINFO_OVERLAY;
+        overlay.faceCountAndRenderOrder = 1;
+        overlay.ofaces[0] = 0;
+        overlay.u[1] = 1;
+        overlay.v[1] = 1;
+        // the z components of the UV points store the U basis vector
+        overlay.uvpoints[0] = new Vector3f(-32, -32, 1);
+        overlay.uvpoints[1] = new Vector3f(-32, 32, 0);
+        overlay.uvpoints[2] = new Vector3f(32, 32, 0);
+        overlay.uvpoints[3] = new Vector3f(32, -32, 0);
+        overlay.basisNormal = Vector3f.BASE_VECTOR_Z;
+
+        DOverlayFade fade = new DOverlayFade();
+
+        int extent = BRUSH_GRID * BRUSH_SPACING;
+
+        for (int i = 0; i < overlays; i++) {
+            overlay.id = i;
+            overlay.origin = new Vector3f(random.nextInt(extent) - extent / 2,
+                    random.nextInt(extent) - extent / 2, FLOOR_Z);
+            overlay.write(overlayOut);
+            fade.write(fadeOut);
+        }
+    }
+
+    private DStaticProp createStaticProp() {
+        try {
+            Class<?> propClass = Class.forName(DStaticProp.class.getName() + "V" + staticPropVersion);
+            return (DStaticProp) propClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("Unsupported static prop version " + staticPropVersion, ex);
+        }
+    }
+
+    private GameLump createStaticPropLump() throws IOException {
+        DStaticProp prop = createStaticProp();
+
+        long size = 4 + PROP_MODELS * 128L + 4 + 2 + 4 + (long) staticProps * prop.getSize();
+        ByteBuffer bb = allocate(size);
+        DataWriter out = DataWriters.forByteBuffer(bb);
+
+        out.writeInt(PROP_MODELS);
+        for (int i = 0; i < PROP_MODELS; i++) {
+            out.writeStringFixed(String.format("models/props/generated_%02d.mdl", i), 128);
+        }
+
+        // all props are in the empty leaf
+        out.writeInt(1);
+        out.writeUnsignedShort(1);
+
+        DStaticPropV4 propV4 = (DStaticPropV4) prop;
+        propV4.leafCount = 1;
+        propV4.solid = 6;
+        propV4.flags = EnumSet.noneOf(StaticPropFlag.class);
+        propV4.fademin = -1;
+
+        if (prop instanceof DStaticPropV5) {
+            ((DStaticPropV5) prop).forcedFadeScale = 1;
+        }
+        if (prop instanceof DStaticPropV8) {
+            ((DStaticPropV8) prop).diffuseModulation = new Color32(255, 255, 255, 255);
+        }
+        if (prop instanceof DStaticPropV11lite) {
+            ((DStaticPropV11lite) prop).diffuseModulation = new Color32(255, 255, 255, 255);
+        }
+
+        int extent = BRUSH_GRID * BRUSH_SPACING;
+
+        out.writeInt(staticProps);
+        for (int i = 0; i < staticProps; i++) {
+            propV4.origin = new Vector3f(random.nextInt(extent) - extent / 2,
+                    random.nextInt(extent) - extent / 2, FLOOR_Z + 32);
+            propV4.angles = new Vector3f(0, random.nextInt(360), 0);
+            propV4.lightingOrigin = propV4.origin;
+            propV4.propType = i % PROP_MODELS;
+            propV4.skin = i % 4;
+            prop.write(out);
+        }
+
+        bb.flip();
+
+        GameLump gameLump = new GameLump();
+        gameLump.setBuffer(bb);
+        gameLump.setFourCC(EndianUtils.swapInteger(StringMacroUtils.makeID("sprp")));
+        gameLump.setVersion(staticPropVersion);
+        return gameLump;
+    }
+
+    private ByteBuffer createEntities() {
+        int extent = BRUSH_GRID * BRUSH_SPACING;
+        StringBuilder sb = new StringBuilder(entities * entityBytes() + 256);
+
+        sb.append("{\n");
+        sb.append("\"world_maxs\" \"8192 8192 4096\"\n");
+        sb.append("\"world_mins\" \"-8192 -8192 -1024\"\n");
+        sb.append("\"skyname\" \"sky_day01_01\"\n");
+        sb.append("\"mapversion\" \"1\"\n");
+        sb.append("\"classname\" \"worldspawn\"\n");
+        sb.append("}\n");
+
+        for (int i = 0; i < entities; i++) {
+            sb.append("{\n");
+            sb.append("\"origin\" \"").append(random.nextInt(extent) - extent / 2).append(' ')
+                    .append(random.nextInt(extent) - extent / 2).append(' ')
+                    .append(FLOOR_Z + 64 + random.nextInt(1024)).append("\"\n");
+            sb.append("\"targetname\" \"ent_").append(i).append("\"\n");
+
+            switch (i % 3) {
+                case 0:
+                    sb.append("\"_light\" \"255 255 255 200\"\n");
+                    sb.append("\"classname\" \"light\"\n");
+                    break;
+
+                case 1:
+                    sb.append("\"angles\" \"0 ").append(random.nextInt(360)).append(" 0\"\n");
+                    sb.append("\"classname\" \"info_target\"\n");
+                    break;
+
+                default:
+                    sb.append("\"OnTrigger\" \"ent_").append(random.nextInt(entities))
+                            .append(",Trigger,,0,-1\"\n");
+                    sb.append("\"classname\" \"logic_relay\"\n");
+                    break;
+            }
+
+            sb.append("}\n");
+        }
+
+        sb.append('\0');
+
+        byte[] data = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer bb = allocate(data.length);
+        bb.put(data);
+        return bb;
+    }
+
+    private static ByteBuffer createPakFile() {
+        // an empty zip archive, which consists of the end of central
+        // directory record only
+        ByteBuffer bb = allocate(22);
+        bb.putInt(0x06054b50);
+        bb.position(bb.capacity());
+        return bb;
+    }
+
+    static long parseSize(String value) {
+        String str = value.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+
+        if (str.endsWith("K")) {
+            unit = 1L << 10;
+        } else if (str.endsWith("M")) {
+            unit = 1L << 20;
+        } else if (str.endsWith("G")) {
+            unit = 1L << 30;
+        }
+
+        if (unit != 1) {
+            str = str.substring(0, str.length() - 1);
+        }
+
+        return Long.parseLong(str) * unit;
+    }
+
+    public static void main(String[] args) throws IOException {
+        LogUtils.configure();
+
+        Options opts = new Options();
+        opts.addOption(Option.builder("o").hasArg().argName("file").required()
+                .desc("Output BSP file.").build());
+        opts.addOption(Option.builder("size").hasArg().argName("bytes")
+                .desc("Approximate map size, like 1M, 64M or 1G. Counts given explicitly override the derived ones.").build());
+        opts.addOption(Option.builder("brushes").hasArg().argName("n").desc("Number of brushes.").build());
+        opts.addOption(Option.builder("displacements").hasArg().argName("n").desc("Number of displacements.").build());
+        opts.addOption(Option.builder("power").hasArg().argName("n").desc("Displacement power (2-4).").build());
+        opts.addOption(Option.builder("overlays").hasArg().argName("n").desc("Number of overlays.").build());
+        opts.addOption(Option.builder("props").hasArg().argName("n").desc("Number of static props.").build());
+        opts.addOption(Option.builder("sprp").hasArg().argName("version")
+                .desc("Static prop lump version, one of " + STATIC_PROP_VERSIONS + ".").build());
+        opts.addOption(Option.builder("entities").hasArg().argName("n").desc("Number of point entities.").build());
+        opts.addOption(Option.builder("seed").hasArg().argName("n").desc("Random seed.").build());
+        opts.addOption(Option.builder("compress").desc("Compress lumps with LZMA.").build());
+
+        CommandLine cl;
+        try {
+            cl = new DefaultParser().parse(opts, args);
+        } catch (ParseException ex) {
+            System.err.println(ex.getMessage());
+            new HelpFormatter().printHelp("BspGenerator", opts, true);
+            System.exit(1);
+            return;
+        }
+
+        BspGenerator gen;
+        try {
+            gen = cl.hasOption("size") ? forSize(parseSize(cl.getOptionValue("size"))) : new BspGenerator();
+
+            if (cl.hasOption("brushes")) {
+                gen.brushes = Integer.parseInt(cl.getOptionValue("brushes"));
+            }
+            if (cl.hasOption("displacements")) {
+                gen.displacements = Integer.parseInt(cl.getOptionValue("displacements"));
+            }
+            if (cl.hasOption("power")) {
+                gen.dispPower = Integer.parseInt(cl.getOptionValue("power"));
+            }
+            if (cl.hasOption("overlays")) {
+                gen.overlays = Integer.parseInt(cl.getOptionValue("overlays"));
+            }
+            if (cl.hasOption("props")) {
+                gen.staticProps = Integer.parseInt(cl.getOptionValue("props"));
+            }
+            if (cl.hasOption("sprp")) {
+                gen.staticPropVersion = Integer.parseInt(cl.getOptionValue("sprp"));
+            }
+            if (cl.hasOption("entities")) {
+                gen.entities = Integer.parseInt(cl.getOptionValue("entities"));
+            }
+            if (cl.hasOption("seed")) {
+                gen.seed = Long.parseLong(cl.getOptionValue("seed"));
+            }
+        } catch (NumberFormatException ex) {
+            System.err.println("Invalid number: " + ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        gen.compress = cl.hasOption("compress");
+        gen.generate(Paths.get(cl.getOptionValue("o")));
+    }
+}
@@ -0,0 +1,54 @@
+package info.ata4.benchmark;
+
+import info.ata4.bsplib.vector.Vector2f;
+import info.ata4.bspsrc.util.ConvexPolygon;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polygon intersection as used to map areaportals and occluders to brushes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class ConvexPolygonBenchmark {
+
+    @Param({"4", "8", "16"})
+    public int vertices;
+
+    private ConvexPolygon polygon1;
+    private ConvexPolygon polygon2;
+    private ConvexPolygon disjoint;
+
+    @Setup
+    public void setup() {
+        polygon1 = regularPolygon(vertices, 0, 0, 128);
+        polygon2 = regularPolygon(vertices, 64, 32, 128);
+        disjoint = regularPolygon(vertices, 1024, 1024, 128);
+    }
+
+    private static ConvexPolygon regularPolygon(int count, float x, float y, float radius) {
+        Vector2f[] verts = new Vector2f[count];
+
+        for (int i = 0; i < count; i++) {
+            double angle = 2 * Math.PI * i / count;
+            verts[i] = new Vector2f(x + radius * (float) Math.cos(angle), y + radius * (float) Math.sin(angle));
+        }
+
+        return new ConvexPolygon(verts);
+    }
+
+    @Benchmark
+    public Optional<ConvexPolygon> intersecting() {
+        return polygon1.getIntersectionPolygon(polygon2);
+    }
+
+    @Benchmark
+    public Optional<ConvexPolygon> disjoint() {
+        return polygon1.getIntersectionPolygon(disjoint);
+    }
+}
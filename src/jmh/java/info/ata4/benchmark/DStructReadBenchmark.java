@@ -0,0 +1,76 @@
+package info.ata4.benchmark;
+
+import info.ata4.bsplib.contentreader.DStructPacketsContentReader;
+import info.ata4.bsplib.struct.DBrushSide;
+import info.ata4.bsplib.struct.DFace;
+import info.ata4.bsplib.struct.DPlane;
+import info.ata4.bsplib.struct.DStruct;
+import info.ata4.bsplib.struct.DStructView;
+import info.ata4.io.DataReaders;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Decoding of struct lumps with {@link DStructPacketsContentReader}, compared
+ * to a scan with the flyweight cursor of {@link DStructView}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class DStructReadBenchmark {
+
+    @Param({"10000"})
+    public int count;
+
+    private ByteBuffer faces;
+    private ByteBuffer planes;
+    private ByteBuffer brushSides;
+
+    @Setup
+    public void setup() {
+        faces = BenchmarkData.randomLump(count * new DFace().getSize());
+        planes = BenchmarkData.randomLump(count * new DPlane().getSize());
+        brushSides = BenchmarkData.randomLump(count * new DBrushSide().getSize());
+    }
+
+    @Benchmark
+    public List<DFace> readFaces() throws IOException {
+        return read(faces, DFace::new);
+    }
+
+    @Benchmark
+    public long viewFaces() {
+        DStructView<DFace> view = new DStructView<>(faces.duplicate().order(ByteOrder.LITTLE_ENDIAN), DFace::new);
+        DStructView<DFace>.Cursor cursor = view.cursor();
+        long numedges = 0;
+
+        while (cursor.next()) {
+            numedges += cursor.get().numedge;
+        }
+
+        return numedges;
+    }
+
+    @Benchmark
+    public List<DPlane> readPlanes() throws IOException {
+        return read(planes, DPlane::new);
+    }
+
+    @Benchmark
+    public List<DBrushSide> readBrushSides() throws IOException {
+        return read(brushSides, DBrushSide::new);
+    }
+
+    private static <E extends DStruct> List<E> read(ByteBuffer lump, Supplier<E> supplier) throws IOException {
+        ByteBuffer buffer = lump.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        return new DStructPacketsContentReader<>(supplier).read(DataReaders.forByteBuffer(buffer));
+    }
+}
@@ -0,0 +1,49 @@
+package info.ata4.benchmark;
+
+import info.ata4.bsplib.io.EntityBufferReader;
+import info.ata4.bsplib.io.EntityInputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the entity lump text.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class EntityReadBenchmark {
+
+    @Param({"5000"})
+    public int entities;
+
+    private byte[] lump;
+
+    @Setup
+    public void setup() {
+        lump = BenchmarkData.entityLump(entities);
+    }
+
+    @Benchmark
+    public void readEntity(Blackhole bh) throws IOException {
+        try (EntityInputStream in = new EntityInputStream(new ByteArrayInputStream(lump))) {
+            for (Object ent = in.readEntity(); ent != null; ent = in.readEntity()) {
+                bh.consume(ent);
+            }
+        }
+    }
+
+    @Benchmark
+    public void readEntityBuffer(Blackhole bh) {
+        EntityBufferReader in = new EntityBufferReader(ByteBuffer.wrap(lump));
+        for (Object ent = in.readEntity(); ent != null; ent = in.readEntity()) {
+            bh.consume(ent);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package info.ata4.benchmark;
+
+import info.ata4.bsplib.entity.Entity;
+import info.ata4.bsplib.entity.KeyValue;
+import info.ata4.bsplib.io.EntityBufferReader;
+import info.ata4.bsplib.io.EntityInputStream;
+import info.ata4.log.LogUtils;
+import org.apache.commons.cli.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+
+/**
+ * Differential test of {@link EntityBufferReader} against the reference
+ * parser {@link EntityInputStream}. Both parse the same random entity lumps,
+ * well-formed ones and random byte soup made of the characters the parsers
+ * react to, with and without escape sequences and from heap and direct
+ * buffers. The entities, their I/O key-values and the final position have to
+ * match exactly. The process exits with status 1 on the first mismatch and
+ * prints the input that caused it.
+ */
+public class EntityReaderComparison {
+
+    // characters that affect the parser state, plus some plain ones
+    private static final byte[] ALPHABET = {
+        '"', '"', '"', '{', '}', '\\', ',', ',', 0x1b, 'a', 'b', ' ', '\n', 0, (byte) 0xe9
+    };
+
+    private final Random random;
+
+    EntityReaderComparison(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Creates the next input. Every third input is random byte soup, the
+     * others are well-formed lumps with random keys and values, optionally
+     * missing the class name or the terminating null byte.
+     */
+    byte[] nextInput(int n) {
+        if (n % 3 == 0) {
+            byte[] data = new byte[random.nextInt(200)];
+
+            for (int i = 0; i < data.length; i++) {
+                data[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+            }
+
+            return data;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        int entities = random.nextInt(6);
+
+        for (int i = 0; i < entities; i++) {
+            sb.append("{\n");
+
+            int keyValues = random.nextInt(6);
+            for (int j = 0; j < keyValues; j++) {
+                sb.append('"');
+                appendString(sb);
+                sb.append("\" \"");
+                appendString(sb);
+                sb.append("\"\n");
+            }
+
+            if (random.nextInt(4) > 0) {
+                sb.append("\"classname\" \"class_").append(i).append("\"\n");
+            }
+
+            sb.append("}\n");
+        }
+
+        if (random.nextBoolean()) {
+            sb.append('\0');
+        }
+
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private void appendString(StringBuilder sb) {
+        int len = random.nextInt(20);
+
+        for (int i = 0; i < len; i++) {
+            if (random.nextInt(10) < 6) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            } else {
+                sb.append((char) (ALPHABET[random.nextInt(ALPHABET.length)] & 0xff));
+            }
+        }
+    }
+
+    /**
+     * Compares both parsers on one input.
+     *
+     * @return null if the results match, otherwise a description of the
+     *         mismatch
+     */
+    static String compare(byte[] data) throws IOException {
+        for (boolean allowEsc : new boolean[]{false, true}) {
+            List<String> expected = new ArrayList<>();
+
+            try (EntityInputStream in = new EntityInputStream(new ByteArrayInputStream(data))) {
+                in.setAllowEscSeq(allowEsc);
+
+                for (Entity ent = in.readEntity(); ent != null; ent = in.readEntity()) {
+                    expected.add(describe(ent));
+                }
+            }
+
+            for (boolean direct : new boolean[]{false, true}) {
+                ByteBuffer bb;
+
+                if (direct) {
+                    bb = ByteBuffer.allocateDirect(data.length);
+                    bb.put(data);
+                    bb.flip();
+                } else {
+                    bb = ByteBuffer.wrap(data);
+                }
+
+                EntityBufferReader reader = new EntityBufferReader(bb);
+                reader.setAllowEscSeq(allowEsc);
+
+                List<String> actual = new ArrayList<>();
+                for (Entity ent = reader.readEntity(); ent != null; ent = reader.readEntity()) {
+                    actual.add(describe(ent));
+                }
+
+                if (!expected.equals(actual) || reader.position() != data.length) {
+                    return String.format("allowEsc=%b direct=%b position=%d%nexpected: %s%nactual:   %s",
+                            allowEsc, direct, reader.position(), expected, actual);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static String describe(Entity ent) {
+        StringBuilder sb = new StringBuilder(ent.getClassName());
+
+        for (Map.Entry<String, String> entry : ent.getEntrySet()) {
+            sb.append('|').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+
+        sb.append("|io");
+
+        for (KeyValue kv : ent.getIO()) {
+            sb.append('|').append(kv.getKey()).append('=').append(kv.getValue());
+        }
+
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        // the parsers log every syntax error of the malformed inputs
+        LogUtils.configure(Level.SEVERE);
+
+        Options opts = new Options();
+        opts.addOption(Option.builder("iterations").hasArg().argName("n")
+                .desc("Number of random inputs, default 200000.").build());
+        opts.addOption(Option.builder("seed").hasArg().argName("n")
+                .desc("Random seed, default 1.").build());
+
+        int iterations;
+        long seed;
+
+        try {
+            CommandLine cl = new DefaultParser().parse(opts, args);
+            iterations = Integer.parseInt(cl.getOptionValue("iterations", "200000"));
+            seed = Long.parseLong(cl.getOptionValue("seed", "1"));
+        } catch (ParseException | NumberFormatException ex) {
+            System.err.println(ex.getMessage());
+            new HelpFormatter().printHelp("EntityReaderComparison", opts, true);
+            System.exit(1);
+            return;
+        }
+
+        EntityReaderComparison test = new EntityReaderComparison(seed);
+
+        for (int i = 0; i < iterations; i++) {
+            byte[] data = test.nextInput(i);
+            String mismatch = compare(data);
+
+            if (mismatch != null) {
+                System.out.printf("Mismatch for input %d:%n%s%n%s%n", i,
+                        new String(data, StandardCharsets.ISO_8859_1), mismatch);
+                System.exit(1);
+            }
+        }
+
+        System.out.printf("Compared %d inputs, no mismatches%n", iterations);
+    }
+}
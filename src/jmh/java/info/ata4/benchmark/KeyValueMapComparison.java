@@ -0,0 +1,184 @@
+package info.ata4.benchmark;
+
+import info.ata4.bsplib.entity.Entity;
+import org.apache.commons.cli.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Differential test of the compact key-value storage of {@link Entity}
+ * against a {@link LinkedHashMap}. Random sequences of puts, removals,
+ * lookups, iterator removals, entry updates and clears are applied to both,
+ * and after each operation the contents, the iteration order, equals and
+ * hashCode have to match. The process exits with status 1 on the first
+ * mismatch.
+ */
+public class KeyValueMapComparison {
+
+    private static final int OPERATIONS = 60;
+    private static final int KEYS = 25;
+    private static final int VALUES = 5;
+
+    private final Random random;
+
+    KeyValueMapComparison(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Runs one random sequence of operations.
+     *
+     * @return null if both maps behaved the same, otherwise a description of
+     *         the mismatch
+     */
+    String run() {
+        Map<String, String> expected = new LinkedHashMap<>();
+        Entity ent = new Entity("test");
+
+        for (int i = 0; i < OPERATIONS; i++) {
+            // copy the key so the lookup can't rely on identity
+            String key = new String("key" + random.nextInt(KEYS));
+            String value = "value" + random.nextInt(VALUES);
+            String op;
+
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    op = "put " + key;
+                    expected.put(key, value);
+                    ent.setValue(key, value);
+                    break;
+
+                case 2:
+                    op = "remove " + key;
+                    expected.remove(key);
+                    ent.removeValue(key);
+                    break;
+
+                case 3:
+                    op = "get " + key;
+                    if (!Objects.equals(expected.get(key), ent.getValue(key))
+                            || expected.containsKey(key) != ent.hasKey(key)) {
+                        return op + ": lookup differs";
+                    }
+                    break;
+
+                case 4:
+                    op = "iterate";
+                    String mismatch = iterate(expected, ent);
+                    if (mismatch != null) {
+                        return op + ": " + mismatch;
+                    }
+                    break;
+
+                default:
+                    // clear rarely, so the maps can grow
+                    op = "none";
+                    if (random.nextInt(20) == 0) {
+                        op = "clear";
+                        expected.clear();
+                        ent.clear();
+                    }
+            }
+
+            String mismatch = compare(expected, ent);
+            if (mismatch != null) {
+                return String.format("after %s: %s%nexpected: %s", op, mismatch, expected);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Iterates over both maps, removing and updating some of the entries
+     * through the iterators.
+     */
+    private String iterate(Map<String, String> expected, Entity ent) {
+        Iterator<Map.Entry<String, String>> it1 = expected.entrySet().iterator();
+        Iterator<Map.Entry<String, String>> it2 = ent.getEntrySet().iterator();
+
+        while (it1.hasNext()) {
+            if (!it2.hasNext()) {
+                return "iterator ended early";
+            }
+
+            Map.Entry<String, String> e1 = it1.next();
+            Map.Entry<String, String> e2 = it2.next();
+
+            if (!e1.equals(e2) || e1.hashCode() != e2.hashCode()) {
+                return "entry " + e2 + " differs from " + e1;
+            }
+
+            int action = random.nextInt(4);
+            if (action == 0) {
+                it1.remove();
+                it2.remove();
+            } else if (action == 1) {
+                String value = "value" + random.nextInt(VALUES);
+                if (!Objects.equals(e1.setValue(value), e2.setValue(value))) {
+                    return "setValue returned different values";
+                }
+            }
+        }
+
+        return it2.hasNext() ? "iterator has extra entries" : null;
+    }
+
+    private static String compare(Map<String, String> expected, Entity ent) {
+        if (!expected.entrySet().equals(ent.getEntrySet()) || !ent.getEntrySet().equals(expected.entrySet())) {
+            return "contents differ";
+        }
+
+        if (expected.entrySet().hashCode() != ent.getEntrySet().hashCode()) {
+            return "hash codes differ";
+        }
+
+        if (!new ArrayList<>(expected.keySet()).equals(new ArrayList<>(ent.getKeys()))
+                || !new ArrayList<>(expected.values()).equals(new ArrayList<>(ent.getValues()))) {
+            return "iteration order differs";
+        }
+
+        return null;
+    }
+
+    public static void main(String[] args) {
+        Options opts = new Options();
+        opts.addOption(Option.builder("iterations").hasArg().argName("n")
+                .desc("Number of random operation sequences, default 200000.").build());
+        opts.addOption(Option.builder("seed").hasArg().argName("n")
+                .desc("Random seed, default 1.").build());
+
+        int iterations;
+        long seed;
+
+        try {
+            CommandLine cl = new DefaultParser().parse(opts, args);
+            iterations = Integer.parseInt(cl.getOptionValue("iterations", "200000"));
+            seed = Long.parseLong(cl.getOptionValue("seed", "1"));
+        } catch (ParseException | NumberFormatException ex) {
+            System.err.println(ex.getMessage());
+            new HelpFormatter().printHelp("KeyValueMapComparison", opts, true);
+            System.exit(1);
+            return;
+        }
+
+        KeyValueMapComparison test = new KeyValueMapComparison(seed);
+
+        for (int i = 0; i < iterations; i++) {
+            String mismatch = test.run();
+
+            if (mismatch != null) {
+                System.out.printf("Mismatch in sequence %d %s%n", i, mismatch);
+                System.exit(1);
+            }
+        }
+
+        System.out.printf("Compared %d operation sequences, no mismatches%n", iterations);
+    }
+}
@@ -0,0 +1,35 @@
+package info.ata4.benchmark;
+
+import info.ata4.bsplib.io.LzmaUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decompression of LZMA compressed lumps as found in console and some newer
+ * PC maps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class LzmaBenchmark {
+
+    @Param({"4194304"})
+    public int size;
+
+    private ByteBuffer compressed;
+
+    @Setup
+    public void setup() throws IOException {
+        compressed = LzmaUtil.compress(BenchmarkData.patternLump(size));
+    }
+
+    @Benchmark
+    public ByteBuffer uncompress() throws IOException {
+        return LzmaUtil.uncompress(compressed);
+    }
+}
@@ -0,0 +1,329 @@
+package info.ata4.benchmark;
+
+import info.ata4.bspsrc.BspFileEntry;
+import info.ata4.bspsrc.BspSource;
+import info.ata4.bspsrc.BspSourceConfig;
+import info.ata4.log.LogUtils;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end throughput test that decompiles a fixed corpus of maps through
+ * {@link BspSource} in two modes and compares the results against a stored
+ * baseline. The "inventory" mode runs with nullOutput, which only loads the
+ * BSP files and reads the entities, so it doesn't measure the decompiler.
+ * The "output" mode decompiles the maps and writes the VMF files.
+ * <p>
+ * For each mode it records the decompiled maps per second, the peak heap
+ * usage and the allocation rate. The process exits with status 1 if a
+ * metric is worse than the baseline by more than the tolerance or if there is
+ * no baseline, which fails the Maven build that runs it. The baseline has to
+ * be recorded with -update on the machine that runs the test, absolute
+ * numbers from other machines aren't comparable.
+ */
+public class ThroughputRegression {
+
+    private static final String[] MODES = {"inventory", "output"};
+
+    // generated corpus: size, static prop version and compression per map
+    private static final Object[][] GENERATED_MAPS = {
+        {"1M", 6, false},
+        {"2M", 10, false},
+        {"2M", 11, true},
+        {"4M", 5, false},
+        {"8M", 9, false}
+    };
+
+    private final List<File> corpus = new ArrayList<>();
+    private Path workDir = Paths.get("target", "throughput");
+    private int warmups = 1;
+    private int iterations = 3;
+
+    /**
+     * Generates the synthetic part of the corpus, unless it already exists
+     * from an earlier run. The maps are reproducible, so they only need to
+     * be generated once.
+     */
+    void generateCorpus() throws IOException {
+        Path corpusDir = workDir.resolve("corpus");
+
+        for (int i = 0; i < GENERATED_MAPS.length; i++) {
+            String size = (String) GENERATED_MAPS[i][0];
+            int sprpVersion = (Integer) GENERATED_MAPS[i][1];
+            boolean compress = (Boolean) GENERATED_MAPS[i][2];
+
+            Path file = corpusDir.resolve(String.format("gen_%d_%s_v%d%s.bsp",
+                    i, size.toLowerCase(Locale.ROOT), sprpVersion, compress ? "_lzma" : ""));
+
+            if (!Files.exists(file)) {
+                BspGenerator gen = BspGenerator.forSize(BspGenerator.parseSize(size));
+                gen.staticPropVersion = sprpVersion;
+                gen.compress = compress;
+                gen.seed = i;
+                gen.generate(file);
+            }
+
+            corpus.add(file.toFile());
+        }
+    }
+
+    void addCorpus(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            corpus.addAll(files
+                    .filter(Files::isRegularFile)
+                    .filter(f -> f.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".bsp"))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Runs all modes and returns the metrics by name.
+     */
+    Map<String, Double> run() throws IOException, InterruptedException {
+        Map<String, Double> results = new TreeMap<>();
+
+        for (String mode : MODES) {
+            boolean inventory = mode.equals("inventory");
+            File outDir = workDir.resolve("out").toFile();
+            Files.createDirectories(outDir.toPath());
+
+            for (int i = 0; i < warmups; i++) {
+                runCorpus(inventory, outDir);
+            }
+
+            double bestMapsPerSecond = 0;
+            double minAllocPerMap = Double.MAX_VALUE;
+            double maxAllocRate = 0;
+            double maxPeakHeap = 0;
+
+            for (int i = 0; i < iterations; i++) {
+                Sample sample = runCorpus(inventory, outDir);
+
+                bestMapsPerSecond = Math.max(bestMapsPerSecond, sample.mapsPerSecond());
+                minAllocPerMap = Math.min(minAllocPerMap, sample.allocMBPerMap());
+                maxAllocRate = Math.max(maxAllocRate, sample.allocMBPerSecond());
+                maxPeakHeap = Math.max(maxPeakHeap, sample.peakHeapMB);
+            }
+
+            results.put(mode + ".mapsPerSecond", bestMapsPerSecond);
+            results.put(mode + ".allocMBPerMap", minAllocPerMap);
+            results.put(mode + ".allocMBPerSecond", maxAllocRate);
+            results.put(mode + ".peakHeapMB", maxPeakHeap);
+        }
+
+        return results;
+    }
+
+    private Sample runCorpus(boolean inventory, File outDir) throws InterruptedException {
+        BspSourceConfig config = new BspSourceConfig();
+        config.nullOutput = inventory;
+
+        BspSource bspsrc = new BspSource(config);
+
+        System.gc();
+        ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long allocStart = threadBean.getThreadAllocatedBytes(threadId);
+        long timeStart = System.nanoTime();
+
+        // decompile on this thread so that all allocations are counted
+        for (File file : corpus) {
+            String vmfName = file.getName().replaceFirst("(?i)\\.bsp$", ".vmf");
+            BspFileEntry entry = new BspFileEntry(file, new File(outDir, vmfName));
+
+            if (!bspsrc.decompileFile(entry)) {
+                throw new IllegalStateException("Couldn't decompile " + file);
+            }
+        }
+
+        Sample sample = new Sample();
+        sample.maps = corpus.size();
+        sample.seconds = (System.nanoTime() - timeStart) / 1e9;
+        sample.allocMB = (threadBean.getThreadAllocatedBytes(threadId) - allocStart) / (double) (1 << 20);
+        sample.peakHeapMB = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum() / (double) (1 << 20);
+
+        return sample;
+    }
+
+    /**
+     * Compares the results against the baseline and prints a report.
+     *
+     * @return true if no metric regressed beyond the tolerance
+     */
+    static boolean compare(Map<String, Double> results, Properties baseline, double tolerance) {
+        boolean passed = true;
+
+        System.out.println(String.format("%-28s %12s %12s %8s", "Metric", "Baseline", "Current", "Change"));
+
+        for (Map.Entry<String, Double> entry : results.entrySet()) {
+            String name = entry.getKey();
+            double current = entry.getValue();
+            String baseValue = baseline.getProperty(name);
+
+            if (baseValue == null) {
+                System.out.println(String.format("%-28s %12s %12.2f %8s", name, "-", current, "new"));
+                continue;
+            }
+
+            double base = Double.parseDouble(baseValue);
+            double change = base == 0 ? 0 : (current - base) / base;
+
+            // the allocation rate grows with the throughput, so only the
+            // allocations per map are checked
+            boolean regressed;
+            if (name.endsWith(".mapsPerSecond")) {
+                regressed = change < -tolerance;
+            } else if (name.endsWith(".allocMBPerSecond")) {
+                regressed = false;
+            } else {
+                regressed = change > tolerance;
+            }
+
+            System.out.println(String.format("%-28s %12.2f %12.2f %+7.1f%%%s",
+                    name, base, current, change * 100, regressed ? "  REGRESSION" : ""));
+
+            passed &= !regressed;
+        }
+
+        return passed;
+    }
+
+    private static void storeBaseline(Path file, Map<String, Double> results) throws IOException {
+        Properties props = new Properties();
+        results.forEach((name, value) -> props.setProperty(name, String.format(Locale.ROOT, "%.3f", value)));
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            props.store(writer, "BSPSource end-to-end throughput baseline, update with -update");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LogUtils.configure(Level.WARNING);
+
+        Options opts = new Options();
+        opts.addOption(Option.builder("baseline").hasArg().argName("file").required()
+                .desc("Baseline properties file, created with -update.").build());
+        opts.addOption(Option.builder("tolerance").hasArg().argName("fraction")
+                .desc("Allowed regression per metric, default 0.2 for 20%.").build());
+        opts.addOption(Option.builder("corpus").hasArg().argName("dir")
+                .desc("Directory with additional maps for the corpus.").build());
+        opts.addOption(Option.builder("workdir").hasArg().argName("dir")
+                .desc("Directory for the generated corpus and output, default target/throughput.").build());
+        opts.addOption(Option.builder("iterations").hasArg().argName("n")
+                .desc("Measured runs per mode, default 3.").build());
+        opts.addOption(Option.builder("warmups").hasArg().argName("n")
+                .desc("Warmup runs per mode, default 1.").build());
+        opts.addOption(Option.builder("update").desc("Store the results as the new baseline.").build());
+
+        CommandLine cl;
+        double tolerance;
+        ThroughputRegression test = new ThroughputRegression();
+
+        try {
+            cl = new DefaultParser().parse(opts, args);
+            tolerance = Double.parseDouble(cl.getOptionValue("tolerance", "0.2"));
+            test.iterations = Integer.parseInt(cl.getOptionValue("iterations", "3"));
+            test.warmups = Integer.parseInt(cl.getOptionValue("warmups", "1"));
+        } catch (ParseException | NumberFormatException ex) {
+            System.err.println(ex.getMessage());
+            new HelpFormatter().printHelp("ThroughputRegression", opts, true);
+            System.exit(1);
+            return;
+        }
+
+        if (cl.hasOption("workdir")) {
+            test.workDir = Paths.get(cl.getOptionValue("workdir"));
+        }
+
+        Path baselineFile = Paths.get(cl.getOptionValue("baseline"));
+        Properties baseline = new Properties();
+        boolean update = cl.hasOption("update");
+
+        if (Files.exists(baselineFile)) {
+            try (Reader reader = Files.newBufferedReader(baselineFile)) {
+                baseline.load(reader);
+            }
+        }
+
+        // fail early instead of passing without anything to compare against
+        if (baseline.isEmpty() && !update) {
+            System.out.println("No baseline in " + baselineFile + ", record one on this machine with -update");
+            System.exit(1);
+            return;
+        }
+
+        test.generateCorpus();
+
+        if (cl.hasOption("corpus")) {
+            test.addCorpus(Paths.get(cl.getOptionValue("corpus")));
+        }
+
+        System.out.println("Decompiling " + test.corpus.size() + " maps, "
+                + test.iterations + " iterations per mode");
+
+        Map<String, Double> results = test.run();
+
+        boolean passed = compare(results, baseline, tolerance);
+
+        if (update) {
+            storeBaseline(baselineFile, results);
+            System.out.println("Stored baseline in " + baselineFile);
+        } else if (!passed) {
+            System.out.println(String.format("Throughput regressed by more than %.0f%% against %s",
+                    tolerance * 100, baselineFile));
+            System.exit(1);
+        }
+    }
+
+    private static class Sample {
+        int maps;
+        double seconds;
+        double allocMB;
+        double peakHeapMB;
+
+        double mapsPerSecond() {
+            return maps / seconds;
+        }
+
+        double allocMBPerMap() {
+            return allocMB / maps;
+        }
+
+        double allocMBPerSecond() {
+            return allocMB / seconds;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package info.ata4.benchmark;
+
+import info.ata4.bsplib.vector.Vector3f;
+import info.ata4.bspsrc.VmfWriter;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of key values with floats and vectors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class VmfWriterBenchmark {
+
+    private VmfWriter writer;
+    private float value;
+    private Vector3f v1;
+    private Vector3f v2;
+    private Vector3f v3;
+
+    @Setup
+    public void setup() {
+        writer = new VmfWriter(new NullOutputStream(), VmfWriter.CHARSET);
+        value = 1234.5678f;
+        v1 = new Vector3f(-512.25f, 128.5f, 64);
+        v2 = new Vector3f(-512.25f, 256, 64.125f);
+        v3 = new Vector3f(1024, 256, 64.125f);
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.close();
+    }
+
+    @Benchmark
+    public void putFloat() {
+        writer.put("fademindist", value);
+    }
+
+    @Benchmark
+    public void putVector() {
+        writer.put("origin", v1);
+    }
+
+    @Benchmark
+    public void putPlane() {
+        writer.put("plane", v1, v2, v3);
+    }
+}
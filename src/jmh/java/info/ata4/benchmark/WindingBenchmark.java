@@ -0,0 +1,67 @@
+package info.ata4.benchmark;
+
+import info.ata4.bsplib.struct.BspData;
+import info.ata4.bsplib.struct.DBrush;
+import info.ata4.bsplib.struct.DPlane;
+import info.ata4.bspsrc.util.Winding;
+import info.ata4.bspsrc.util.WindingFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Winding construction and clipping, which dominate brush decompiling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class WindingBenchmark {
+
+    @Param({"1000"})
+    public int brushes;
+
+    private BspData bsp;
+    private Winding planeWinding;
+    private DPlane[] clipPlanes;
+
+    @Setup
+    public void setup() {
+        bsp = BenchmarkData.boxBrushes(brushes);
+
+        // clip a huge winding of the first side with the other sides of the
+        // first brush
+        DBrush brush = bsp.brushes.get(0);
+        planeWinding = WindingFactory.fromPlane(bsp.planes.asList().get(bsp.brushSides.get(brush.fstside).pnum));
+
+        clipPlanes = new DPlane[brush.numside - 1];
+        for (int i = 1; i < brush.numside; i++) {
+            clipPlanes[i - 1] = bsp.planes.asList().get(bsp.brushSides.get(brush.fstside + i).pnum);
+        }
+    }
+
+    @Benchmark
+    public void fromSide(Blackhole bh) {
+        // measure the actual clipping, not the cache
+        WindingFactory.clearCache(bsp);
+
+        for (DBrush brush : bsp.brushes) {
+            for (int i = 0; i < brush.numside; i++) {
+                bh.consume(WindingFactory.fromSide(bsp, brush, i));
+            }
+        }
+    }
+
+    @Benchmark
+    public Winding clipEpsilon() {
+        Winding w = planeWinding;
+
+        for (DPlane plane : clipPlanes) {
+            w = w.clipEpsilon(plane.normal.scalar(-1), -plane.dist, Winding.EPS_SPLIT, false);
+        }
+
+        return w;
+    }
+}
@@ -168,28 +168,43 @@ public class BspInfoFrame extends javax.swing.JFrame {
     }
 
     public void loadFile(File file) {
-        currentFile = file;
-
-        setTitle(NAME + " " + VERSION + " - " + file.getName());
-
         new Thread(new Runnable() {
             @Override
             public void run() {
-                // clear form fields
-                reset();
-
                 // set waiting cursor
                 setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
                 try {
-                    // load BSP file
-                    bspFile = new BspFile();
-                    bspFile.load(currentFile.toPath());
+                    // load BSP file, the previous one stays open until the
+                    // new one has been loaded successfully
+                    BspFile newFile = new BspFile();
+                    BspFileReader newReader;
+                    boolean compressed;
+
+                    try {
+                        newFile.load(file.toPath());
+                        compressed = newFile.isCompressed();
+
+                        newReader = new BspFileReader(newFile);
+                        newReader.loadEntities();
+                    } catch (Exception ex) {
+                        newFile.close();
+                        throw ex;
+                    }
 
-                    boolean compressed = bspFile.isCompressed();
+                    // unmap the previously opened file
+                    if (bspFile != null) {
+                        bspFile.close();
+                    }
+
+                    bspFile = newFile;
+                    bspReader = newReader;
+                    currentFile = file;
 
-                    bspReader = new BspFileReader(bspFile);
-                    bspReader.loadEntities();
+                    setTitle(NAME + " " + VERSION + " - " + file.getName());
+
+                    // clear form fields
+                    reset();
 
                     BspData data = bspReader.getData();
 
@@ -307,9 +322,6 @@ public class BspInfoFrame extends javax.swing.JFrame {
                 } catch (Exception ex) {
                     L.log(Level.SEVERE, "Couldn't read BSP file", ex);
                 } finally {
-                    // free previously opened files and resources
-                    System.gc();
-
                     // reset cursor
                     setCursor(Cursor.getDefaultCursor());
                 }
@@ -10,14 +10,12 @@
 package info.ata4.bspinfo.gui.models;
 
 import info.ata4.bsplib.BspFile;
+import info.ata4.bsplib.PakFile;
 import info.ata4.log.LogUtils;
 import info.ata4.util.gui.ListTableModel;
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipFile;
 
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,10 +36,8 @@ public class EmbeddedTableModel extends ListTableModel {
     public EmbeddedTableModel(BspFile bspFile) {
         this();
 
-        try (ZipFile zip = bspFile.getPakFile().getZipFile()) {
-            Enumeration<ZipArchiveEntry> enumeration = zip.getEntries();
-            while (enumeration.hasMoreElements()) {
-                ZipArchiveEntry ze = enumeration.nextElement();
+        try {
+            for (PakFile.Entry ze : bspFile.getPakFile().getEntries()) {
                 addRow(Arrays.asList(ze.getName(), ze.getSize()));
             }
         } catch (IOException ex) {
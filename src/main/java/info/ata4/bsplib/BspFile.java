@@ -14,38 +14,43 @@ import info.ata4.bsplib.app.SourceApp;
 import info.ata4.bsplib.app.SourceAppDB;
 import info.ata4.bsplib.contentreader.ContentReader;
 import info.ata4.bsplib.io.LzmaUtil;
+import info.ata4.bsplib.io.MappedBufferUtil;
 import info.ata4.bsplib.lump.*;
 import info.ata4.bsplib.util.StringMacroUtils;
-import info.ata4.io.DataReader;
-import info.ata4.io.DataReaders;
-import info.ata4.io.DataWriter;
-import info.ata4.io.DataWriters;
 import info.ata4.io.buffer.ByteBufferUtils;
 import info.ata4.io.util.XORUtils;
 import info.ata4.log.LogUtils;
-import org.apache.commons.io.EndianUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.tukaani.xz.LZMA2Options;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import static info.ata4.bsplib.app.SourceAppID.*;
-import static info.ata4.io.Seekable.Origin.CURRENT;
 
 /**
- * Low-level BSP file class for header and lump access.
+ * Low-level BSP file class for header and lump access. Memory-mapped files
+ * stay mapped until the BSP file is closed.
  *
  * @author Nico Bergemann <barracuda415 at yahoo.de>
  */
-public class BspFile {
+public class BspFile implements AutoCloseable {
 
     // logger
     private static final Logger L = LogUtils.getLogger();
@@ -65,6 +70,9 @@ public class BspFile {
     public static final int HEADER_SIZE = 1036;
     public static final int MAX_LUMPFILES = 128;
 
+    // max. size of heap buffer slices passed to the file channel when saving
+    private static final int WRITE_CHUNK_SIZE = 1 << 20;
+
     // BSP source file
     private Path file;
 
@@ -83,6 +91,15 @@ public class BspFile {
 
     private SourceApp app = SourceApp.UNKNOWN;
 
+    // mapped files and lump files, released on close
+    private final List<ByteBuffer> mappedBuffers = new ArrayList<>();
+    private final List<LumpFile> lumpFiles = new ArrayList<>();
+    private boolean memoryMapped;
+    private boolean closed;
+
+    // pakfile with its index of the central directory
+    private PakFile pakFile;
+
     public BspFile() {
     }
 
@@ -113,62 +130,35 @@ public class BspFile {
      * @throws IOException if the file can't be opened or read
      */
     public void load(Path file, boolean memMapping) throws IOException {
+        ensureOpen();
+
         this.file = file;
         this.name = FilenameUtils.removeExtension(file.getFileName().toString());
 
         L.log(Level.FINE, "Loading headers from {0}", name);
 
-        ByteBuffer bb = createBuffer(memMapping);
-
-        L.log(Level.FINER, "Endianness: {0}", bo);
-
-        // set byte order
-        bb.order(bo);
-
-        // read version
-        version = bb.getInt();
-
-        L.log(Level.FINER, "Version: {0}", version);
-
-        if (version == 0x40014) {
-            // Dark Messiah maps use 14 00 04 00 as version.
-            // The actual BSP version is probably stored in the first two bytes...
-            L.finer("Found Dark Messiah header");
-            app = SourceAppDB.getInstance().fromID(DARK_MESSIAH);
-            version &= 0xff;
-        } else if (version == 27) {
-            // Contagion maps use version 27, ignore VERSION_MAX in this case 
-            L.finer("Found Contagion header");
-            app = SourceAppDB.getInstance().fromID(CONTAGION);
-        }
+        BspHeader header = new BspHeader();
+        ByteBuffer bb = createBuffer(header, memMapping);
 
-        // hack for L4D2 BSPs
-        if (version == 21 && bb.getInt(8) == 0) {
-            L.finer("Found Left 4 Dead 2 header");
-            app = SourceAppDB.getInstance().fromID(LEFT_4_DEAD_2);
-        }
+        memoryMapped = bb instanceof MappedByteBuffer;
 
-        // extra int for Contagion
-        if (app.getAppID() == CONTAGION) {
-            bb.getInt(); // always 0?
+        if (memoryMapped) {
+            mappedBuffers.add(bb);
         }
 
-        if (app.getAppID() == TITANFALL) {
-            mapRev = bb.getInt();
-            L.log(Level.FINER, "Map revision: {0}", mapRev);
+        header.readDirectory(bb, bb.limit());
 
-            bb.getInt(); // always 127?
-        }
+        bo = header.getByteOrder();
+        version = header.getVersion();
+        mapRev = header.getRevision();
+        app = header.getSourceApp();
 
-        loadLumps(bb);
+        loadLumps(bb, header.getLumps());
         loadGameLumps();
 
         if (app.getAppID() == TITANFALL) {
             loadTitanfallLumpFiles();
             loadTitanfallEntityFiles();
-        } else {
-            mapRev = bb.getInt();
-            L.log(Level.FINER, "Map revision: {0}", mapRev);
         }
     }
 
@@ -183,224 +173,222 @@ public class BspFile {
         load(file, true);
     }
 
-    public void save(Path file) throws IOException {
-        this.file = file;
-        this.name = file.getFileName().toString();
-
-        L.log(Level.FINE, "Saving headers to {0}", name);
+    /**
+     * Initializes an empty map with a lump table for the given version, so
+     * that a new map can be built by setting lump buffers and adding game
+     * lumps before calling {@link #save(Path)}.
+     *
+     * @param version BSP version
+     * @param bo byte order of the map
+     * @throws BspException if the version isn't supported
+     */
+    public void create(int version, ByteOrder bo) throws BspException {
+        setVersion(version);
 
-        // update game lump buffer
-        saveGameLumps();
+        this.bo = bo;
+        this.mapRev = 0;
 
-        int size = fixLumpOffsets();
-        ByteBuffer bb = ByteBufferUtils.openReadWrite(file, 0, size);
+        lumps.clear();
+        gameLumps.clear();
 
-        bb.order(bo);
-        bb.putInt(BSP_ID);
-        bb.putInt(version);
-
-        saveLumps(bb);
-
-        bb.putInt(mapRev);
+        for (int i = 0; i < HEADER_LUMPS; i++) {
+            lumps.add(new Lump(i, LumpType.get(i, version)));
+        }
     }
 
     /**
-     * Creates a byte buffer for the BSP file, checks its ident, detects its
-     * endianness and performs other low-level I/O operations if required.
-     * 
-     * @param memMapping true if the map should be loaded as a memory-mapped file
-     * @throws IOException if the buffer couldn't be created
-     * @throws BspException if the header or file format is invalid
+     * Adds a game lump, replacing an existing one with the same name.
+     *
+     * @param gameLump game lump to add
      */
-    private ByteBuffer createBuffer(boolean memMapping) throws IOException, BspException {
-        ByteBuffer bb;
+    public void addGameLump(GameLump gameLump) {
+        gameLumps.removeIf(gl -> gl.getName().equals(gameLump.getName()));
+        gameLumps.add(gameLump);
+    }
 
-        if (memMapping) {
-            bb = ByteBufferUtils.openReadOnly(file);
-        } else {
-            bb = ByteBufferUtils.load(file);
-        }
+    /**
+     * Saves the map to a file. The header, the game lump directory and the
+     * lump buffers, which are often mapped slices of the source file, are
+     * written directly to the file channel with gathering writes, without
+     * assembling the whole file in memory first.
+     *
+     * @param file destination file, must not be the mapped source file
+     * @throws IOException if the file couldn't be written
+     */
+    public void save(Path file) throws IOException {
+        ensureOpen();
 
-        // make sure we have enough room for reading
-        if (bb.capacity() < HEADER_SIZE) {
-            throw new BspException("Invalid or missing header");
-        }
+        this.file = file;
+        this.name = file.getFileName().toString();
 
-        int ident = bb.getInt();
+        L.log(Level.FINE, "Saving headers to {0}", name);
 
-        if (ident == BSP_ID) {
-            // ordinary big-endian ident
-            bo = ByteOrder.BIG_ENDIAN;
-            return bb;
+        Lump gameLump = getLump(LumpType.LUMP_GAME_LUMP);
+        int gameLumpLength = getGameLumpHeaderSize();
+        for (GameLump gl : gameLumps) {
+            gameLumpLength += gl.getLength();
         }
 
-        // probably little-endian, swap before doing more tests
-        ident = EndianUtils.swapInteger(ident);
-
-        if (ident == BSP_ID) {
-            // ordinary little-endian ident
-            bo = ByteOrder.LITTLE_ENDIAN;
-            return bb;
-        } else if (ident == BSP_ID_TF) {
-            // Titanfall little-endian ident
-            L.finer("Found Titanfall header");
-            app = SourceAppDB.getInstance().fromID(TITANFALL);
-            bo = ByteOrder.LITTLE_ENDIAN;
-            return bb;
-        }
+        fixLumpOffsets(gameLump, gameLumpLength);
 
-        if (ident == 0x1E) {
-            // No GoldSrc! Please!
-            throw new BspException("The GoldSrc format is not supported");
-        }
+        // buffers in file order
+        List<ByteBuffer> buffers = new ArrayList<>();
+        buffers.add(saveHeader(gameLump, gameLumpLength));
 
-        // check for XOR encryption
-        // right now, only Tactical Intervention uses this, for whatever reason
-        byte[] mapKey = new byte[32];
+        for (Lump lump : lumps) {
+            if (lump == gameLump) {
+                buffers.add(saveGameLumps(gameLump.getOffset()));
 
-        // grab the key from a location where the deciphered map always(?) stores 
-        // at least 32 null bytes
-        bb.position(384);
-        bb.get(mapKey);
+                for (GameLump gl : gameLumps) {
+                    buffers.add(gl.getBuffer());
+                }
+            } else if (lump.getLength() > 0) {
+                buffers.add(lump.getBuffer());
+            }
+        }
 
-        // try to decrypt only the ident for now, it's much faster...
-        int identXor = XORUtils.xor(ident, mapKey);
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(fc, buffers);
+        }
+    }
 
-        if (identXor == BSP_ID) {
-            bo = ByteOrder.LITTLE_ENDIAN;
+    /**
+     * Writes buffers to a channel. Runs of direct buffers are passed to the
+     * channel as one gathering write. Heap buffers are written separately in
+     * chunks, because the channel copies them into temporary direct buffers
+     * of the same size first.
+     */
+    private static void write(FileChannel fc, List<ByteBuffer> buffers) throws IOException {
+        List<ByteBuffer> direct = new ArrayList<>();
 
-            L.log(Level.FINE, "Found Tactical Intervention XOR encryption using the key \"{0}\"", new String(mapKey));
+        for (ByteBuffer buffer : buffers) {
+            ByteBuffer bb = buffer.duplicate();
+            bb.rewind();
 
-            // fully reload the map into memory if that isn't the case already
-            if (memMapping || bb.isReadOnly()) {
-                bb = ByteBufferUtils.load(file);
+            if (!bb.hasRemaining()) {
+                continue;
             }
 
-            // then decrypt it
-            XORUtils.xor(bb, mapKey);
+            if (bb.isDirect()) {
+                direct.add(bb);
+                continue;
+            }
 
-            // go back to the position after the ident
-            bb.position(4);
+            writeFully(fc, direct);
+            direct.clear();
 
-            return bb;
+            while (bb.hasRemaining()) {
+                ByteBuffer chunk = bb.slice();
+                chunk.limit(Math.min(chunk.limit(), WRITE_CHUNK_SIZE));
+                bb.position(bb.position() + chunk.limit());
+                writeFully(fc, Collections.singletonList(chunk));
+            }
         }
 
-        throw new BspException("Unknown file ident: " + ident + " (" +
-                StringMacroUtils.unmakeID(ident) + ")");
+        writeFully(fc, direct);
     }
 
-    private void loadLumps(ByteBuffer bb) {
-        L.fine("Loading lumps");
-
-        int numLumps;
+    private static void writeFully(FileChannel fc, List<ByteBuffer> buffers) throws IOException {
+        ByteBuffer[] srcs = buffers.toArray(new ByteBuffer[0]);
 
-        // Titanfall has more lumps
-        if (app.getAppID() == TITANFALL) {
-            numLumps = HEADER_LUMPS_TF;
-        } else {
-            numLumps = HEADER_LUMPS;
+        long remaining = 0;
+        for (ByteBuffer src : srcs) {
+            remaining += src.remaining();
         }
 
-        for (int i = 0; i < numLumps; i++) {
-            int vers, ofs, len, fourCC;
-
-            // L4D2 maps use a different order
-            if (app.getAppID() == LEFT_4_DEAD_2) {
-                vers = bb.getInt();
-                ofs = bb.getInt();
-                len = bb.getInt();
-            } else {
-                ofs = bb.getInt();
-                len = bb.getInt();
-                vers = bb.getInt();
-            }
-
-            // length of the uncompressed lump, 0 if not compressed
-            fourCC = bb.getInt();
-
-            LumpType ltype = LumpType.get(i, version);
-
-            // fix invalid offsets
-            if (ofs > bb.limit()) {
-                int ofsOld = ofs;
-                ofs = bb.limit();
-                len = 0;
-                L.log(Level.WARNING, "Invalid lump offset {0} in {1}, assuming {2}",
-                        new Object[]{ofsOld, ltype, ofs});
-            } else if (ofs < 0) {
-                int ofsOld = ofs;
-                ofs = 0;
-                len = 0;
-                L.log(Level.WARNING, "Negative lump offset {0} in {1}, assuming {2}",
-                        new Object[]{ofsOld, ltype, ofs});
-            }
-
-            // fix invalid lengths
-            if (ofs + len > bb.limit()) {
-                int lenOld = len;
-                len = bb.limit() - ofs;
-                L.log(Level.WARNING, "Invalid lump length {0} in {1}, assuming {2}",
-                        new Object[]{lenOld, ltype, len});
-            } else if (len < 0) {
-                int lenOld = len;
-                len = 0;
-                L.log(Level.WARNING, "Negative lump length {0} in {1}, assuming {2}",
-                        new Object[]{lenOld, ltype, len});
-            }
-
-            Lump l = new Lump(i, ltype);
-            l.setBuffer(ByteBufferUtils.getSlice(bb, ofs, len));
-            l.setOffset(ofs);
-            l.setParentFile(file);
-            l.setFourCC(fourCC);
-            l.setVersion(vers);
-            lumps.add(l);
+        while (remaining > 0) {
+            remaining -= fc.write(srcs);
         }
     }
 
     /**
-     * Writes all lumps to the given buffer.
-     * 
-     * @param bb destination buffer to write lumps into
+     * Creates the file header with the lump directory.
      */
-    private void saveLumps(ByteBuffer bb) {
-        L.fine("Saving lumps");
+    private ByteBuffer saveHeader(Lump gameLump, int gameLumpLength) {
+        ByteBuffer bb = ByteBuffer.allocate(getHeaderSize());
+        bb.order(bo);
+        bb.putInt(BSP_ID);
+        bb.putInt(version);
 
         for (Lump lump : lumps) {
-            // write header
+            int length = lump == gameLump ? gameLumpLength : lump.getLength();
+
             if (app.getAppID() == LEFT_4_DEAD_2) {
                 bb.putInt(lump.getVersion());
                 bb.putInt(lump.getOffset());
-                bb.putInt(lump.getLength());
+                bb.putInt(length);
             } else {
                 bb.putInt(lump.getOffset());
-                bb.putInt(lump.getLength());
+                bb.putInt(length);
                 bb.putInt(lump.getVersion());
             }
 
             bb.putInt(lump.getFourCC());
+        }
 
-            if (lump.getLength() == 0) {
-                continue;
-            }
+        bb.putInt(mapRev);
+        bb.flip();
 
-            // convert relative game lump offsets to absolute
-            if (lump.getType() == LumpType.LUMP_GAME_LUMP) {
-                fixGameLumpOffsets(lump);
+        return bb;
+    }
+
+    /**
+     * Creates a byte buffer for the BSP file and reads its ident into the
+     * header. Encrypted maps are loaded into memory and decrypted.
+     * 
+     * @param header header to read the ident into
+     * @param memMapping true if the map should be loaded as a memory-mapped file
+     * @throws IOException if the buffer couldn't be created
+     * @throws BspException if the header or file format is invalid
+     */
+    private ByteBuffer createBuffer(BspHeader header, boolean memMapping) throws IOException, BspException {
+        ByteBuffer bb;
+
+        if (memMapping) {
+            bb = ByteBufferUtils.openReadOnly(file);
+        } else {
+            bb = ByteBufferUtils.load(file);
+        }
+
+        header.readIdent(bb);
+
+        byte[] mapKey = header.getXorKey();
+
+        if (mapKey != null) {
+            // fully reload the map into memory if that isn't the case already
+            if (memMapping || bb.isReadOnly()) {
+                MappedBufferUtil.unmap(bb);
+                bb = ByteBufferUtils.load(file);
             }
 
-            // write buffer data
-            ByteBuffer lbb = lump.getBuffer();
-            lbb.rewind();
+            // then decrypt it
+            XORUtils.xor(bb, mapKey);
+        }
+
+        // go to the position after the ident
+        bb.position(4);
+
+        return bb;
+    }
+
+    private void loadLumps(ByteBuffer bb, List<BspHeader.LumpEntry> entries) {
+        L.fine("Loading lumps");
 
-            bb.mark();
-            bb.position(lump.getOffset());
-            bb.put(lbb);
-            bb.reset();
+        for (BspHeader.LumpEntry entry : entries) {
+            Lump l = new Lump(entry.getIndex(), entry.getType());
+            l.setBuffer(ByteBufferUtils.getSlice(bb, entry.getOffset(), entry.getLength()));
+            l.setOffset(entry.getOffset());
+            l.setParentFile(file);
+            l.setFourCC(entry.getFourCC());
+            l.setVersion(entry.getVersion());
+            lumps.add(l);
         }
     }
 
     public void loadLumpFiles() {
+        ensureOpen();
+
         L.fine("Loading lump files");
 
         for (int i = 0; i < MAX_LUMPFILES; i++) {
@@ -410,17 +398,20 @@ public class BspFile {
                 break;
             }
 
+            // load lump from file
+            LumpFile lumpFileExt = new LumpFile(version);
+
             try {
-                // load lump from file
-                LumpFile lumpFileExt = new LumpFile(version);
                 lumpFileExt.load(lumpFile, bo);
+                lumpFiles.add(lumpFileExt);
 
                 // override internal lump
                 Lump l = lumpFileExt.getLump();
-                lumps.set(l.getIndex(), l);
+                lumps.set(l.getIndex(), l).close();
 
                 if (l.getType() == LumpType.LUMP_GAME_LUMP) {
                     // reload game lumps
+                    gameLumps.forEach(GameLump::close);
                     gameLumps.clear();
                     loadGameLumps();
                 }
@@ -445,6 +436,7 @@ public class BspFile {
             try {
                 ByteBuffer bb = ByteBufferUtils.openReadOnly(lumpFile);
                 bb.order(bo);
+                mappedBuffers.add(bb);
 
                 l.setBuffer(bb);
                 l.setParentFile(lumpFile);
@@ -507,233 +499,115 @@ public class BspFile {
 
         try {
             Lump lump = getLump(LumpType.LUMP_GAME_LUMP);
-            DataReader in = DataReaders.forByteBuffer(lump.getBuffer());
+            ByteBuffer bb = lump.getBuffer().duplicate().order(bo);
 
             // hack for Vindictus
-            if (version == 20 && bo == ByteOrder.LITTLE_ENDIAN
-                    && checkInvalidHeaders(in, false)
-                    && !checkInvalidHeaders(in, true)) {
+            if (BspHeader.isVindictusDirectory(bb, version)) {
                 L.finer("Found Vindictus game lump header");
                 app = SourceAppDB.getInstance().fromID(VINDICTUS);
             }
 
-            int glumps = in.readInt();
-
-            for (int i = 0; i < glumps; i++) {
-                int ofs, len, flags, vers, fourCC;
-
-                if (app.getAppID() == DARK_MESSIAH) {
-                    in.readInt(); // unknown
-                }
-
-                fourCC = in.readInt();
-
-                // Vindictus uses integers rather than unsigned shorts
-                if (app.getAppID() == VINDICTUS) {
-                    flags = in.readInt();
-                    vers = in.readInt();
-                } else {
-                    flags = in.readUnsignedShort();
-                    vers = in.readUnsignedShort();
-                }
-
-                ofs = in.readInt();
-                len = in.readInt();
-
-                if (flags == 1) {
-                    // game lump is compressed and "len" contains the uncompressed
-                    // size, so use next entry offset to determine compressed size
-                    in.seek(8, CURRENT);
-                    int nextOfs = in.readInt();
-                    if (nextOfs == 0) {
-                        // no next entry, assume end of game lump
-                        nextOfs = lump.getOffset() + lump.getLength();
-                    }
-                    len = nextOfs - ofs;
-                    in.seek(-12, CURRENT);
-                }
-
-                // Offset is relative to the beginning of the BSP file,
-                // not to the game lump.
-                // FIXME: this isn't the case for the console version of Portal 2,
-                // is there a better way to detect this?
-                if (ofs - lump.getOffset() > 0) {
-                    ofs -= lump.getOffset();
-                }
+            List<BspHeader.GameLumpEntry> entries = BspHeader.readGameLumpDirectory(bb,
+                    lump.getOffset(), lump.getLength(), app);
 
-                String glName = StringMacroUtils.unmakeID(fourCC);
-
-                // give dummy entries more useful names
-                if (glName.trim().isEmpty()) {
-                    glName = "<dummy>";
-                }
-
-                // fix invalid offsets
-                if (ofs > lump.getLength()) {
-                    int ofsOld = ofs;
-                    ofs = lump.getLength();
-                    len = 0;
-                    L.log(Level.WARNING, "Invalid game lump offset {0} in {1}, assuming {2}",
-                            new Object[]{ofsOld, glName, ofs});
-                } else if (ofs < 0) {
-                    int ofsOld = ofs;
-                    ofs = 0;
-                    len = 0;
-                    L.log(Level.WARNING, "Negative game lump offset {0} in {1}, assuming {2}",
-                            new Object[]{ofsOld, glName, ofs});
-                }
-
-                // fix invalid lengths
-                if (ofs + len > lump.getLength()) {
-                    int lenOld = len;
-                    len = lump.getLength() - ofs;
-                    L.log(Level.WARNING, "Invalid game lump length {0} in {1}, assuming {2}",
-                            new Object[]{lenOld, glName, len});
-                } else if (len < 0) {
-                    int lenOld = len;
-                    len = 0;
-                    L.log(Level.WARNING, "Negative game lump length {0} in {1}, assuming {2}",
-                            new Object[]{lenOld, glName, len});
-                }
+            for (BspHeader.GameLumpEntry entry : entries) {
+                // the entry offsets are file offsets
+                int ofs = entry.getOffset() - lump.getOffset();
 
                 GameLump gl = new GameLump();
-                gl.setBuffer(ByteBufferUtils.getSlice(lump.getBuffer(), ofs, len));
+                gl.setBuffer(ByteBufferUtils.getSlice(lump.getBuffer(), ofs, entry.getLength()));
                 gl.setOffset(ofs);
-                gl.setFourCC(fourCC);
-                gl.setFlags(flags);
-                gl.setVersion(vers);
+                gl.setFourCC(entry.getFourCC());
+                gl.setFlags(entry.getFlags());
+                gl.setVersion(entry.getVersion());
                 gameLumps.add(gl);
             }
 
-            L.log(Level.FINE, "Game lumps: {0}", glumps);
+            L.log(Level.FINE, "Game lumps: {0}", entries.size());
         } catch (IOException ex) {
             L.log(Level.SEVERE, "Couldn't load game lumps", ex);
         }
     }
 
-    private void saveGameLumps() {
-        L.fine("Saving game lumps");
-
+    private int getGameLumpHeaderSize() {
         // lumpCount + dgamelump_t[lumpCount]
-        int headerSize = 4;
         if (app.getAppID() == VINDICTUS) {
-            headerSize += 20 * gameLumps.size();
+            return 4 + 20 * gameLumps.size();
         } else {
-            headerSize += 16 * gameLumps.size();
+            return 4 + 16 * gameLumps.size();
         }
+    }
+
+    /**
+     * Creates the game lump directory. The game lump data follows the
+     * directory in the order of the entries.
+     *
+     * @param lumpOffset file offset of the game lump
+     * @return game lump directory
+     */
+    private ByteBuffer saveGameLumps(int lumpOffset) {
+        L.fine("Saving game lumps");
+
+        int headerSize = getGameLumpHeaderSize();
+        ByteBuffer bb = ByteBuffer.allocate(headerSize);
+        bb.order(bo);
+        bb.putInt(gameLumps.size());
+
+        // offsets relative to the game lump, they're stored as absolute
+        // offsets in the file
+        int offset = headerSize;
 
-        // get total game lump data size
-        int dataSize = 0;
         for (GameLump gl : gameLumps) {
-            dataSize += gl.getLength();
-        }
+            gl.setOffset(offset);
+            offset += gl.getLength();
 
-        try {
-            ByteBuffer bb = ByteBuffer.allocateDirect(headerSize + dataSize);
-            bb.order(bo);
-
-            DataWriter out = DataWriters.forByteBuffer(bb);
-            out.writeInt(gameLumps.size());
-
-            // use relative offsets, they're converted to absolute later
-            int offset = headerSize;
-
-            for (GameLump gl : gameLumps) {
-                gl.setOffset(offset);
-                offset += gl.getLength();
-
-                // write header
-                out.writeInt(gl.getFourCC());
-                if (app.getAppID() == VINDICTUS) {
-                    out.writeInt(gl.getFlags());
-                    out.writeInt(gl.getVersion());
-                } else {
-                    out.writeUnsignedShort(gl.getFlags());
-                    out.writeUnsignedShort(gl.getVersion());
-                }
-                out.writeInt(gl.getOffset());
-                out.writeInt(gl.getLength());
-
-                // write buffer data
-                bb.mark();
-                bb.position(gl.getOffset());
-                bb.put(gl.getBuffer());
-                bb.reset();
+            bb.putInt(gl.getFourCC());
+            if (app.getAppID() == VINDICTUS) {
+                bb.putInt(gl.getFlags());
+                bb.putInt(gl.getVersion());
+            } else {
+                bb.putShort((short) gl.getFlags());
+                bb.putShort((short) gl.getVersion());
             }
-
-            // update game lump buffer
-            Lump gameLump = getLump(LumpType.LUMP_GAME_LUMP);
-            gameLump.setBuffer(bb);
-        } catch (IOException ex) {
-            L.log(Level.SEVERE, "Couldn''t save game lumps", ex);
+            bb.putInt(lumpOffset + gl.getOffset());
+            bb.putInt(gl.getLength());
         }
+
+        bb.flip();
+
+        return bb;
     }
 
     /**
      * Recalculates all lump offsets while retaining their order to ensure
      * that there will be no gaps in the BSP file when written.
-     * 
+     *
+     * @param gameLump the game lump, whose length is given separately
+     * @param gameLumpLength length of the game lump directory and data
      * @return offset of the last lump, equals the BSP file size
      */
-    private int fixLumpOffsets() {
+    private int fixLumpOffsets(Lump gameLump, int gameLumpLength) {
         // always start behind the header or terrible things will happen!
-        int offset = HEADER_SIZE;
+        int offset = getHeaderSize();
 
         for (Lump lump : lumps) {
+            int length = lump == gameLump ? gameLumpLength : lump.getLength();
+
             // set offset of empty lumps to 0
-            if (lump.getLength() == 0) {
+            if (length == 0) {
                 lump.setOffset(0);
             } else {
                 lump.setOffset(offset);
-                offset += lump.getLength();
+                offset += length;
             }
         }
 
         return offset;
     }
 
-    private void fixGameLumpOffsets(Lump lump) {
-        ByteBuffer bb = lump.getBuffer();
-        int glumps = bb.getInt();
-
-        for (int i = 0; i < glumps; i++) {
-            int index;
-            if (app.getAppID() == VINDICTUS) {
-                index = 20 * i + 16;
-            } else {
-                index = 16 * i + 12;
-            }
-            int ofs = bb.getInt(index);
-            ofs += lump.getOffset();
-            bb.putInt(index, ofs);
-        }
-    }
-
-    /**
-     * Heuristic detection of Vindictus game lump headers.
-     * 
-     * @param in DataInputReader for the game lump.
-     * @param vin if true, test with Vindictus struct
-     * @return true if the game lump header probably wasn't read correctly
-     * @throws IOException 
-     */
-    private boolean checkInvalidHeaders(DataReader in, boolean vin) throws IOException {
-        int glumps = in.readInt();
-
-        for (int i = 0; i < glumps; i++) {
-            String glName = StringMacroUtils.unmakeID(in.readInt());
-
-            // check for unusual chars that indicate a reading error
-            if (!glName.matches("^[a-zA-Z0-9]{4}$")) {
-                in.position(0);
-                return true;
-            }
-
-            in.seek(vin ? 16 : 12, CURRENT);
-        }
-
-        in.position(0);
-        return false;
+    private int getHeaderSize() {
+        // ident + version + lump directory + map revision
+        return 8 + 16 * lumps.size() + 4;
     }
 
     /**
@@ -742,6 +616,7 @@ public class BspFile {
      * @return lump array
      */
     public List<Lump> getLumps() {
+        ensureOpen();
         return Collections.unmodifiableList(lumps);
     }
 
@@ -750,6 +625,7 @@ public class BspFile {
      * @return the {@link Lump} for the given {@link LumpType}.
      */
     public Lump getLump(LumpType type) {
+        ensureOpen();
         return lumps.get(type.getIndex());
     }
 
@@ -759,6 +635,7 @@ public class BspFile {
      * @return game lump list
      */
     public List<GameLump> getGameLumps() {
+        ensureOpen();
         return Collections.unmodifiableList(gameLumps);
     }
 
@@ -769,6 +646,8 @@ public class BspFile {
      * @return game lump, if found. otherwise null
      */
     public GameLump getGameLump(String sid) {
+        ensureOpen();
+
         for (GameLump gl : gameLumps) {
             if (gl.getName().equalsIgnoreCase(sid)) {
                 return gl;
@@ -782,8 +661,24 @@ public class BspFile {
      * Compresses all lumps with exception for the pakfile lump.
      */
     public void compress() {
+        compress(new LZMA2Options());
+    }
+
+    /**
+     * Compresses all lumps with exception for the pakfile lump, using the
+     * given encoder options. The lumps and game lumps are compressed
+     * concurrently.
+     *
+     * @param options encoder options
+     * @return compression results in lump order, game lumps last
+     */
+    public List<LumpCompression> compress(LZMA2Options options) {
+        ensureOpen();
+
         L.info("Compressing lumps");
 
+        List<AbstractLump> uncompressed = new ArrayList<>();
+
         for (Lump l : lumps) {
             // don't compress the game lump here and skip the pakfile
             if (l.getType() == LumpType.LUMP_GAME_LUMP ||
@@ -797,8 +692,7 @@ public class BspFile {
             }
 
             if (!l.isCompressed()) {
-                L.log(Level.FINE, "Compressing {0}", l.getName());
-                l.compress();
+                uncompressed.add(l);
             }
         }
 
@@ -809,33 +703,102 @@ public class BspFile {
             }
 
             if (!gl.isCompressed()) {
-                L.log(Level.FINE, "Compressing {0}", gl.getName());
-                gl.compress();
+                uncompressed.add(gl);
+            }
+        }
+
+        // measure the CPU time of each lump, since the elapsed time also
+        // includes waiting for other lumps on the same core
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = threadBean.isCurrentThreadCpuTimeSupported();
+
+        Function<AbstractLump, LumpCompression> compressor = l -> {
+            L.log(Level.FINE, "Compressing {0}", l.getName());
+            int size = l.getLength();
+            long start = cpuTime ? threadBean.getCurrentThreadCpuTime() : System.nanoTime();
+            l.compress(options);
+            long end = cpuTime ? threadBean.getCurrentThreadCpuTime() : System.nanoTime();
+            return new LumpCompression(l.getName(), size, l.getLength(), end - start, l.isCompressed());
+        };
+
+        int threads = getCompressionThreads(uncompressed, options);
+        List<LumpCompression> results;
+
+        if (threads <= 1) {
+            results = uncompressed.stream()
+                    .map(compressor)
+                    .collect(Collectors.toList());
+        } else {
+            L.log(Level.FINE, "Compressing {0} lumps on {1} threads",
+                    new Object[]{uncompressed.size(), threads});
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+
+            try {
+                results = pool.submit(() -> uncompressed.parallelStream()
+                        .map(compressor)
+                        .collect(Collectors.toList())).join();
+            } finally {
+                pool.shutdown();
             }
         }
 
         // add dummy game lump
         gameLumps.add(new GameLump());
+
+        return results;
     }
 
     /**
-     * Uncompresses all compressed lumps.
+     * Returns the number of lumps that can be compressed concurrently with
+     * the heap that is still available. Each encoder allocates its own
+     * dictionary and match finder, which take about 700 MB with preset 9,
+     * plus an output buffer for the lump and the copy of the compressed data
+     * that it is trimmed to, which takes up to half of the output buffer.
+     */
+    private static int getCompressionThreads(List<AbstractLump> lumps, LZMA2Options options) {
+        int maxLength = 0;
+
+        for (AbstractLump l : lumps) {
+            maxLength = Math.max(maxLength, l.getLength());
+        }
+
+        // the encoder memory usage is in KiB
+        long outputSize = maxLength + maxLength / 8;
+        long taskMemory = options.getEncoderMemoryUsage() * 1024L + outputSize + outputSize / 2;
+
+        Runtime rt = Runtime.getRuntime();
+        long freeMemory = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        long threads = Math.min(freeMemory / Math.max(taskMemory, 1), rt.availableProcessors());
+
+        return (int) Math.max(1, Math.min(threads, lumps.size()));
+    }
+
+    /**
+     * Uncompresses all compressed lumps and game lumps. The lumps are
+     * independent of each other, so they are uncompressed concurrently.
      */
     public void uncompress() {
+        ensureOpen();
+
         L.info("Uncompressing lumps");
 
+        List<AbstractLump> compressed = new ArrayList<>();
+
         for (Lump l : lumps) {
             if (l.isCompressed()) {
-                l.uncompress();
+                compressed.add(l);
             }
         }
 
         for (GameLump gl : gameLumps) {
             if (gl.isCompressed()) {
-                gl.uncompress();
+                compressed.add(gl);
             }
         }
 
+        compressed.parallelStream().forEach(AbstractLump::uncompress);
+
         // remove dummy game lump
         if (!gameLumps.isEmpty()
                 && gameLumps.get(gameLumps.size() - 1).getLength() == 0) {
@@ -855,17 +818,30 @@ public class BspFile {
             }
         }
 
+        for (GameLump gl : gameLumps) {
+            if (gl.isCompressed()) {
+                return true;
+            }
+        }
+
         return false;
     }
 
     /**
      * Returns the PakFile object for this BSP file to access the uncompressed
-     * pakfile.
+     * pakfile. The same object and its index are returned until the pakfile
+     * lump is replaced.
      * 
      * @return PakFile
      */
-    public PakFile getPakFile() {
-        return new PakFile(this);
+    public synchronized PakFile getPakFile() {
+        ensureOpen();
+
+        if (pakFile == null || pakFile.getLump() != getLump(LumpType.LUMP_PAKFILE)) {
+            pakFile = new PakFile(this);
+        }
+
+        return pakFile;
     }
 
     /**
@@ -916,14 +892,15 @@ public class BspFile {
 
         L.fine("Reading " + lump);
         try {
-            ByteBuffer buffer = lump.getBuffer();
+            // read from a duplicate, so that lumps can be read concurrently
+            ByteBuffer lumpBuffer = lump.getBuffer();
+            ByteBuffer buffer = lumpBuffer.duplicate().order(lumpBuffer.order());
             buffer.rewind();
 
-            DataReader dataReader = DataReaders.forByteBuffer(buffer);
-            T data = contentReader.read(dataReader);
+            T data = contentReader.read(buffer);
 
-            if (dataReader.hasRemaining()) {
-                L.warning(String.format("Lump %s has %d bytes remaining after reading", lump, dataReader.remaining()));
+            if (buffer.hasRemaining()) {
+                L.warning(String.format("Lump %s has %d bytes remaining after reading", lump, buffer.remaining()));
             }
 
             return data;
@@ -978,6 +955,14 @@ public class BspFile {
         return file;
     }
 
+    /**
+     * Returns true if the file has been mapped into memory, false if it has
+     * been loaded into the heap entirely.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     /**
      * Returns the BSP version
      *
@@ -1052,6 +1037,49 @@ public class BspFile {
      * @throws IOException on IO errors
      */
     public BspFileReader getReader() throws IOException {
+        ensureOpen();
         return new BspFileReader(this);
     }
+
+    /**
+     * Closes the lumps and unmaps the BSP file and all lump files that were
+     * mapped by it, without waiting for the garbage collector. Lumps, game
+     * lumps and buffers obtained from this file can't be used anymore after
+     * closing it. Calling this method more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        L.log(Level.FINE, "Closing {0}", name);
+
+        // drop all references to the mapped buffers before unmapping them
+        lumps.forEach(AbstractLump::close);
+        gameLumps.forEach(AbstractLump::close);
+
+        lumpFiles.forEach(LumpFile::close);
+        lumpFiles.clear();
+
+        mappedBuffers.forEach(MappedBufferUtil::unmap);
+        mappedBuffers.clear();
+    }
+
+    /**
+     * Returns true if this file has been closed.
+     *
+     * @return true if closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("BSP file " + name + " is closed");
+        }
+    }
 }
@@ -14,17 +14,25 @@ import info.ata4.bsplib.app.SourceApp;
 import info.ata4.bsplib.app.SourceAppDB;
 import info.ata4.bsplib.app.SourceAppID;
 import info.ata4.bsplib.contentreader.*;
-import info.ata4.bsplib.entity.Entity;
+import info.ata4.bsplib.entity.EntityIndex;
 import info.ata4.bsplib.lump.GameLump;
 import info.ata4.bsplib.lump.Lump;
 import info.ata4.bsplib.lump.LumpType;
 import info.ata4.bsplib.struct.*;
+import info.ata4.bsplib.util.Metrics;
+import info.ata4.log.ContextFormatter;
 import info.ata4.log.LogUtils;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,11 +41,12 @@ import java.util.stream.Collectors;
 import static info.ata4.bsplib.app.SourceAppID.*;
 
 /**
- * All-purpose BSP file and lump reader.
+ * All-purpose BSP file and lump reader. Closing the reader closes its BSP
+ * file, the loaded {@link BspData} stays usable.
  *
  * @author Nico Bergemann <barracuda415 at yahoo.de>
  */
-public class BspFileReader {
+public class BspFileReader implements AutoCloseable {
 
     private static final Logger L = LogUtils.getLogger();
 
@@ -58,7 +67,9 @@ public class BspFileReader {
 
         // uncompress all lumps first
         if (bspFile.isCompressed()) {
-            bspFile.uncompress();
+            try (Metrics.Timer timer = Metrics.time("uncompress")) {
+                bspFile.uncompress();
+            }
         }
     }
 
@@ -70,33 +81,88 @@ public class BspFileReader {
      * Loads all supported lumps
      */
     public void loadAll() {
-        loadEntities();
-        loadVertices();
-        loadEdges();
-        loadFaces();
-        loadOriginalFaces();
-        loadModels();
-        loadSurfaceEdges();
-        loadOccluders();
-        loadTexInfo();
-        loadTexData();
-        loadStaticProps();
-        loadCubemaps();
-        loadPlanes();
-        loadBrushes();
-        loadBrushSides();
-        loadAreaportals();
-        loadClipPortalVertices();
-        loadDispInfos();
-        loadDispVertices();
-        loadDispTriangleTags();
-        loadDispMultiBlend();
-        loadNodes();
-        loadLeaves();
-        loadLeafFaces();
-        loadLeafBrushes();
-        loadOverlays();
-        loadFlags();
+        load(EnumSet.allOf(LumpGroup.class));
+    }
+
+    /**
+     * Loads the given lump groups only. Groups that have been loaded before
+     * are skipped.
+     *
+     * @param groups lump groups to load
+     */
+    public void load(Set<LumpGroup> groups) {
+        // load in declaration order, so the entities are loaded first
+        EnumSet<LumpGroup> ordered = EnumSet.noneOf(LumpGroup.class);
+        ordered.addAll(groups);
+        ordered.forEach(group -> group.load(this));
+    }
+
+    /**
+     * Loads all supported lumps concurrently on the given pool.
+     *
+     * @param pool pool for the loading tasks
+     * @see #load(Set, ForkJoinPool)
+     */
+    public void loadAll(ForkJoinPool pool) {
+        load(EnumSet.allOf(LumpGroup.class), pool);
+    }
+
+    /**
+     * Loads the given lump groups concurrently on the given pool. The
+     * entities are loaded first on the calling thread, since they may change
+     * the detected game, and all other groups are decoded in parallel from
+     * their own lump buffers. Returns when all groups are loaded.
+     *
+     * @param groups lump groups to load
+     * @param pool pool for the loading tasks
+     */
+    public void load(Set<LumpGroup> groups, ForkJoinPool pool) {
+        EnumSet<LumpGroup> remaining = EnumSet.noneOf(LumpGroup.class);
+        remaining.addAll(groups);
+
+        if (remaining.remove(LumpGroup.ENTITIES)) {
+            LumpGroup.ENTITIES.load(this);
+        }
+
+        // the metrics and the log context are thread-local, so the tasks
+        // record into the metrics and log with the context of the calling
+        // thread
+        Metrics metrics = Metrics.current();
+
+        List<ForkJoinTask<?>> tasks = remaining.stream()
+                .map(group -> pool.submit(ContextFormatter.wrap(() -> {
+                    if (metrics == null) {
+                        group.load(this);
+                    } else {
+                        try (Metrics.Scope scope = metrics.attach()) {
+                            group.load(this);
+                        }
+                    }
+                })))
+                .collect(Collectors.toList());
+
+        // wait for all tasks, even if one of them failed, so no task is still
+        // reading the lump buffers when the caller closes the file. Joining
+        // also makes the loaded fields visible to this thread
+        Throwable error = null;
+
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.join();
+            } catch (RuntimeException | Error ex) {
+                if (error == null) {
+                    error = ex;
+                } else if (error != ex) {
+                    error.addSuppressed(ex);
+                }
+            }
+        }
+
+        if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw (RuntimeException) error;
+        }
     }
 
     private <E extends DStruct> List<E> readPacketLump(LumpType lumpType, Supplier<E> dStructSupplier) {
@@ -104,17 +170,53 @@ public class BspFileReader {
         return readLump(lumpType, contentReader);
     }
 
-    private List<Integer> readIntegerPacketLump(LumpType lumpType) {
+    /**
+     * Returns a view that decodes the structs of a lump on demand directly
+     * from its buffer, without loading the lump into {@link BspData}.
+     * Unavailable lumps result in an empty view.
+     *
+     * @param lumpType lump type
+     * @param dStructSupplier supplier for the struct type of the lump
+     * @return struct view over the lump
+     */
+    public <E extends DStruct> DStructView<E> viewLump(LumpType lumpType, Supplier<E> dStructSupplier) {
+        ByteBuffer buffer;
+
+        if (bspFile.canReadLump(lumpType)) {
+            ByteBuffer lumpBuffer = bspFile.getLump(lumpType).getBuffer();
+            buffer = lumpBuffer.duplicate().order(lumpBuffer.order());
+            buffer.rewind();
+        } else {
+            buffer = ByteBuffer.allocate(0);
+        }
+
+        return new DStructView<>(buffer, dStructSupplier);
+    }
+
+    /**
+     * Returns a view over the brush sides. Brush sides that are loaded into
+     * {@link BspData} aren't shared with the view, which returns its own
+     * struct instances.
+     *
+     * @return struct view over the brush side lump
+     */
+    public DStructView<? extends DBrushSide> viewBrushSides() {
+        return viewLump(LumpType.LUMP_BRUSHSIDES, getDBrushSideSupplier());
+    }
+
+    private IntLump readIntegerPacketLump(LumpType lumpType) {
         return readLump(lumpType, new IntegerPacketsContentReader());
     }
 
-    private List<Integer> readUShortPacketLump(LumpType lumpType) {
+    private IntLump readUShortPacketLump(LumpType lumpType) {
         return readLump(lumpType, new UShortPacketsContentReader());
     }
 
     private <T> T readLump(LumpType lumpType, ContentReader<T> contentReader) {
-        try {
-            return bspFile.readLumpContent(lumpType, contentReader);
+        try (Metrics.Timer timer = Metrics.time("lump." + lumpType)) {
+            T data = bspFile.readLumpContent(lumpType, contentReader);
+            countObjects(timer, data);
+            return data;
         } catch (LumpContentReadException e) {
             L.log(Level.SEVERE, "Error reading lump " + lumpType, e);
 
@@ -126,8 +228,10 @@ public class BspFileReader {
     }
 
     private <T> T readGameLump(String lumpSid, ContentReader<T> contentReader) {
-        try {
-            return bspFile.readGameLumpContent(lumpSid, contentReader);
+        try (Metrics.Timer timer = Metrics.time("gamelump." + lumpSid)) {
+            T data = bspFile.readGameLumpContent(lumpSid, contentReader);
+            countObjects(timer, data);
+            return data;
         } catch (LumpContentReadException e) {
             L.log(Level.SEVERE, "Error reading game lump " + lumpSid, e);
 
@@ -138,12 +242,26 @@ public class BspFileReader {
         }
     }
 
+    private static void countObjects(Metrics.Timer timer, Object data) {
+        if (data instanceof Collection) {
+            timer.addObjects(((Collection<?>) data).size());
+        } else if (data instanceof IntLump) {
+            timer.addObjects(((IntLump) data).size());
+        } else if (data instanceof VertexLump) {
+            timer.addObjects(((VertexLump) data).size());
+        } else if (data instanceof PlaneLump) {
+            timer.addObjects(((PlaneLump) data).size());
+        } else if (data instanceof EdgeLump) {
+            timer.addObjects(((EdgeLump) data).size());
+        }
+    }
+
     public void loadPlanes() {
         if (bspData.planes != null) {
             return;
         }
 
-        bspData.planes = readPacketLump(LumpType.LUMP_PLANES, DPlane::new);
+        bspData.planes = readLump(LumpType.LUMP_PLANES, new PlaneLumpContentReader());
     }
 
     public void loadBrushes() {
@@ -159,19 +277,19 @@ public class BspFileReader {
             return;
         }
 
-        Supplier<? extends DBrushSide> dStructSupplier;
+        bspData.brushSides = readPacketLump(LumpType.LUMP_BRUSHSIDES, getDBrushSideSupplier());
+    }
 
+    private Supplier<? extends DBrushSide> getDBrushSideSupplier() {
         if (appID == VINDICTUS) {
-            dStructSupplier = DBrushSideVin::new;
+            return DBrushSideVin::new;
         } else if (bspFile.getVersion() >= 21 && appID != LEFT_4_DEAD_2) {
             // newer BSP files have a slightly different struct that is still reported
             // as version 0
-            dStructSupplier = DBrushSideV2::new;
+            return DBrushSideV2::new;
         } else {
-            dStructSupplier = DBrushSide::new;
+            return DBrushSide::new;
         }
-
-        bspData.brushSides = readPacketLump(LumpType.LUMP_BRUSHSIDES, dStructSupplier);
     }
 
     public void loadVertices() {
@@ -179,7 +297,7 @@ public class BspFileReader {
             return;
         }
 
-        bspData.verts = readPacketLump(LumpType.LUMP_VERTEXES, DVertex::new);
+        bspData.verts = readLump(LumpType.LUMP_VERTEXES, new VertexLumpContentReader());
     }
 
     public void loadClipPortalVertices() {
@@ -195,15 +313,8 @@ public class BspFileReader {
             return;
         }
 
-        Supplier<? extends DEdge> dStructSupplier;
-
-        if (appID == VINDICTUS) {
-            dStructSupplier = DEdgeVin::new;
-        } else {
-            dStructSupplier = DEdge::new;
-        }
-
-        bspData.edges = readPacketLump(LumpType.LUMP_EDGES, dStructSupplier);
+        // Vindictus uses integers in place of shorts, like DEdgeVin
+        bspData.edges = readLump(LumpType.LUMP_EDGES, new EdgeLumpContentReader(appID == VINDICTUS));
     }
 
     public void loadFaces() {
@@ -372,7 +483,13 @@ public class BspFileReader {
         else
             lumpType = LumpType.LUMP_DISP_MULTIBLEND;
 
-        bspData.dispmultiblend = loadLump(lumpType, DDispMultiBlend.class);
+        // multiblend data was added in v21
+        if (!bspFile.canReadLump(lumpType)) {
+            bspData.dispmultiblend = Collections.emptyList();
+            return;
+        }
+
+        bspData.dispmultiblend = readPacketLump(lumpType, DDispMultiBlend::new);
     }
 
     public void loadTexInfo() {
@@ -405,7 +522,7 @@ public class BspFileReader {
             return;
         }
 
-        List<Integer> stringTableData = readIntegerPacketLump(LumpType.LUMP_TEXDATA_STRING_TABLE);
+        IntLump stringTableData = readIntegerPacketLump(LumpType.LUMP_TEXDATA_STRING_TABLE);
         bspData.texnames = readLump(LumpType.LUMP_TEXDATA_STRING_DATA,
                 new TexdataStringDataLumpContentReader(stringTableData));
     }
@@ -417,9 +534,11 @@ public class BspFileReader {
 
         bspData.entities = readLump(LumpType.LUMP_ENTITIES, new EntityLumpContentReader(bspFile.getVersion() == 17));
 
-        Set<String> entityClasses = bspData.entities.stream()
-                .map(Entity::getClassName)
-                .collect(Collectors.toSet());
+        try (Metrics.Timer timer = Metrics.time("entityIndex")) {
+            bspData.entityIndex = new EntityIndex(bspData.entities);
+        }
+
+        Set<String> entityClasses = bspData.entityIndex.getClassNames();
 
         // detect appID with heuristics to handle special BSP formats if it's
         // still unknown or undefined at this point
@@ -521,7 +640,7 @@ public class BspFileReader {
             if (appID == BLACK_MESA)
                 bspData.overlaySysLevels = Collections.emptyList();
             else
-                bspData.overlaySysLevels = loadLump(LumpType.LUMP_OVERLAY_SYSTEM_LEVELS, DOverlaySystemLevel.class);
+                bspData.overlaySysLevels = readPacketLump(LumpType.LUMP_OVERLAY_SYSTEM_LEVELS, DOverlaySystemLevel::new);
         }
     }
 
@@ -602,6 +721,16 @@ public class BspFileReader {
         bspData.primVerts = readPacketLump(LumpType.LUMP_PRIMVERTS, DVertex::new);
     }
 
+    /**
+     * Closes the BSP file and releases its mapped buffers.
+     *
+     * @see BspFile#close()
+     */
+    @Override
+    public void close() {
+        bspFile.close();
+    }
+
     public BspFile getBspFile() {
         return bspFile;
     }
@@ -0,0 +1,528 @@
+package info.ata4.bsplib;
+
+import info.ata4.bsplib.app.SourceApp;
+import info.ata4.bsplib.app.SourceAppDB;
+import info.ata4.bsplib.lump.LumpType;
+import info.ata4.bsplib.util.StringMacroUtils;
+import info.ata4.io.util.XORUtils;
+import info.ata4.log.LogUtils;
+import org.apache.commons.io.EndianUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static info.ata4.bsplib.app.SourceAppID.*;
+
+/**
+ * Parser for the BSP header and the game lump directory, shared by
+ * {@link BspFile} and {@link BspProbe}. Handles the ident and byte order,
+ * the XOR encryption of Tactical Intervention, the header variants of
+ * Dark Messiah, Contagion, Left 4 Dead 2, Titanfall and Vindictus and the
+ * repair of invalid offsets and lengths.
+ */
+public class BspHeader {
+
+    private static final Logger L = LogUtils.getLogger();
+
+    // offset and length of the XOR key of Tactical Intervention maps
+    private static final int XOR_KEY_OFFSET = 384;
+    private static final int XOR_KEY_SIZE = 32;
+
+    private ByteOrder bo;
+    private int version;
+    private int mapRev;
+    private SourceApp app = SourceApp.UNKNOWN;
+    private byte[] xorKey;
+
+    private final List<LumpEntry> lumps = new ArrayList<>(BspFile.HEADER_LUMPS);
+
+    /**
+     * Reads the ident at the start of the buffer and determines the byte
+     * order. If the map is encrypted, the key is stored but the buffer is
+     * left as it is, decrypting it is up to the caller.
+     *
+     * @param bb buffer with at least the header of the map
+     * @throws BspException if the header is missing or the ident is unknown
+     */
+    void readIdent(ByteBuffer bb) throws BspException {
+        // make sure we have enough room for reading
+        if (bb.limit() < BspFile.HEADER_SIZE) {
+            throw new BspException("Invalid or missing header");
+        }
+
+        int ident = bb.getInt(0);
+
+        if (ident == BspFile.BSP_ID) {
+            // ordinary big-endian ident
+            bo = ByteOrder.BIG_ENDIAN;
+            return;
+        }
+
+        // probably little-endian, swap before doing more tests
+        ident = EndianUtils.swapInteger(ident);
+
+        if (ident == BspFile.BSP_ID) {
+            // ordinary little-endian ident
+            bo = ByteOrder.LITTLE_ENDIAN;
+            return;
+        } else if (ident == BspFile.BSP_ID_TF) {
+            // Titanfall little-endian ident
+            L.finer("Found Titanfall header");
+            app = SourceAppDB.getInstance().fromID(TITANFALL);
+            bo = ByteOrder.LITTLE_ENDIAN;
+            return;
+        }
+
+        if (ident == 0x1E) {
+            // No GoldSrc! Please!
+            throw new BspException("The GoldSrc format is not supported");
+        }
+
+        // check for XOR encryption
+        // right now, only Tactical Intervention uses this, for whatever reason
+        byte[] mapKey = new byte[XOR_KEY_SIZE];
+
+        // grab the key from a location where the deciphered map always(?) stores
+        // at least 32 null bytes
+        ByteBuffer keyBuffer = bb.duplicate();
+        keyBuffer.position(XOR_KEY_OFFSET);
+        keyBuffer.get(mapKey);
+
+        // try to decrypt only the ident for now, it's much faster...
+        if (XORUtils.xor(ident, mapKey) == BspFile.BSP_ID) {
+            L.log(Level.FINE, "Found Tactical Intervention XOR encryption using the key \"{0}\"", new String(mapKey));
+            xorKey = mapKey;
+            bo = ByteOrder.LITTLE_ENDIAN;
+            return;
+        }
+
+        throw new BspException("Unknown file ident: " + ident + " (" +
+                StringMacroUtils.unmakeID(ident) + ")");
+    }
+
+    /**
+     * Reads the version, the lump directory and the map revision. Offsets
+     * and lengths that don't fit into the file are repaired.
+     *
+     * @param bb decrypted buffer with the header of the map, positioned after
+     *           the ident
+     * @param fileSize size of the map file
+     * @throws BspException if the header is truncated
+     */
+    void readDirectory(ByteBuffer bb, long fileSize) throws BspException {
+        L.log(Level.FINER, "Endianness: {0}", bo);
+
+        // set byte order
+        bb.order(bo);
+
+        // read version
+        version = bb.getInt();
+
+        L.log(Level.FINER, "Version: {0}", version);
+
+        if (version == 0x40014) {
+            // Dark Messiah maps use 14 00 04 00 as version.
+            // The actual BSP version is probably stored in the first two bytes...
+            L.finer("Found Dark Messiah header");
+            app = SourceAppDB.getInstance().fromID(DARK_MESSIAH);
+            version &= 0xff;
+        } else if (version == 27) {
+            // Contagion maps use version 27, ignore VERSION_MAX in this case
+            L.finer("Found Contagion header");
+            app = SourceAppDB.getInstance().fromID(CONTAGION);
+        }
+
+        // hack for L4D2 BSPs
+        if (version == 21 && bb.getInt(8) == 0) {
+            L.finer("Found Left 4 Dead 2 header");
+            app = SourceAppDB.getInstance().fromID(LEFT_4_DEAD_2);
+        }
+
+        // extra int for Contagion
+        if (app.getAppID() == CONTAGION) {
+            bb.getInt(); // always 0?
+        }
+
+        if (app.getAppID() == TITANFALL) {
+            mapRev = bb.getInt();
+            L.log(Level.FINER, "Map revision: {0}", mapRev);
+
+            bb.getInt(); // always 127?
+        }
+
+        // Titanfall has more lumps
+        int numLumps = app.getAppID() == TITANFALL ? BspFile.HEADER_LUMPS_TF : BspFile.HEADER_LUMPS;
+
+        if (bb.remaining() < numLumps * 16 + 4) {
+            throw new BspException("Invalid or missing header");
+        }
+
+        for (int i = 0; i < numLumps; i++) {
+            int vers, ofs, len, fourCC;
+
+            // L4D2 maps use a different order
+            if (app.getAppID() == LEFT_4_DEAD_2) {
+                vers = bb.getInt();
+                ofs = bb.getInt();
+                len = bb.getInt();
+            } else {
+                ofs = bb.getInt();
+                len = bb.getInt();
+                vers = bb.getInt();
+            }
+
+            // length of the uncompressed lump, 0 if not compressed
+            fourCC = bb.getInt();
+
+            LumpType ltype = LumpType.get(i, version);
+
+            // fix invalid offsets
+            if (ofs > fileSize) {
+                int ofsOld = ofs;
+                ofs = (int) fileSize;
+                len = 0;
+                L.log(Level.WARNING, "Invalid lump offset {0} in {1}, assuming {2}",
+                        new Object[]{ofsOld, ltype, ofs});
+            } else if (ofs < 0) {
+                int ofsOld = ofs;
+                ofs = 0;
+                len = 0;
+                L.log(Level.WARNING, "Negative lump offset {0} in {1}, assuming {2}",
+                        new Object[]{ofsOld, ltype, ofs});
+            }
+
+            // fix invalid lengths
+            if (ofs + (long) len > fileSize) {
+                int lenOld = len;
+                len = (int) (fileSize - ofs);
+                L.log(Level.WARNING, "Invalid lump length {0} in {1}, assuming {2}",
+                        new Object[]{lenOld, ltype, len});
+            } else if (len < 0) {
+                int lenOld = len;
+                len = 0;
+                L.log(Level.WARNING, "Negative lump length {0} in {1}, assuming {2}",
+                        new Object[]{lenOld, ltype, len});
+            }
+
+            lumps.add(new LumpEntry(i, ltype, ofs, len, vers, fourCC));
+        }
+
+        if (app.getAppID() != TITANFALL) {
+            mapRev = bb.getInt();
+            L.log(Level.FINER, "Map revision: {0}", mapRev);
+        }
+    }
+
+    /**
+     * Heuristic detection of the Vindictus game lump directory, which uses
+     * integers for the flags and version fields.
+     *
+     * @param bb game lump directory
+     * @param version BSP version of the map
+     * @return true if the directory is probably one of Vindictus
+     */
+    static boolean isVindictusDirectory(ByteBuffer bb, int version) {
+        if (version != 20 || bb.order() != ByteOrder.LITTLE_ENDIAN || bb.limit() < 4) {
+            return false;
+        }
+
+        int glumps = bb.getInt(0);
+        return hasInvalidNames(bb, glumps, 16) && !hasInvalidNames(bb, glumps, 20);
+    }
+
+    private static boolean hasInvalidNames(ByteBuffer bb, int glumps, int entrySize) {
+        for (int i = 0; i < glumps; i++) {
+            int pos = 4 + i * entrySize;
+            if (pos + 4 > bb.limit()) {
+                return true;
+            }
+
+            // check for unusual chars that indicate a reading error
+            String glName = StringMacroUtils.unmakeID(bb.getInt(pos));
+            if (!glName.matches("^[a-zA-Z0-9]{4}$")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the game lump directory. Offsets and lengths that don't fit into
+     * the game lump are repaired.
+     *
+     * @param bb buffer with the game lump or at least its directory,
+     *           positioned at the start of the game lump
+     * @param lumpOffset file offset of the game lump
+     * @param lumpLength length of the game lump
+     * @param app app of the map, which determines the entry layout
+     * @return directory entries
+     * @throws BspException if the directory is truncated
+     */
+    static List<GameLumpEntry> readGameLumpDirectory(ByteBuffer bb, int lumpOffset,
+            int lumpLength, SourceApp app) throws BspException {
+        int appID = app.getAppID();
+        int entrySize = appID == VINDICTUS || appID == DARK_MESSIAH ? 20 : 16;
+        int glumps = bb.limit() < 4 ? 0 : bb.getInt(0);
+
+        if (glumps <= 0) {
+            return Collections.emptyList();
+        }
+
+        if (bb.limit() < 4 + entrySize * (long) glumps) {
+            throw new BspException("Game lump directory is truncated");
+        }
+
+        List<GameLumpEntry> entries = new ArrayList<>(glumps);
+
+        bb.position(4);
+
+        for (int i = 0; i < glumps; i++) {
+            int ofs, len, flags, vers, fourCC;
+
+            if (appID == DARK_MESSIAH) {
+                bb.getInt(); // unknown
+            }
+
+            fourCC = bb.getInt();
+
+            // Vindictus uses integers rather than unsigned shorts
+            if (appID == VINDICTUS) {
+                flags = bb.getInt();
+                vers = bb.getInt();
+            } else {
+                flags = bb.getShort() & 0xffff;
+                vers = bb.getShort() & 0xffff;
+            }
+
+            ofs = bb.getInt();
+            len = bb.getInt();
+
+            if (flags == 1) {
+                // game lump is compressed and "len" contains the uncompressed
+                // size, so use next entry offset to determine compressed size
+                int nextOfs = bb.position() + 12 <= bb.limit() ? bb.getInt(bb.position() + 8) : 0;
+                if (nextOfs == 0) {
+                    // no next entry, assume end of game lump
+                    nextOfs = lumpOffset + lumpLength;
+                }
+                len = nextOfs - ofs;
+            }
+
+            // Offset is relative to the beginning of the BSP file,
+            // not to the game lump.
+            // FIXME: this isn't the case for the console version of Portal 2,
+            // is there a better way to detect this?
+            if (ofs - lumpOffset > 0) {
+                ofs -= lumpOffset;
+            }
+
+            String glName = StringMacroUtils.unmakeID(fourCC);
+
+            // give dummy entries more useful names
+            if (glName.trim().isEmpty()) {
+                glName = "<dummy>";
+            }
+
+            // fix invalid offsets
+            if (ofs > lumpLength) {
+                int ofsOld = ofs;
+                ofs = lumpLength;
+                len = 0;
+                L.log(Level.WARNING, "Invalid game lump offset {0} in {1}, assuming {2}",
+                        new Object[]{ofsOld, glName, ofs});
+            } else if (ofs < 0) {
+                int ofsOld = ofs;
+                ofs = 0;
+                len = 0;
+                L.log(Level.WARNING, "Negative game lump offset {0} in {1}, assuming {2}",
+                        new Object[]{ofsOld, glName, ofs});
+            }
+
+            // fix invalid lengths
+            if (ofs + (long) len > lumpLength) {
+                int lenOld = len;
+                len = lumpLength - ofs;
+                L.log(Level.WARNING, "Invalid game lump length {0} in {1}, assuming {2}",
+                        new Object[]{lenOld, glName, len});
+            } else if (len < 0) {
+                int lenOld = len;
+                len = 0;
+                L.log(Level.WARNING, "Negative game lump length {0} in {1}, assuming {2}",
+                        new Object[]{lenOld, glName, len});
+            }
+
+            entries.add(new GameLumpEntry(fourCC, lumpOffset + ofs, len, vers, flags));
+        }
+
+        return entries;
+    }
+
+    public ByteOrder getByteOrder() {
+        return bo;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getRevision() {
+        return mapRev;
+    }
+
+    /**
+     * Returns the app that was detected from the header.
+     *
+     * @return detected app or {@link SourceApp#UNKNOWN}
+     */
+    public SourceApp getSourceApp() {
+        return app;
+    }
+
+    void setSourceApp(SourceApp app) {
+        this.app = app;
+    }
+
+    /**
+     * Returns the XOR key of encrypted Tactical Intervention maps.
+     *
+     * @return key or null if the map isn't encrypted
+     */
+    byte[] getXorKey() {
+        return xorKey;
+    }
+
+    public List<LumpEntry> getLumps() {
+        return Collections.unmodifiableList(lumps);
+    }
+
+    /**
+     * Lump directory entry.
+     */
+    public static class LumpEntry {
+
+        private final int index;
+        private final LumpType type;
+        private final int offset;
+        private final int length;
+        private final int version;
+        private final int fourCC;
+
+        private LumpEntry(int index, LumpType type, int offset, int length, int version, int fourCC) {
+            this.index = index;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+            this.fourCC = fourCC;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public LumpType getType() {
+            return type;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns the stored length of the lump, which is the compressed
+         * length for compressed lumps.
+         *
+         * @return stored length in bytes
+         */
+        public int getLength() {
+            return length;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getFourCC() {
+            return fourCC;
+        }
+
+        /**
+         * Returns true if the lump is compressed, in which case the fourCC
+         * field holds the uncompressed length.
+         *
+         * @return true if compressed
+         */
+        public boolean isCompressed() {
+            return fourCC != 0;
+        }
+
+        @Override
+        public String toString() {
+            return type.name();
+        }
+    }
+
+    /**
+     * Game lump directory entry.
+     */
+    public static class GameLumpEntry {
+
+        private final int fourCC;
+        private final int offset;
+        private final int length;
+        private final int version;
+        private final int flags;
+
+        private GameLumpEntry(int fourCC, int offset, int length, int version, int flags) {
+            this.fourCC = fourCC;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+            this.flags = flags;
+        }
+
+        public String getName() {
+            return StringMacroUtils.unmakeID(EndianUtils.swapInteger(fourCC));
+        }
+
+        public int getFourCC() {
+            return fourCC;
+        }
+
+        /**
+         * Returns the offset of the game lump in the file.
+         *
+         * @return file offset
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public boolean isCompressed() {
+            return flags == 1;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package info.ata4.bsplib;
+
+import info.ata4.bsplib.app.SourceApp;
+import info.ata4.bsplib.app.SourceAppDB;
+import info.ata4.bsplib.contentreader.EntityLumpContentReader;
+import info.ata4.bsplib.entity.Entity;
+import info.ata4.bsplib.BspHeader.GameLumpEntry;
+import info.ata4.bsplib.BspHeader.LumpEntry;
+import info.ata4.bsplib.io.LzmaUtil;
+import info.ata4.bsplib.lump.LumpType;
+import info.ata4.log.LogUtils;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static info.ata4.bsplib.app.SourceAppID.*;
+
+/**
+ * Lightweight read-only access to the header of a BSP file for cataloguing
+ * maps. Only the first page of the file is read when the probe is opened,
+ * plus the game lump directory. Lumps are read on request with positional
+ * reads, so nothing is mapped, no lumps are sliced or uncompressed except
+ * the requested ones, and the memory use doesn't depend on the map size.
+ * <p>
+ * The header is parsed with {@link BspHeader} like in {@link BspFile},
+ * including the header based app detection, but external .lmp lump files
+ * are ignored.
+ */
+public class BspProbe implements AutoCloseable {
+
+    private static final Logger L = LogUtils.getLogger();
+
+    // enough for the largest header, which is the one of Titanfall
+    private static final int HEADER_PAGE_SIZE = 4096;
+
+    private final Path file;
+    private final String name;
+    private final FileChannel fc;
+    private final long fileSize;
+
+    private final BspHeader header = new BspHeader();
+    private byte[] xorKey;
+
+    private List<GameLumpEntry> gameLumps = Collections.emptyList();
+
+    /**
+     * Opens a BSP file and reads its header and game lump directory.
+     *
+     * @param file BSP file to open
+     * @throws IOException if the file can't be read
+     * @throws BspException if the header or file format is invalid
+     */
+    public BspProbe(Path file) throws IOException {
+        this.file = file;
+        this.name = FilenameUtils.removeExtension(file.getFileName().toString());
+
+        fc = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            fileSize = fc.size();
+            readHeader();
+            readGameLumpDirectory();
+        } catch (IOException | RuntimeException ex) {
+            fc.close();
+            throw ex;
+        }
+    }
+
+    private void readHeader() throws IOException {
+        L.log(Level.FINE, "Probing header of {0}", name);
+
+        ByteBuffer bb = read(0, (int) Math.min(fileSize, HEADER_PAGE_SIZE));
+
+        header.readIdent(bb);
+
+        byte[] key = header.getXorKey();
+        if (key != null) {
+            xor(bb, 0, key);
+            xorKey = key;
+        }
+
+        bb.position(4);
+
+        header.readDirectory(bb, fileSize);
+    }
+
+    private void readGameLumpDirectory() throws IOException {
+        LumpEntry lump = getLump(LumpType.LUMP_GAME_LUMP);
+
+        if (lump.getLength() < 4 || lump.isCompressed()) {
+            return;
+        }
+
+        ByteBuffer count = read(lump.getOffset(), 4);
+        int glumps = count.getInt(0);
+
+        if (glumps <= 0) {
+            return;
+        }
+
+        // the largest entries are the ones of Dark Messiah and Vindictus, plus
+        // the offset field of the entry behind the last one
+        int dirSize = (int) Math.min(lump.getLength(), 4 + 20L * glumps + 12);
+        ByteBuffer bb = read(lump.getOffset(), dirSize);
+
+        // hack for Vindictus
+        if (BspHeader.isVindictusDirectory(bb, header.getVersion())) {
+            header.setSourceApp(SourceAppDB.getInstance().fromID(VINDICTUS));
+        }
+
+        try {
+            gameLumps = BspHeader.readGameLumpDirectory(bb, lump.getOffset(),
+                    lump.getLength(), header.getSourceApp());
+        } catch (BspException ex) {
+            L.log(Level.WARNING, "Game lump directory of {0} is truncated", name);
+        }
+    }
+
+    /**
+     * Reads bytes of the file with a positional read and decrypts them if
+     * required.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(length);
+
+        while (bb.hasRemaining()) {
+            if (fc.read(bb, position + bb.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + bb.position()));
+            }
+        }
+
+        bb.flip();
+
+        if (xorKey != null) {
+            xor(bb, position, xorKey);
+        }
+
+        ByteOrder bo = header.getByteOrder();
+        bb.order(bo != null ? bo : ByteOrder.BIG_ENDIAN);
+
+        return bb;
+    }
+
+    private static void xor(ByteBuffer bb, long position, byte[] key) {
+        for (int i = 0; i < bb.limit(); i++) {
+            bb.put(i, (byte) (bb.get(i) ^ key[(int) ((position + i) % key.length)]));
+        }
+    }
+
+    /**
+     * Reads the raw data of a lump. Compressed lumps are returned as they
+     * are stored. External Titanfall lump files are read instead of the
+     * lump if they exist.
+     *
+     * @param type lump type
+     * @return lump data with the byte order of the map
+     * @throws IOException if the lump can't be read
+     */
+    public ByteBuffer readLump(LumpType type) throws IOException {
+        ensureOpen();
+
+        if (header.getSourceApp().getAppID() == TITANFALL) {
+            Path lumpFile = file.resolveSibling(String.format("%s.bsp.%04x.bsp_lump",
+                    name, type.getIndex()));
+
+            if (Files.exists(lumpFile)) {
+                return ByteBuffer.wrap(Files.readAllBytes(lumpFile)).order(header.getByteOrder());
+            }
+        }
+
+        LumpEntry lump = getLump(type);
+        return read(lump.getOffset(), lump.getLength());
+    }
+
+    /**
+     * Reads and parses the entity lump.
+     *
+     * @return list of entities
+     * @throws IOException if the lump can't be read or uncompressed
+     */
+    public List<Entity> readEntities() throws IOException {
+        ByteBuffer bb = readLump(LumpType.LUMP_ENTITIES);
+
+        if (LzmaUtil.isCompressed(bb)) {
+            bb = LzmaUtil.uncompress(bb);
+        }
+
+        // unlike BspFile, the .ent files of Titanfall maps aren't appended
+        return new EntityLumpContentReader(header.getVersion() == 17).read(bb);
+    }
+
+    /**
+     * Returns the app detected from the header or, if that isn't possible,
+     * from the entity classes like {@link BspFileReader} does. Reads and
+     * parses the entity lump in the second case.
+     *
+     * @return detected app
+     * @throws IOException if the entity lump can't be read
+     */
+    public SourceApp detectSourceApp() throws IOException {
+        SourceApp app = header.getSourceApp();
+        if (app.getAppID() != UNKNOWN) {
+            return app;
+        }
+
+        Set<String> classNames = readEntities().stream()
+                .map(Entity::getClassName)
+                .collect(Collectors.toSet());
+
+        return SourceAppDB.getInstance().find(name, header.getVersion(), classNames);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public ByteOrder getByteOrder() {
+        return header.getByteOrder();
+    }
+
+    public int getVersion() {
+        return header.getVersion();
+    }
+
+    public int getRevision() {
+        return header.getRevision();
+    }
+
+    /**
+     * Returns the app that was detected from the header only.
+     *
+     * @return detected app or {@link SourceApp#UNKNOWN}
+     */
+    public SourceApp getSourceApp() {
+        return header.getSourceApp();
+    }
+
+    public List<LumpEntry> getLumps() {
+        return header.getLumps();
+    }
+
+    public LumpEntry getLump(LumpType type) {
+        return header.getLumps().get(type.getIndex());
+    }
+
+    public List<GameLumpEntry> getGameLumps() {
+        return Collections.unmodifiableList(gameLumps);
+    }
+
+    public GameLumpEntry getGameLump(String sid) {
+        for (GameLumpEntry gl : gameLumps) {
+            if (gl.getName().equalsIgnoreCase(sid)) {
+                return gl;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fc.close();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!fc.isOpen()) {
+            throw new IOException("Probe of " + name + " is closed");
+        }
+    }
+}
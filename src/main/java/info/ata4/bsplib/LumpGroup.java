@@ -0,0 +1,73 @@
+package info.ata4.bsplib;
+
+import info.ata4.bsplib.lump.LumpType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static info.ata4.bsplib.lump.LumpType.*;
+
+/**
+ * Groups of lumps that are decoded together by one of the load methods of
+ * {@link BspFileReader}, in the order they are loaded by
+ * {@link BspFileReader#loadAll()}.
+ * <p>
+ * The entities come first, since the game of the map may be detected by
+ * its entity classes, which in turn selects the structs of other lumps.
+ */
+public enum LumpGroup {
+
+    ENTITIES(BspFileReader::loadEntities, LUMP_ENTITIES),
+    VERTICES(BspFileReader::loadVertices, LUMP_VERTEXES),
+    EDGES(BspFileReader::loadEdges, LUMP_EDGES),
+    FACES(BspFileReader::loadFaces, LUMP_FACES, LUMP_FACES_HDR),
+    ORIGINAL_FACES(BspFileReader::loadOriginalFaces, LUMP_ORIGINALFACES),
+    MODELS(BspFileReader::loadModels, LUMP_MODELS),
+    SURFACE_EDGES(BspFileReader::loadSurfaceEdges, LUMP_SURFEDGES),
+    OCCLUDERS(BspFileReader::loadOccluders, LUMP_OCCLUSION),
+    TEX_INFO(BspFileReader::loadTexInfo, LUMP_TEXINFO),
+    TEX_DATA(BspFileReader::loadTexData, LUMP_TEXDATA, LUMP_TEXDATA_STRING_TABLE, LUMP_TEXDATA_STRING_DATA),
+    STATIC_PROPS(BspFileReader::loadStaticProps),
+    CUBEMAPS(BspFileReader::loadCubemaps, LUMP_CUBEMAPS),
+    PLANES(BspFileReader::loadPlanes, LUMP_PLANES),
+    BRUSHES(BspFileReader::loadBrushes, LUMP_BRUSHES),
+    BRUSH_SIDES(BspFileReader::loadBrushSides, LUMP_BRUSHSIDES),
+    AREAPORTALS(BspFileReader::loadAreaportals, LUMP_AREAPORTALS),
+    CLIP_PORTAL_VERTICES(BspFileReader::loadClipPortalVertices, LUMP_CLIPPORTALVERTS),
+    DISP_INFOS(BspFileReader::loadDispInfos, LUMP_DISPINFO),
+    DISP_VERTICES(BspFileReader::loadDispVertices, LUMP_DISP_VERTS),
+    DISP_TRIANGLE_TAGS(BspFileReader::loadDispTriangleTags, LUMP_DISP_TRIS),
+    DISP_MULTIBLEND(BspFileReader::loadDispMultiBlend, LUMP_DISP_MULTIBLEND, LUMP_OVERLAY_SYSTEM_LEVELS),
+    NODES(BspFileReader::loadNodes, LUMP_NODES),
+    LEAVES(BspFileReader::loadLeaves, LUMP_LEAFS),
+    LEAF_FACES(BspFileReader::loadLeafFaces, LUMP_LEAFFACES),
+    LEAF_BRUSHES(BspFileReader::loadLeafBrushes, LUMP_LEAFBRUSHES),
+    OVERLAYS(BspFileReader::loadOverlays, LUMP_OVERLAYS, LUMP_OVERLAY_FADES, LUMP_OVERLAY_SYSTEM_LEVELS),
+    FLAGS(BspFileReader::loadFlags, LUMP_MAP_FLAGS);
+
+    private final Consumer<BspFileReader> loader;
+    private final Set<LumpType> lumpTypes;
+
+    LumpGroup(Consumer<BspFileReader> loader, LumpType... lumpTypes) {
+        this.loader = loader;
+        this.lumpTypes = lumpTypes.length == 0 ? Collections.emptySet()
+                : Collections.unmodifiableSet(EnumSet.copyOf(Arrays.asList(lumpTypes)));
+    }
+
+    /**
+     * Returns the lumps that may be read by this group. Game lumps, like the
+     * static props, aren't included.
+     *
+     * @return set of lump types
+     */
+    public Set<LumpType> getLumpTypes() {
+        return lumpTypes;
+    }
+
+    void load(BspFileReader reader) {
+        loader.accept(reader);
+    }
+}
@@ -14,24 +14,57 @@ import info.ata4.bsplib.lump.Lump;
 import info.ata4.bsplib.lump.LumpType;
 import info.ata4.bspsrc.modules.texture.TextureSource;
 import info.ata4.io.buffer.ByteBufferChannel;
+import info.ata4.io.buffer.ByteBufferInputStream;
+import info.ata4.log.ContextFormatter;
 import info.ata4.log.LogUtils;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.archivers.zip.ZipMethod;
-import org.tukaani.xz.LZMAInputStream;
+import org.apache.commons.io.IOUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.Enumeration;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 /**
  * Class to read BSP-embedded zip files (pakiles).
+ * <p>
+ * The central directory is parsed once into an index, which is shared by all
+ * lookups, listings and reads until the pakfile lump changes. ZIP64 archives
+ * are indexed with a {@link ZipFile} instead.
  *
  * @author Nico Bergemann <barracuda415 at yahoo.de>
  */
@@ -42,17 +75,395 @@ public class PakFile {
     private static Pattern vhvPattern = Pattern.compile("sp(_hdr)?_\\d+\\.vhv");
     private static Pattern cubemapVtfPattern = Pattern.compile("c(-?\\d+)_(-?\\d+)_(-?\\d+)(\\.hdr)?\\.vtf");
 
+    // zip record signatures and sizes
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_OF_DIR_SIG = 0x06054b50;
+    private static final int ZIP64_END_OF_DIR_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_END_OF_DIR_LOCATOR_SIZE = 20;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_DIR_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    // field values that are stored in the ZIP64 extra field instead
+    private static final int ZIP64_MAGIC_SHORT = 0xffff;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    // general purpose flags
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_EOS_MARKER = 1 << 1;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private static final Charset CP437 = Charset.isSupported("Cp437")
+            ? Charset.forName("Cp437") : StandardCharsets.ISO_8859_1;
+
     private final Lump pakLump;
 
+    // index of the lump buffer it has been built for
+    private ByteBuffer indexedBuffer;
+    private List<Entry> entries;
+    private Map<String, Entry> entryMap;
+    private Map<String, Entry> entryMapIgnoreCase;
+
     public PakFile(BspFile bspFile) {
         pakLump = bspFile.getLump(LumpType.LUMP_PAKFILE);
     }
 
+    Lump getLump() {
+        return pakLump;
+    }
+
     public ZipFile getZipFile() throws IOException {
         return new ZipFile(new ByteBufferChannel(pakLump.getBuffer()),
                 "PakLump", "Cp437", false);
     }
 
+    /**
+     * Returns all entries in the order of the central directory.
+     *
+     * @return list of entries
+     * @throws IOException if the central directory is invalid
+     */
+    public List<Entry> getEntries() throws IOException {
+        return index().entries;
+    }
+
+    /**
+     * Returns the entry for a file name.
+     *
+     * @param name file name
+     * @return entry or null if there's no such file
+     * @throws IOException if the central directory is invalid
+     */
+    public Entry getEntry(String name) throws IOException {
+        return index().entryMap.get(name);
+    }
+
+    /**
+     * Returns the entry for a file name, ignoring case like the engine's file
+     * system does.
+     *
+     * @param name file name
+     * @return entry or null if there's no such file
+     * @throws IOException if the central directory is invalid
+     */
+    public Entry getEntryIgnoreCase(String name) throws IOException {
+        return index().entryMapIgnoreCase.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Checks if a file exists.
+     *
+     * @param name file name
+     * @return true if the file exists
+     * @throws IOException if the central directory is invalid
+     */
+    public boolean exists(String name) throws IOException {
+        return getEntry(name) != null;
+    }
+
+    /**
+     * Checks if a file exists, ignoring case.
+     *
+     * @param name file name
+     * @return true if the file exists
+     * @throws IOException if the central directory is invalid
+     */
+    public boolean existsIgnoreCase(String name) throws IOException {
+        return getEntryIgnoreCase(name) != null;
+    }
+
+    /**
+     * Opens a file for reading.
+     *
+     * @param name file name
+     * @return stream of the uncompressed file data
+     * @throws IOException if the file doesn't exist or can't be read
+     */
+    public InputStream open(String name) throws IOException {
+        Entry entry = getEntry(name);
+
+        if (entry == null) {
+            throw new NoSuchFileException(name);
+        }
+
+        return open(entry);
+    }
+
+    /**
+     * Opens a file for reading, ignoring case.
+     *
+     * @param name file name
+     * @return stream of the uncompressed file data
+     * @throws IOException if the file doesn't exist or can't be read
+     */
+    public InputStream openIgnoreCase(String name) throws IOException {
+        Entry entry = getEntryIgnoreCase(name);
+
+        if (entry == null) {
+            throw new NoSuchFileException(name);
+        }
+
+        return open(entry);
+    }
+
+    /**
+     * Opens an entry for reading. Stored, deflated and LZMA compressed entries
+     * are read straight from the lump buffer. Entries with other compression
+     * methods are read into memory with a {@link ZipFile} first.
+     *
+     * @param entry entry of this pakfile
+     * @return stream of the uncompressed file data
+     * @throws IOException if the entry can't be read
+     */
+    public InputStream open(Entry entry) throws IOException {
+        if (entry.isEncrypted()) {
+            throw new IOException("Encrypted entry " + entry.getName());
+        }
+
+        switch (entry.getMethod()) {
+            case ZipEntry.STORED:
+                return new ByteBufferInputStream(getRawData(entry));
+
+            case ZipEntry.DEFLATED:
+                // raw inflating needs an extra dummy byte at the end
+                Inflater inflater = new Inflater(true);
+                InputStream in = new SequenceInputStream(new ByteBufferInputStream(getRawData(entry)),
+                        new ByteArrayInputStream(new byte[1]));
+
+                return new InflaterInputStream(in, inflater) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+
+            default:
+                if (ZipMethod.getMethodByCode(entry.getMethod()) == ZipMethod.LZMA) {
+                    // If the entry uses EOS marker, use -1 to indicate
+                    long size = (entry.flags & FLAG_EOS_MARKER) != 0 ? -1 : entry.getSize();
+                    return LzmaUtil.fromZipEntry(new ByteBufferInputStream(getRawData(entry)), size);
+                }
+
+                try (ZipFile zipFile = getZipFile()) {
+                    return new ByteArrayInputStream(readEntryData(zipFile, entry));
+                }
+        }
+    }
+
+    private synchronized PakFile index() throws IOException {
+        ByteBuffer buffer = pakLump.getBuffer();
+
+        if (indexedBuffer != buffer) {
+            buildIndex(buffer);
+            indexedBuffer = buffer;
+        }
+
+        return this;
+    }
+
+    /**
+     * Parses the central directory of the pakfile. Only the fields required
+     * for lookups and reads are kept.
+     *
+     * @throws ZipException if the central directory is invalid
+     */
+    private void buildIndex(ByteBuffer buffer) throws IOException {
+        ByteBuffer bb = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        bb.clear();
+
+        List<Entry> entryList = new ArrayList<>();
+        Map<String, Entry> map = new HashMap<>();
+
+        // empty lumps contain no zip at all
+        if (bb.limit() == 0) {
+            setEntries(entryList, map);
+            return;
+        }
+
+        // search the end of central directory record from the end, in case
+        // there's a comment
+        int end = -1;
+        int minEnd = Math.max(0, bb.limit() - END_OF_DIR_SIZE - MAX_COMMENT_SIZE);
+
+        for (int i = bb.limit() - END_OF_DIR_SIZE; i >= minEnd; i--) {
+            if (bb.getInt(i) == END_OF_DIR_SIG) {
+                end = i;
+                break;
+            }
+        }
+
+        if (end == -1) {
+            throw new ZipException("Pakfile has no central directory");
+        }
+
+        int total = bb.getShort(end + 10) & 0xffff;
+        int pos = bb.getInt(end + 16);
+
+        if (isZip64(bb, end, total, pos)) {
+            buildIndexZip64();
+            return;
+        }
+
+        if (pos < 0 || pos > end) {
+            throw new ZipException("Invalid central directory offset " + pos);
+        }
+
+        while (pos + CENTRAL_HEADER_SIZE <= end && bb.getInt(pos) == CENTRAL_HEADER_SIG) {
+            int flags = bb.getShort(pos + 8) & 0xffff;
+            int method = bb.getShort(pos + 10) & 0xffff;
+            long compressedSize = bb.getInt(pos + 20) & 0xffffffffL;
+            long size = bb.getInt(pos + 24) & 0xffffffffL;
+            int nameLen = bb.getShort(pos + 28) & 0xffff;
+            int extraLen = bb.getShort(pos + 30) & 0xffff;
+            int commentLen = bb.getShort(pos + 32) & 0xffff;
+            int headerOffset = bb.getInt(pos + 42);
+
+            if (pos + CENTRAL_HEADER_SIZE + nameLen > end) {
+                throw new ZipException("Truncated central directory entry at " + pos);
+            }
+
+            // sizes and offsets that don't fit are in the ZIP64 extra field
+            if (compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC || headerOffset == -1) {
+                buildIndexZip64();
+                return;
+            }
+
+            byte[] nameBytes = new byte[nameLen];
+            bb.position(pos + CENTRAL_HEADER_SIZE);
+            bb.get(nameBytes);
+
+            String name = new String(nameBytes, (flags & FLAG_UTF8) != 0
+                    ? StandardCharsets.UTF_8 : CP437);
+
+            Entry entry = new Entry(name, flags, method, size, compressedSize,
+                    headerOffset & 0xffffffffL, false);
+            entryList.add(entry);
+
+            // the first entry wins for duplicate names
+            map.putIfAbsent(name, entry);
+
+            pos += CENTRAL_HEADER_SIZE + nameLen + extraLen + commentLen;
+        }
+
+        // the loop stops at the first entry without a valid signature
+        if (entryList.size() != total) {
+            throw new ZipException(String.format("Central directory has %d entries, expected %d",
+                    entryList.size(), total));
+        }
+
+        L.log(Level.FINE, "Indexed {0} pakfile entries", entryList.size());
+
+        setEntries(entryList, map);
+    }
+
+    /**
+     * Returns true if the end of central directory record points to a ZIP64
+     * record, or if its fields don't fit into it.
+     */
+    private static boolean isZip64(ByteBuffer bb, int end, int total, int pos) {
+        int locator = end - ZIP64_END_OF_DIR_LOCATOR_SIZE;
+
+        return (locator >= 0 && bb.getInt(locator) == ZIP64_END_OF_DIR_LOCATOR_SIG)
+                || total == ZIP64_MAGIC_SHORT
+                || (pos & 0xffffffffL) == ZIP64_MAGIC;
+    }
+
+    /**
+     * Indexes ZIP64 pakfiles, which aren't supported by the parser above,
+     * with a {@link ZipFile}. It also resolves the data offsets of the
+     * entries, so reads still slice the lump buffer directly.
+     */
+    private void buildIndexZip64() throws IOException {
+        List<Entry> entryList = new ArrayList<>();
+        Map<String, Entry> map = new HashMap<>();
+
+        try (ZipFile zipFile = getZipFile()) {
+            for (ZipArchiveEntry ze : Collections.list(zipFile.getEntriesInPhysicalOrder())) {
+                Entry entry = new Entry(ze.getName(), ze.getRawFlag(), ze.getMethod(),
+                        ze.getSize(), ze.getCompressedSize(), ze.getDataOffset(), true);
+                entryList.add(entry);
+
+                // the first entry wins for duplicate names
+                map.putIfAbsent(entry.getName(), entry);
+            }
+        }
+
+        L.log(Level.FINE, "Indexed {0} ZIP64 pakfile entries", entryList.size());
+
+        setEntries(entryList, map);
+    }
+
+    private void setEntries(List<Entry> entryList, Map<String, Entry> map) {
+        Map<String, Entry> mapIgnoreCase = new HashMap<>(map.size() * 4 / 3 + 1);
+
+        // the first entry wins for names that only differ in case
+        for (Entry entry : entryList) {
+            mapIgnoreCase.putIfAbsent(entry.getName().toLowerCase(Locale.ROOT), entry);
+        }
+
+        entries = Collections.unmodifiableList(entryList);
+        entryMap = map;
+        entryMapIgnoreCase = mapIgnoreCase;
+    }
+
+    /**
+     * Returns a slice of the lump buffer with the raw data of an entry.
+     */
+    private ByteBuffer getRawData(Entry entry) throws IOException {
+        ByteBuffer bb = pakLump.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        bb.clear();
+
+        long offset;
+
+        if (entry.dataOffset) {
+            offset = entry.offset;
+        } else {
+            long header = entry.offset;
+
+            if (header + LOCAL_HEADER_SIZE > bb.limit() || bb.getInt((int) header) != LOCAL_HEADER_SIG) {
+                throw new IOException("Invalid local header offset for " + entry.getName());
+            }
+
+            int nameLen = bb.getShort((int) header + 26) & 0xffff;
+            int extraLen = bb.getShort((int) header + 28) & 0xffff;
+            offset = header + LOCAL_HEADER_SIZE + nameLen + extraLen;
+        }
+
+        if (offset + entry.getCompressedSize() > bb.limit()) {
+            throw new IOException("Data of " + entry.getName() + " exceeds the pakfile");
+        }
+
+        bb.limit((int) (offset + entry.getCompressedSize()));
+        bb.position((int) offset);
+        return bb.slice();
+    }
+
+    private static byte[] readEntryData(ZipFile zipFile, Entry entry) throws IOException {
+        ZipArchiveEntry ze = zipFile.getEntry(entry.getName());
+
+        if (ze == null || !zipFile.canReadEntryData(ze)) {
+            throw new IOException(String.format("Cannot extract unsupported: %s| method: %s(%s)| encryption: %b",
+                    entry.getName(),
+                    ZipMethod.getMethodByCode(entry.getMethod()),
+                    entry.getMethod(),
+                    entry.isEncrypted()));
+        }
+
+        try (InputStream stream = zipFile.getInputStream(ze)) {
+            return IOUtils.toByteArray(stream);
+        }
+    }
+
+    private static boolean canReadDirectly(Entry entry) {
+        return !entry.isEncrypted()
+                && (entry.getMethod() == ZipEntry.STORED
+                || entry.getMethod() == ZipEntry.DEFLATED
+                || ZipMethod.getMethodByCode(entry.getMethod()) == ZipMethod.LZMA);
+    }
+
     public void unpack(Path dest) throws IOException {
         unpack(dest, false);
     }
@@ -61,8 +472,9 @@ public class PakFile {
         if (direct) {
             L.log(Level.INFO, "Extracting pakfile to {0}", dest);
 
-            try (InputStream is = pakLump.getInputStream()) {
-                Files.copy(is, dest);
+            try (FileChannel fc = FileChannel.open(dest, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                write(fc, pakLump.getBuffer());
             }
         } else {
             unpack(dest, s -> true);
@@ -70,65 +482,182 @@ public class PakFile {
     }
 
     public void unpack(Path dest, Predicate<String> fileFilter) throws IOException {
+        unpack(dest, fileFilter, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Extracts the files of the pakfile concurrently on the given pool.
+     * Existing files are never overwritten and entries that would end up
+     * outside of the destination directory are skipped.
+     * <p>
+     * The entries are split into shards of neighboring entries, one task per
+     * shard. Stored entries are written straight from the lump buffer, which
+     * is usually mapped, without copying them to the heap first.
+     *
+     * @param dest destination directory
+     * @param fileFilter filter for the entry names
+     * @param pool pool for the extraction tasks
+     * @throws IOException if the pakfile can't be read or a file can't be
+     *                     written
+     */
+    public void unpack(Path dest, Predicate<String> fileFilter, ForkJoinPool pool) throws IOException {
         Files.createDirectories(dest);
 
-        try (ZipFile zipFile = getZipFile()) {
-            for (Enumeration<ZipArchiveEntry> enumeration = zipFile.getEntries(); enumeration.hasMoreElements();) {
-                ZipArchiveEntry ze = enumeration.nextElement();
-                String entryName = ze.getName();
+        List<Entry> extractEntries = new ArrayList<>();
+        List<Path> entryFiles = new ArrayList<>();
+        Set<Path> seen = new HashSet<>();
+        Set<Path> dirs = new TreeSet<>();
 
-                if (!fileFilter.test(entryName)) {
-                    continue;
-                }
+        // entries in file order, so that each shard reads one region of the
+        // lump
+        List<Entry> sorted = new ArrayList<>(getEntries());
+        sorted.sort(Comparator.comparingLong(e -> e.offset));
 
-                // create file path for zip entry and canonize it
-                Path entryFile = dest.resolve(entryName).normalize();
+        for (Entry entry : sorted) {
+            String entryName = entry.getName();
 
-                // don't allow file path to exit outside the extraction directory
-                if (!entryFile.startsWith(dest)) {
-                    L.log(Level.WARNING, "Skipped {0} (path traversal attempt)", entryName);
-                    continue;
-                }
+            if (!fileFilter.test(entryName)) {
+                continue;
+            }
 
-                // don't overwrite any files
-                if (Files.exists(entryFile)) {
-                    L.log(Level.WARNING, "Skipped {0} (exists)", entryName);
-                    continue;
-                }
+            // create file path for zip entry and canonize it
+            Path entryFile = dest.resolve(entryName).normalize();
 
-                if (zipFile.canReadEntryData(ze)) {
-                    try (InputStream stream = zipFile.getInputStream(ze)) {
-                        extract(stream, entryFile, entryName);
-                    }
-                } else if (ZipMethod.getMethodByCode(ze.getMethod()) == ZipMethod.LZMA) {
-                    try (InputStream rawStream = zipFile.getRawInputStream(ze)) {
-                        long uncompressedSize;
-                        if ((ze.getRawFlag() & (1 << 1)) != 0) {
-                            // If the entry uses EOS marker, use -1 to indicate
-                            uncompressedSize = -1;
-                        } else {
-                            uncompressedSize = ze.getSize();
-                        }
+            // don't allow file path to exit outside the extraction directory
+            if (!entryFile.startsWith(dest)) {
+                L.log(Level.WARNING, "Skipped {0} (path traversal attempt)", entryName);
+                continue;
+            }
+
+            if (entry.isDirectory()) {
+                dirs.add(entryFile);
+                continue;
+            }
+
+            // don't overwrite any files, including ones extracted from an
+            // earlier entry with the same name
+            if (Files.exists(entryFile) || !seen.add(entryFile)) {
+                L.log(Level.WARNING, "Skipped {0} (exists)", entryName);
+                continue;
+            }
+
+            extractEntries.add(entry);
+            entryFiles.add(entryFile);
+            dirs.add(entryFile.getParent());
+        }
+
+        // create all directories before extracting anything
+        for (Path dir : dirs) {
+            Files.createDirectories(dir);
+        }
+
+        // entries with other compression methods are read with a zip file,
+        // which is only opened if there are any
+        boolean needZipFile = !extractEntries.stream().allMatch(PakFile::canReadDirectly);
 
-                        try (LZMAInputStream lzmaStream = LzmaUtil.fromZipEntry(rawStream, uncompressedSize)) {
-                            extract(lzmaStream, entryFile, entryName);
+        try (ZipFile zipFile = needZipFile ? getZipFile() : null) {
+            int shards = Math.min(extractEntries.size(), pool.getParallelism() * 4);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(shards);
+
+            for (int i = 0; i < shards; i++) {
+                int from = extractEntries.size() * i / shards;
+                int to = extractEntries.size() * (i + 1) / shards;
+
+                // log with the context of the caller, like the file that is
+                // being decompiled
+                tasks.add(pool.submit(ContextFormatter.wrap(() -> {
+                    for (int j = from; j < to; j++) {
+                        try {
+                            extract(zipFile, extractEntries.get(j), entryFiles.get(j));
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
                         }
                     }
-                } else {
-                    L.warning(String.format("Cannot extract unsupported: %s| method: %s(%s)| encryption: %b",
-                            entryName,
-                            ZipMethod.getMethodByCode(ze.getMethod()),
-                            ze.getMethod(),
-                            ze.getGeneralPurposeBit().usesEncryption()));
+                })));
+            }
+
+            // wait for all tasks before closing the zip file
+            RuntimeException error = null;
+
+            for (ForkJoinTask<?> task : tasks) {
+                try {
+                    task.join();
+                } catch (RuntimeException ex) {
+                    if (error == null) {
+                        error = ex;
+                    }
+                }
+            }
+
+            if (error instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) error).getCause();
+            } else if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    private void extract(ZipFile zipFile, Entry entry, Path entryFile) throws IOException {
+        String entryName = entry.getName();
+
+        if (entry.getMethod() == ZipEntry.STORED && !entry.isEncrypted()) {
+            try (FileChannel fc = create(entryFile, entryName)) {
+                if (fc != null) {
+                    write(fc, getRawData(entry));
+                }
+            }
+        } else if (canReadDirectly(entry)) {
+            try (InputStream stream = open(entry)) {
+                extract(stream, entryFile, entryName);
+            }
+        } else {
+            byte[] data;
+
+            try {
+                data = readEntryData(zipFile, entry);
+            } catch (IOException ex) {
+                L.warning(ex.getMessage());
+                return;
+            }
+
+            try (FileChannel fc = create(entryFile, entryName)) {
+                if (fc != null) {
+                    write(fc, ByteBuffer.wrap(data));
                 }
             }
         }
     }
 
     private static void extract(InputStream stream, Path path, String entryName) throws IOException {
+        try (FileChannel fc = create(path, entryName)) {
+            if (fc != null) {
+                IOUtils.copy(stream, Channels.newOutputStream(fc));
+            }
+        }
+    }
+
+    /**
+     * Creates a new file for an entry, or returns null if the file has been
+     * created in the meantime.
+     */
+    private static FileChannel create(Path path, String entryName) throws IOException {
         L.log(Level.INFO, "Extracting {0}", entryName);
-        Files.createDirectories(path.getParent());
-        Files.copy(stream, path);
+
+        try {
+            return FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException ex) {
+            L.log(Level.WARNING, "Skipped {0} (exists)", entryName);
+            return null;
+        }
+    }
+
+    private static void write(FileChannel fc, ByteBuffer buffer) throws IOException {
+        ByteBuffer bb = buffer.duplicate();
+        bb.rewind();
+
+        while (bb.hasRemaining()) {
+            fc.write(bb);
+        }
     }
 
     /**
@@ -156,4 +685,70 @@ public class PakFile {
                         || fileName.equalsIgnoreCase("cubemapdefault.hdr.vtf"))
                 .test(embeddedFileName);
     }
+
+    /**
+     * Central directory entry of a file in the pakfile.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final int flags;
+        private final int method;
+        private final long size;
+        private final long compressedSize;
+
+        // offset of the local header, or of the data if dataOffset is set
+        private final long offset;
+        private final boolean dataOffset;
+
+        private Entry(String name, int flags, int method, long size, long compressedSize,
+                long offset, boolean dataOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+            this.dataOffset = dataOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the uncompressed size of the file.
+         *
+         * @return size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Returns the zip compression method code.
+         *
+         * @return method code
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        public boolean isEncrypted() {
+            return (flags & FLAG_ENCRYPTED) != 0;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
 }
@@ -31,7 +31,7 @@ public class SourceAppDB {
     private Map<Integer, SourceApp> appMap = new HashMap<>();
     private float score;
 
-    public static SourceAppDB getInstance() {
+    public static synchronized SourceAppDB getInstance() {
         if (instance == null) {
             instance = new SourceAppDB();
         }
@@ -89,7 +89,7 @@ public class SourceAppDB {
      * @param classNames Complete set of entity class names
      * @return
      */
-    public SourceApp find(String bspName, int bspVersion, Set<String> classNames) {
+    public synchronized SourceApp find(String bspName, int bspVersion, Set<String> classNames) {
         SourceApp candidate = SourceApp.UNKNOWN;
         score = 0;
 
@@ -133,7 +133,7 @@ public class SourceAppDB {
      * 
      * @return total score
      */
-    public float getScore() {
+    public synchronized float getScore() {
         return score;
     }
 
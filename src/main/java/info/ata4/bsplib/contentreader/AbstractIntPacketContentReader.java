@@ -0,0 +1,40 @@
+package info.ata4.bsplib.contentreader;
+
+import info.ata4.bsplib.struct.IntLump;
+import info.ata4.io.DataReader;
+import info.ata4.log.LogUtils;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Reads lumps of integer packets into an {@link IntLump}, without boxing
+ * the values.
+ */
+public abstract class AbstractIntPacketContentReader extends AbstractContentReader<IntLump> {
+
+    private static final Logger L = LogUtils.getLogger();
+
+    public AbstractIntPacketContentReader() {
+        super(IntLump.EMPTY);
+    }
+
+    @Override
+    public IntLump read(DataReader in) throws IOException {
+        return read(in, Math.toIntExact(in.remaining() / packetSize()));
+    }
+
+    public IntLump read(DataReader in, int packetCount) throws IOException {
+        int[] packets = new int[packetCount];
+
+        for (int i = 0; i < packetCount; i++) {
+            packets[i] = readPacket(in);
+        }
+
+        L.fine(String.format("%s: %d packets read", getClass().getSimpleName(), packetCount));
+        return new IntLump(packets);
+    }
+
+    protected abstract int packetSize();
+    protected abstract int readPacket(DataReader in) throws IOException;
+}
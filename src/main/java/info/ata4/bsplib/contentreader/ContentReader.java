@@ -1,10 +1,30 @@
 package info.ata4.bsplib.contentreader;
 
 import info.ata4.io.DataReader;
+import info.ata4.io.DataReaders;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface ContentReader<T> {
     T read(DataReader reader) throws IOException;
+
+    /**
+     * Reads the content from a lump buffer and advances its position past the
+     * read data. The default implementation reads through a
+     * {@link DataReader}, readers that scan the buffer directly may override
+     * it.
+     *
+     * @param buffer lump buffer
+     * @return lump content
+     * @throws IOException on read errors
+     */
+    default T read(ByteBuffer buffer) throws IOException {
+        DataReader in = DataReaders.forByteBuffer(buffer);
+        T data = read(in);
+        buffer.position(buffer.limit() - Math.toIntExact(in.remaining()));
+        return data;
+    }
+
     T nullData();
 }
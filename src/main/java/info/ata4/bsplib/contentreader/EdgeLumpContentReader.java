@@ -0,0 +1,40 @@
+package info.ata4.bsplib.contentreader;
+
+import info.ata4.bsplib.struct.EdgeLump;
+import info.ata4.io.DataReader;
+
+import java.io.IOException;
+
+/**
+ * Reads the edge lump directly into an {@link EdgeLump}.
+ */
+public class EdgeLumpContentReader extends AbstractContentReader<EdgeLump> {
+
+    private final boolean intIndices;
+
+    /**
+     * @param intIndices true if the vertex indices are stored as integers
+     *                   instead of unsigned shorts, like in Vindictus
+     */
+    public EdgeLumpContentReader(boolean intIndices) {
+        super(EdgeLump.EMPTY);
+        this.intIndices = intIndices;
+    }
+
+    @Override
+    public EdgeLump read(DataReader in) throws IOException {
+        int packetSize = intIndices ? 8 : 4;
+        int count = Math.toIntExact(in.remaining() / packetSize);
+        EdgeLump lump = new EdgeLump(count);
+
+        for (int i = 0; i < count; i++) {
+            if (intIndices) {
+                lump.set(i, in.readInt(), in.readInt());
+            } else {
+                lump.set(i, in.readUnsignedShort(), in.readUnsignedShort());
+            }
+        }
+
+        return lump;
+    }
+}
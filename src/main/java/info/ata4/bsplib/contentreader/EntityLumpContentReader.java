@@ -1,11 +1,12 @@
 package info.ata4.bsplib.contentreader;
 
 import info.ata4.bsplib.entity.Entity;
-import info.ata4.bsplib.io.EntityInputStream;
+import info.ata4.bsplib.io.EntityBufferReader;
 import info.ata4.io.DataReader;
 import info.ata4.log.LogUtils;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -25,17 +26,27 @@ public class EntityLumpContentReader extends AbstractContentReader<List<Entity>>
 
     @Override
     public List<Entity> read(DataReader in) throws IOException {
+        byte[] data = new byte[Math.toIntExact(in.remaining())];
+        in.readBytes(data);
+        return read(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public List<Entity> read(ByteBuffer buffer) throws IOException {
         List<Entity> entities = new ArrayList<>();
-        try (EntityInputStream entReader = new EntityInputStream(in.stream())) {
-            // allow escaped quotes for VTBM
-            entReader.setAllowEscSeq(allowEscSeq);
-
-            Entity ent;
-            while ((ent = entReader.readEntity()) != null) {
-                entities.add(ent);
-            }
+        EntityBufferReader entReader = new EntityBufferReader(buffer);
+
+        // allow escaped quotes for VTBM
+        entReader.setAllowEscSeq(allowEscSeq);
+
+        Entity ent;
+        while ((ent = entReader.readEntity()) != null) {
+            entities.add(ent);
         }
 
+        // the whole lump has been read at this point
+        buffer.position(entReader.position());
+
         L.fine("Entities: " + entities.size());
         return entities;
     }
@@ -4,7 +4,7 @@ import info.ata4.io.DataReader;
 
 import java.io.IOException;
 
-public class IntegerPacketsContentReader extends AbstractPacketContentReader<Integer> {
+public class IntegerPacketsContentReader extends AbstractIntPacketContentReader {
 
     @Override
     protected int packetSize() {
@@ -12,7 +12,7 @@ public class IntegerPacketsContentReader extends AbstractPacketContentReader<Int
     }
 
     @Override
-    protected Integer readPacket(DataReader in) throws IOException {
+    protected int readPacket(DataReader in) throws IOException {
         return in.readInt();
     }
 }
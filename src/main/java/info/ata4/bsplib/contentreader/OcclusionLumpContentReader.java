@@ -2,6 +2,7 @@ package info.ata4.bsplib.contentreader;
 
 import info.ata4.bsplib.struct.DOccluderData;
 import info.ata4.bsplib.struct.DOccluderPolyData;
+import info.ata4.bsplib.struct.IntLump;
 import info.ata4.io.DataReader;
 import info.ata4.log.LogUtils;
 
@@ -36,7 +37,7 @@ public class OcclusionLumpContentReader<DATA extends DOccluderData>
                 .read(in, dOccluderPolyCount);
 
         int vertexCount = in.readInt();
-        List<Integer> vertexIndices = new IntegerPacketsContentReader().read(in, vertexCount);
+        IntLump vertexIndices = new IntegerPacketsContentReader().read(in, vertexCount);
 
         return new OcclusionData<>(dOccluderData, dOccluderPolyData, vertexIndices);
     }
@@ -45,14 +46,14 @@ public class OcclusionLumpContentReader<DATA extends DOccluderData>
 
         public final List<DATA> dOccluderData;
         public final List<DOccluderPolyData> dOccluderPolyData;
-        public final List<Integer> vertexIndices;
+        public final IntLump vertexIndices;
 
         public OcclusionData() {
-            this(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+            this(Collections.emptyList(), Collections.emptyList(), IntLump.EMPTY);
         }
 
         public OcclusionData(List<DATA> dOccluderData, List<DOccluderPolyData> dOccluderPolyData,
-                             List<Integer> vertexIndices) {
+                             IntLump vertexIndices) {
             this.dOccluderData = Objects.requireNonNull(dOccluderData);
             this.dOccluderPolyData = Objects.requireNonNull(dOccluderPolyData);
             this.vertexIndices = Objects.requireNonNull(vertexIndices);
@@ -0,0 +1,30 @@
+package info.ata4.bsplib.contentreader;
+
+import info.ata4.bsplib.struct.PlaneLump;
+import info.ata4.io.DataReader;
+
+import java.io.IOException;
+
+/**
+ * Reads the plane lump directly into a {@link PlaneLump}.
+ */
+public class PlaneLumpContentReader extends AbstractContentReader<PlaneLump> {
+
+    private static final int PACKET_SIZE = 20;
+
+    public PlaneLumpContentReader() {
+        super(PlaneLump.EMPTY);
+    }
+
+    @Override
+    public PlaneLump read(DataReader in) throws IOException {
+        int count = Math.toIntExact(in.remaining() / PACKET_SIZE);
+        PlaneLump lump = new PlaneLump(count);
+
+        for (int i = 0; i < count; i++) {
+            lump.set(i, in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(), in.readInt());
+        }
+
+        return lump;
+    }
+}
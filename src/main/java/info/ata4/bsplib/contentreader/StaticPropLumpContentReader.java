@@ -40,7 +40,7 @@ public class StaticPropLumpContentReader extends AbstractContentReader<StaticPro
             in.seek(psextra * 128, CURRENT);
         }
 
-        List<Integer> staticPropLeaf = readLeafs(in);
+        IntLump staticPropLeaf = readLeafs(in);
 
         Map<Integer, Vector3f> scaling;
         if (appId == VINDICTUS && sprpVersion > 5) {
@@ -84,7 +84,7 @@ public class StaticPropLumpContentReader extends AbstractContentReader<StaticPro
         return staticPropNames;
     }
 
-    private List<Integer> readLeafs(DataReader in) throws IOException {
+    private IntLump readLeafs(DataReader in) throws IOException {
         final int propleaves = in.readInt();
         return new UShortPacketsContentReader().read(in, propleaves);
     }
@@ -258,19 +258,19 @@ public class StaticPropLumpContentReader extends AbstractContentReader<StaticPro
 
     public static class StaticPropData {
         public final List<String> staticPropDict;
-        public final List<Integer> staticPropLeaf;
+        public final IntLump staticPropLeaf;
         public final List<? extends DStaticProp> staticProps;
 
         public StaticPropData() {
             this.staticPropDict = Collections.emptyList();
-            this.staticPropLeaf = Collections.emptyList();
+            this.staticPropLeaf = IntLump.EMPTY;
             this.staticProps = Collections.emptyList();
         }
 
-        public StaticPropData(List<String> staticPropDict, List<Integer> staticPropLeaf,
+        public StaticPropData(List<String> staticPropDict, IntLump staticPropLeaf,
                               List<? extends DStaticProp> staticProps) {
             this.staticPropDict = Collections.unmodifiableList(staticPropDict);
-            this.staticPropLeaf = Collections.unmodifiableList(staticPropLeaf);
+            this.staticPropLeaf = staticPropLeaf;
             this.staticProps = Collections.unmodifiableList(staticProps);
         }
     }
@@ -1,5 +1,6 @@
 package info.ata4.bsplib.contentreader;
 
+import info.ata4.bsplib.struct.IntLump;
 import info.ata4.io.DataReader;
 
 import java.io.IOException;
@@ -10,9 +11,9 @@ import java.util.Objects;
 
 public class TexdataStringDataLumpContentReader extends AbstractContentReader<List<String>> {
 
-    private final List<Integer> stringTableIndices;
+    private final IntLump stringTableIndices;
 
-    public TexdataStringDataLumpContentReader(List<Integer> stringTableIndices) {
+    public TexdataStringDataLumpContentReader(IntLump stringTableIndices) {
         super(Collections.emptyList());
         this.stringTableIndices = Objects.requireNonNull(stringTableIndices);
     }
@@ -20,8 +21,8 @@ public class TexdataStringDataLumpContentReader extends AbstractContentReader<Li
     @Override
     public List<String> read(DataReader in) throws IOException {
         List<String> texnames = new ArrayList<>(stringTableIndices.size());
-        for (int stringTableIndex : stringTableIndices) {
-            in.position(stringTableIndex);
+        for (int i = 0; i < stringTableIndices.size(); i++) {
+            in.position(stringTableIndices.get(i));
             texnames.add(in.readStringNull(Math.toIntExact(in.remaining())));
         }
 
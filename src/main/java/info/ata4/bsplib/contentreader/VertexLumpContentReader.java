@@ -0,0 +1,30 @@
+package info.ata4.bsplib.contentreader;
+
+import info.ata4.bsplib.struct.VertexLump;
+import info.ata4.io.DataReader;
+
+import java.io.IOException;
+
+/**
+ * Reads the vertex lump directly into a {@link VertexLump}.
+ */
+public class VertexLumpContentReader extends AbstractContentReader<VertexLump> {
+
+    private static final int PACKET_SIZE = 12;
+
+    public VertexLumpContentReader() {
+        super(VertexLump.EMPTY);
+    }
+
+    @Override
+    public VertexLump read(DataReader in) throws IOException {
+        int count = Math.toIntExact(in.remaining() / PACKET_SIZE);
+        VertexLump lump = new VertexLump(count);
+
+        for (int i = 0; i < count; i++) {
+            lump.set(i, in.readFloat(), in.readFloat(), in.readFloat());
+        }
+
+        return lump;
+    }
+}
@@ -30,7 +30,7 @@ public class Entity {
 
     private static final Logger L = LogUtils.getLogger();
 
-    private Map<String, String> keyValue = new LinkedHashMap<>();
+    private Map<String, String> keyValue = new KeyValueMap();
     private List<KeyValue> keyValueIO = new ArrayList<>();
     private String className;
 
@@ -57,7 +57,20 @@ public class Entity {
      * @param kvList raw key-value list
      */
     public Entity(List<KeyValue> kvList) {
-        for (KeyValue kv : kvList) {
+        this(kvList, null);
+    }
+
+    /**
+     * Creates a new entity from a list of raw key-values whose I/O values
+     * have already been identified by the parser.
+     *
+     * @param kvList raw key-value list
+     * @param ioValues set bits mark the indices of I/O key-values in the list,
+     *                 null to identify them with {@link EntityIO#isEntityIO(KeyValue)}
+     */
+    public Entity(List<KeyValue> kvList, BitSet ioValues) {
+        for (int i = 0; i < kvList.size(); i++) {
+            KeyValue kv = kvList.get(i);
             String key = kv.getKey();
             String value = kv.getValue();
 
@@ -71,7 +84,9 @@ public class Entity {
                 continue;
             }
 
-            if (EntityIO.isEntityIO(kv)) {
+            boolean io = ioValues != null ? ioValues.get(i) : EntityIO.isEntityIO(kv);
+
+            if (io) {
                 keyValueIO.add(kv);
             } else {
                 keyValue.put(key, value);
@@ -27,18 +27,26 @@ public class EntityIO {
     public static boolean isEntityIO(KeyValue kv) {
         String value = kv.getValue();
 
+        return isEntityIO(StringUtils.countMatches(value, SEP_STR_NEW),
+                StringUtils.countMatches(value, SEP_STR_OLD));
+    }
+
+    /**
+     * Checks if a value is an I/O value by the number of separators in it,
+     * for parsers that count them while reading the value.
+     *
+     * @param newSeps number of {@link #SEP_CHR_NEW} characters in the value
+     * @param oldSeps number of {@link #SEP_CHR_OLD} characters in the value
+     * @return true if the value is an I/O value
+     */
+    public static boolean isEntityIO(int newSeps, int oldSeps) {
         // newer format, always 4
-        if (StringUtils.countMatches(value, SEP_STR_NEW) == 4) {
+        if (newSeps == 4) {
             return true;
         }
 
         // 6 seps for VTMB and Messiah, 4 otherwise
-        int matches = StringUtils.countMatches(value, SEP_STR_OLD);
-        if (matches == 4 || matches == 6) {
-            return true;
-        }
-
-        return false;
+        return oldSeps == 4 || oldSeps == 6;
     }
 
     private String targetEntity;
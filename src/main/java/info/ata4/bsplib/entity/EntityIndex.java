@@ -0,0 +1,149 @@
+package info.ata4.bsplib.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Index over the entities of a map by class name, target name and keys, built
+ * once when the entity lump is loaded. All queries return the entities in
+ * the order of the entity lump.
+ * <p>
+ * The index reflects the entities as they were loaded. Entities that are
+ * modified afterwards stay at their original positions in the index, so
+ * callers that depend on later changes should check the entities again.
+ */
+public class EntityIndex {
+
+    private final List<Entity> entities;
+    private final Map<String, List<Entity>> byClass = new HashMap<>();
+    private final Map<String, List<Entity>> byTargetName = new HashMap<>();
+    private final Map<String, List<Entity>> byKey = new HashMap<>();
+
+    public EntityIndex(List<Entity> entities) {
+        this.entities = entities;
+
+        for (Entity ent : entities) {
+            add(byClass, ent.getClassName(), ent);
+
+            String targetName = ent.getTargetName();
+            if (targetName != null) {
+                add(byTargetName, targetName, ent);
+            }
+
+            for (String key : ent.getKeys()) {
+                add(byKey, key, ent);
+            }
+        }
+    }
+
+    private static void add(Map<String, List<Entity>> map, String name, Entity ent) {
+        map.computeIfAbsent(name, k -> new ArrayList<>(1)).add(ent);
+    }
+
+    private static List<Entity> get(Map<String, List<Entity>> map, String name) {
+        List<Entity> list = map.get(name);
+        return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns the class names of all entities.
+     *
+     * @return set of class names
+     */
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(byClass.keySet());
+    }
+
+    /**
+     * Returns all entities of a class.
+     *
+     * @param className exact class name
+     * @return entities of the class
+     */
+    public List<Entity> getByClass(String className) {
+        return get(byClass, className);
+    }
+
+    /**
+     * Returns all entities whose class name starts with the given prefix, like
+     * "func_areaportal" for func_areaportal and func_areaportalwindow.
+     *
+     * @param prefix class name prefix
+     * @return entities of the matching classes
+     */
+    public List<Entity> getByClassPrefix(String prefix) {
+        List<List<Entity>> matches = byClass.entrySet().stream()
+                .filter(e -> e.getKey() != null && e.getKey().startsWith(prefix))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
+
+        if (matches.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        if (matches.size() == 1) {
+            return Collections.unmodifiableList(matches.get(0));
+        }
+
+        // restore the lump order across the classes
+        Map<Entity, Boolean> matched = new IdentityHashMap<>();
+        matches.forEach(list -> list.forEach(ent -> matched.put(ent, Boolean.TRUE)));
+
+        return Collections.unmodifiableList(entities.stream()
+                .filter(matched::containsKey)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Returns all entities with a target name.
+     *
+     * @param targetName exact target name
+     * @return entities with the target name
+     */
+    public List<Entity> getByTargetName(String targetName) {
+        return get(byTargetName, targetName);
+    }
+
+    /**
+     * Returns the target names of all entities.
+     *
+     * @return set of target names
+     */
+    public Set<String> getTargetNames() {
+        return Collections.unmodifiableSet(byTargetName.keySet());
+    }
+
+    /**
+     * Returns all entities that have a key, not including I/O keys.
+     *
+     * @param key key name
+     * @return entities with the key
+     */
+    public List<Entity> getByKey(String key) {
+        return get(byKey, key);
+    }
+
+    /**
+     * Returns the keys of all entities, not including I/O keys.
+     *
+     * @return set of keys
+     */
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(byKey.keySet());
+    }
+
+    /**
+     * Returns all indexed entities.
+     *
+     * @return list of entities
+     */
+    public List<Entity> getEntities() {
+        return Collections.unmodifiableList(entities);
+    }
+}
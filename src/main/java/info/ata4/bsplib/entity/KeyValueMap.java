@@ -0,0 +1,218 @@
+package info.ata4.bsplib.entity;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Insertion-ordered map for the key-values of an entity. Keys and values are
+ * stored alternately in a single array and looked up by a linear scan, which
+ * is faster than hashing for the few keys of a typical entity and uses a
+ * fraction of the memory of a LinkedHashMap, which needs an entry object
+ * per key-value.
+ */
+class KeyValueMap extends AbstractMap<String, String> {
+
+    private static final String[] EMPTY = new String[0];
+
+    // key at 2 * i, value at 2 * i + 1
+    private String[] data = EMPTY;
+    private int size;
+    private int modCount;
+
+    private int indexOf(Object key) {
+        // keys are usually interned, so try the cheap identity check first
+        for (int i = 0; i < size; i++) {
+            if (data[i << 1] == key) {
+                return i;
+            }
+        }
+
+        if (key != null) {
+            for (int i = 0; i < size; i++) {
+                if (key.equals(data[i << 1])) {
+                    return i;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    @Override
+    public String get(Object key) {
+        int i = indexOf(key);
+        return i == -1 ? null : data[(i << 1) + 1];
+    }
+
+    @Override
+    public String put(String key, String value) {
+        Objects.requireNonNull(key);
+
+        int i = indexOf(key);
+
+        if (i != -1) {
+            String old = data[(i << 1) + 1];
+            data[(i << 1) + 1] = value;
+            return old;
+        }
+
+        if (data.length == size << 1) {
+            data = Arrays.copyOf(data, Math.max(16, data.length * 2));
+        }
+
+        data[size << 1] = key;
+        data[(size << 1) + 1] = value;
+        size++;
+        modCount++;
+
+        return null;
+    }
+
+    @Override
+    public String remove(Object key) {
+        int i = indexOf(key);
+
+        if (i == -1) {
+            return null;
+        }
+
+        String old = data[(i << 1) + 1];
+        removeAt(i);
+        return old;
+    }
+
+    private void removeAt(int i) {
+        System.arraycopy(data, (i + 1) << 1, data, i << 1, (size - i - 1) << 1);
+        size--;
+        data[size << 1] = null;
+        data[(size << 1) + 1] = null;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(data, 0, size << 1, null);
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, String>> {
+
+        private int next;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+
+            last = next++;
+            return new KeyValueEntry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == -1) {
+                throw new IllegalStateException();
+            }
+
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    private class KeyValueEntry implements Entry<String, String> {
+
+        private final int index;
+
+        private KeyValueEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return data[index << 1];
+        }
+
+        @Override
+        public String getValue() {
+            return data[(index << 1) + 1];
+        }
+
+        @Override
+        public String setValue(String value) {
+            String old = data[(index << 1) + 1];
+            data[(index << 1) + 1] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+
+            Entry<?, ?> other = (Entry<?, ?>) obj;
+            return Objects.equals(getKey(), other.getKey())
+                    && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package info.ata4.bsplib.io;
+
+import info.ata4.bsplib.entity.Entity;
+import info.ata4.bsplib.entity.EntityIO;
+import info.ata4.bsplib.entity.KeyValue;
+import info.ata4.log.LogUtils;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Entity lump tokenizer that scans the lump buffer directly. Behaves like
+ * {@link EntityInputStream}, including the error recovery, but searches the
+ * closing quote of strings eight bytes at a time and counts the I/O
+ * separators of values in the same pass, so {@link Entity} doesn't need to
+ * scan the values again.
+ * <p>
+ * Keys and short values are interned in a symbol table per reader, so equal
+ * strings of different entities share one instance.
+ */
+public class EntityBufferReader {
+
+    private static final Logger L = LogUtils.getLogger();
+
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long QUOTES = 0x0101010101010101L * '"';
+    private static final long SEPS_OLD = 0x0101010101010101L * EntityIO.SEP_CHR_OLD;
+    private static final long SEPS_NEW = 0x0101010101010101L * EntityIO.SEP_CHR_NEW;
+
+    private static final int MAX_POOLED_LENGTH = 64;
+
+    // little-endian view, so that the first byte is the lowest byte of a long
+    private final ByteBuffer bb;
+    private final int limit;
+    private int pos;
+
+    private final byte[] array;
+    private final int arrayOffset;
+    private byte[] scratch = new byte[256];
+
+    // shared strings for all entities of the lump
+    private final StringPool pool = new StringPool();
+
+    private boolean allowEsc = false;
+    private boolean esc;
+
+    // I/O classification of the last read string
+    private boolean stringIO;
+
+    /**
+     * Creates a reader for the remaining bytes of a buffer. The buffer itself
+     * isn't modified.
+     *
+     * @param buffer entity lump buffer
+     */
+    public EntityBufferReader(ByteBuffer buffer) {
+        bb = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        pos = bb.position();
+        limit = bb.limit();
+
+        if (bb.hasArray()) {
+            array = bb.array();
+            arrayOffset = bb.arrayOffset();
+        } else {
+            array = null;
+            arrayOffset = 0;
+        }
+    }
+
+    public Entity readEntity() {
+        boolean section = false;
+        esc = false;
+
+        List<KeyValue> keyValues = new ArrayList<>();
+        BitSet ioValues = new BitSet();
+        String key = null;
+
+        try {
+            while (pos < limit) {
+                switch (bb.get(pos++)) {
+                    case '"':
+                        if (!section) {
+                            throw new ParseException("String in unopened section", pos);
+                        }
+
+                        // ignore '"' if the previous character was '\'
+                        if (esc) {
+                            esc = false;
+                            break;
+                        }
+
+                        String string = readString();
+
+                        // unterminated string at the end of the lump
+                        if (string == null) {
+                            return null;
+                        }
+
+                        if (key == null) {
+                            key = string;
+                        } else {
+                            // ignore empty keys
+                            if (key.isEmpty()) {
+                                L.log(Level.FINE, "Skipped value \"{0}\" with empty key at {1}",
+                                        new Object[] {string, pos});
+                            } else {
+                                ioValues.set(keyValues.size(), stringIO);
+                                keyValues.add(new KeyValue(key, string));
+                            }
+
+                            key = null;
+                        }
+                        break;
+
+                    case '{':
+                        if (section) {
+                            throw new ParseException("Opened unclosed section", pos);
+                        }
+
+                        section = true;
+                        break;
+
+                    case '}':
+                        if (!section) {
+                            throw new ParseException("Closed unopened section", pos);
+                        }
+
+                        return new Entity(keyValues, ioValues);
+
+                    case '\\':
+                        if (allowEsc) {
+                            // ignore the next '"'
+                            esc = true;
+                        }
+                        break;
+                }
+            }
+        } catch (ParseException ex) {
+            L.log(Level.WARNING, "{0} at {1}", new Object[]{ex.getMessage(), ex.getErrorOffset()});
+
+            // skip rest of this section by reading until the end or '}'
+            while (pos < limit && bb.get(pos++) != '}');
+
+            // return what we've got so far
+            return new Entity(keyValues, ioValues);
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads a string up to the closing quote, which is skipped, and counts its
+     * I/O separators.
+     *
+     * @return string or null if the lump ends before the closing quote
+     */
+    private String readString() {
+        int start = pos;
+        int sepsOld = 0;
+        int sepsNew = 0;
+        boolean closed = false;
+
+        if (!allowEsc) {
+            // scan eight bytes at a time for the quote and the separators
+            while (pos + 8 <= limit) {
+                long word = bb.getLong(pos);
+                long quotes = matches(word, QUOTES);
+                long mask = -1;
+
+                if (quotes != 0) {
+                    // only count the separators in front of the quote
+                    int n = Long.numberOfTrailingZeros(quotes) >>> 3;
+                    mask = (1L << (n << 3)) - 1;
+                    pos += n;
+                    closed = true;
+                }
+
+                sepsOld += Long.bitCount(matches(word, SEPS_OLD) & mask);
+                sepsNew += Long.bitCount(matches(word, SEPS_NEW) & mask);
+
+                if (closed) {
+                    break;
+                }
+
+                pos += 8;
+            }
+        }
+
+        // remaining bytes, or all bytes if the quote may be escaped
+        for (; !closed && pos < limit; pos++) {
+            byte b = bb.get(pos);
+
+            if (b == '"') {
+                if (esc) {
+                    esc = false;
+                } else {
+                    closed = true;
+                    break;
+                }
+            } else if (b == '\\') {
+                if (allowEsc) {
+                    esc = true;
+                }
+            } else if (b == EntityIO.SEP_CHR_OLD) {
+                sepsOld++;
+            } else if (b == EntityIO.SEP_CHR_NEW) {
+                sepsNew++;
+            }
+        }
+
+        if (!closed) {
+            pos = limit;
+            return null;
+        }
+
+        String string = decode(start, pos);
+        stringIO = EntityIO.isEntityIO(sepsNew, sepsOld);
+
+        // skip closing quote
+        pos++;
+
+        return string;
+    }
+
+    /**
+     * Returns a word with the high bit set in every byte of the word that
+     * equals the byte in the pattern and all other bits cleared.
+     */
+    private static long matches(long word, long pattern) {
+        long x = word ^ pattern;
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+
+    private String decode(int start, int end) {
+        int len = end - start;
+        byte[] bytes;
+        int offset;
+
+        if (array != null) {
+            bytes = array;
+            offset = arrayOffset + start;
+        } else {
+            if (scratch.length < len) {
+                scratch = new byte[Math.max(len, scratch.length * 2)];
+            }
+
+            bb.position(start);
+            bb.get(scratch, 0, len);
+
+            bytes = scratch;
+            offset = 0;
+        }
+
+        // keys, class names and short values repeat a lot, long values are
+        // mostly unique
+        if (len <= MAX_POOLED_LENGTH) {
+            return pool.get(bytes, offset, len);
+        } else {
+            return new String(bytes, offset, len, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Returns the buffer position behind the last read byte.
+     *
+     * @return current position
+     */
+    public int position() {
+        return pos;
+    }
+
+    public boolean isAllowEscSeq() {
+        return allowEsc;
+    }
+
+    public void setAllowEscSeq(boolean allowEsc) {
+        this.allowEsc = allowEsc;
+    }
+}
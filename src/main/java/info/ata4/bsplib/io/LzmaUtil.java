@@ -12,17 +12,21 @@ package info.ata4.bsplib.io;
 
 import info.ata4.bsplib.util.StringMacroUtils;
 import info.ata4.io.buffer.ByteBufferInputStream;
+import info.ata4.io.buffer.ByteBufferOutputStream;
 import info.ata4.log.LogUtils;
 import org.apache.commons.io.IOUtils;
 import org.tukaani.xz.LZMA2Options;
 import org.tukaani.xz.LZMAInputStream;
 import org.tukaani.xz.LZMAOutputStream;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,10 +42,28 @@ public class LzmaUtil {
     public final static int LZMA_ID = StringMacroUtils.makeID("LZMA");
     public final static int HEADER_SIZE = 17;
 
+    // largest array size that is supported by all JVMs
+    private final static int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
     private LzmaUtil() {
     }
 
     public static ByteBuffer uncompress(ByteBuffer buffer) throws IOException {
+        return uncompress(buffer, false);
+    }
+
+    /**
+     * Uncompresses an LZMA compressed buffer. The output buffer is allocated
+     * once with the uncompressed size from the header and the data is
+     * decoded straight into it.
+     *
+     * @param buffer compressed buffer
+     * @param direct if true, allocate a direct output buffer
+     * @return uncompressed buffer with the byte order of the input buffer
+     * @throws IOException if the buffer is not compressed or the LZMA data
+     *                     is invalid
+     */
+    public static ByteBuffer uncompress(ByteBuffer buffer, boolean direct) throws IOException {
         ByteOrder bo = buffer.order();
         ByteBuffer bbc = buffer.duplicate();
         bbc.order(ByteOrder.LITTLE_ENDIAN);
@@ -68,49 +90,127 @@ public class LzmaUtil {
                     new Object[]{lzmaSizeBuf, lzmaSize});
         }
 
-        try (LZMAInputStream lzmaIn = new LZMAInputStream(new ByteBufferInputStream(bbc), actualSize, probByte, dictSize)) {
-            return ByteBuffer.wrap(IOUtils.toByteArray(lzmaIn)).order(bo);
+        if (actualSize < 0) {
+            throw new IOException("Invalid uncompressed size " + actualSize);
+        }
+
+        ByteBuffer bbu = direct ? ByteBuffer.allocateDirect(actualSize) : ByteBuffer.allocate(actualSize);
+
+        // the decoder caps its dictionary at the uncompressed size, so small
+        // lumps don't allocate the full dictionary
+        try (LZMAInputStream lzmaIn = new LZMAInputStream(new ByteBufferInputStream(bbc), actualSize,
+                probByte, dictSize)) {
+            if (bbu.hasArray()) {
+                IOUtils.readFully(lzmaIn, bbu.array(), bbu.arrayOffset(), actualSize);
+            } else {
+                ReadableByteChannel lzmaChannel = Channels.newChannel(lzmaIn);
+                while (bbu.hasRemaining()) {
+                    if (lzmaChannel.read(bbu) < 0) {
+                        throw new EOFException("LZMA data ended after " + bbu.position() + " of " + actualSize + " bytes");
+                    }
+                }
+            }
         }
+
+        bbu.clear();
+        return bbu.order(bo);
     }
 
     public static ByteBuffer compress(ByteBuffer buffer) throws IOException {
+        return compress(buffer, new LZMA2Options());
+    }
+
+    /**
+     * Compresses a buffer with the preset and dictionary size of the given
+     * options. The LZMA data is encoded straight into an output buffer that
+     * is sized for the worst case of the input. If the compressed data takes
+     * less than half of that buffer, it's copied into a buffer of its exact
+     * size, so the worst case buffer isn't kept alive by the result.
+     *
+     * @param buffer uncompressed buffer
+     * @param options encoder options
+     * @return compressed buffer with the byte order of the input buffer
+     * @throws IOException on encoder errors or if the compressed data doesn't
+     *                     fit into a buffer
+     */
+    public static ByteBuffer compress(ByteBuffer buffer, LZMA2Options options) throws IOException {
         ByteOrder bo = buffer.order();
         ByteBuffer bbu = buffer.duplicate();
         bbu.rewind();
 
-        LZMA2Options options = new LZMA2Options();
-        byte[] lzma;
-        int props;
-        try (
-                InputStream bufferIn = new ByteBufferInputStream(bbu);
-                ByteArrayOutputStream arrayOut = new ByteArrayOutputStream();
-                LZMAOutputStream lzmaOut = new LZMAOutputStream(arrayOut, options, false)
-        ) {
-            IOUtils.copy(bufferIn, lzmaOut);
-            lzma = arrayOut.toByteArray();
-            props = lzmaOut.getProps();
+        int size = bbu.remaining();
+
+        // incompressible data costs about nine bits per byte, computed in
+        // long since the result exceeds the int range for lumps near 2 GB
+        long capacity = Math.min(HEADER_SIZE + size + size / 8L + 1024, MAX_BUFFER_SIZE);
+        ByteBuffer bbc;
+
+        while (true) {
+            bbc = ByteBuffer.allocate((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+            bbc.position(HEADER_SIZE);
+
+            try {
+                int props = encode(bbu.duplicate(), bbc, options);
+
+                // write header
+                bbc.putInt(0, LZMA_ID);
+                bbc.putInt(4, size);
+                bbc.putInt(8, bbc.position() - HEADER_SIZE);
+                bbc.put(12, (byte) props);
+                bbc.putInt(13, options.getDictSize());
+                break;
+            } catch (BufferOverflowException ex) {
+                // very unlikely, but not impossible for random data
+                if (capacity == MAX_BUFFER_SIZE) {
+                    throw new IOException("Compressed data of " + size + " bytes exceeds the maximum buffer size");
+                }
+
+                capacity = Math.min(capacity + capacity / 2, MAX_BUFFER_SIZE);
+            }
         }
 
-        int size = HEADER_SIZE + lzma.length;
+        bbc.flip();
 
-        ByteBuffer bbc = ByteBuffer.allocateDirect(size);
-        bbc.order(ByteOrder.LITTLE_ENDIAN);
+        if (bbc.limit() < bbc.capacity() / 2) {
+            ByteBuffer bbt = ByteBuffer.allocate(bbc.limit());
+            bbt.put(bbc);
+            bbt.flip();
+            return bbt.order(bo);
+        }
 
-        // write header
-        bbc.putInt(LZMA_ID);
-        bbc.putInt(bbu.limit());
-        bbc.putInt(lzma.length);
-        bbc.put((byte) props);
-        bbc.putInt(options.getDictSize());
+        return bbc.slice().order(bo);
+    }
 
-        // write lzma data
-        bbc.put(lzma);
+    private static int encode(ByteBuffer in, ByteBuffer out, LZMA2Options options) throws IOException {
+        try (LZMAOutputStream lzmaOut = new LZMAOutputStream(new ByteBufferOutputStream(out), options, false)) {
+            if (in.hasArray()) {
+                lzmaOut.write(in.array(), in.arrayOffset() + in.position(), in.remaining());
+            } else {
+                try (InputStream bufferIn = new ByteBufferInputStream(in)) {
+                    IOUtils.copy(bufferIn, lzmaOut);
+                }
+            }
+
+            // flush the encoder before the output is used
+            lzmaOut.finish();
+            return lzmaOut.getProps();
+        }
+    }
 
-        // reset buffer
-        bbc.order(bo);
-        bbc.rewind();
+    /**
+     * Returns the uncompressed size that is stored in the header of a
+     * compressed buffer.
+     *
+     * @param buffer compressed buffer
+     * @return uncompressed size in bytes
+     * @throws IOException if the buffer is not compressed
+     */
+    public static int getUncompressedSize(ByteBuffer buffer) throws IOException {
+        if (!isCompressed(buffer)) {
+            throw new IOException("Buffer is not compressed");
+        }
 
-        return bbc;
+        return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(4);
     }
 
     public static boolean isCompressed(ByteBuffer buffer) {
@@ -0,0 +1,96 @@
+package info.ata4.bsplib.io;
+
+import info.ata4.log.LogUtils;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Releases memory-mapped buffers without waiting for the garbage collector.
+ * <p>
+ * The JDK has no public API for this, so the cleaner of the buffer is invoked
+ * through {@code sun.misc.Unsafe} on Java 9 and later or through
+ * {@code sun.nio.ch.DirectBuffer} on Java 8. If neither is accessible, the
+ * mapping is left to the garbage collector.
+ * <p>
+ * An unmapped buffer and all of its slices and duplicates must never be
+ * accessed again, since that crashes the JVM.
+ */
+public class MappedBufferUtil {
+
+    private static final Logger L = LogUtils.getLogger();
+
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    private MappedBufferUtil() {
+    }
+
+    /**
+     * Returns true if buffers can be unmapped explicitly on this JVM.
+     *
+     * @return true if unmapping is supported
+     */
+    public static boolean isSupported() {
+        return UNMAPPER != null;
+    }
+
+    /**
+     * Unmaps a buffer that was returned by {@code FileChannel.map}. Heap
+     * buffers, slices and duplicates are ignored.
+     *
+     * @param bb mapped buffer
+     * @return true if the buffer has been unmapped
+     */
+    public static boolean unmap(ByteBuffer bb) {
+        if (UNMAPPER == null || !(bb instanceof MappedByteBuffer)) {
+            return false;
+        }
+
+        try {
+            UNMAPPER.unmap(bb);
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            L.log(Level.FINE, "Couldn't unmap buffer", ex);
+            return false;
+        }
+    }
+
+    private static Unmapper createUnmapper() {
+        // Java 9 and later
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+
+            return bb -> invokeCleaner.invoke(unsafe, bb);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // try the Java 8 way
+        }
+
+        // Java 8
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+
+            return bb -> {
+                Object c = cleaner.invoke(bb);
+                if (c != null) {
+                    clean.invoke(c);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            L.log(Level.FINE, "Unmapping of buffers isn't supported", ex);
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Unmapper {
+        void unmap(ByteBuffer bb) throws ReflectiveOperationException;
+    }
+}
@@ -0,0 +1,111 @@
+package info.ata4.bsplib.io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Symbol table that decodes ISO-8859-1 byte sequences to strings and returns
+ * the same String instance for equal byte sequences. Used per map while
+ * parsing the entity lump, where the same keys, class names and short values
+ * repeat across thousands of entities.
+ * <p>
+ * The hash of a byte sequence equals {@link String#hashCode()} of the decoded
+ * string, so strings don't need to be created to look them up.
+ */
+class StringPool {
+
+    // stop adding strings at this point, lookups still work
+    private static final int MAX_SIZE = 1 << 16;
+
+    private String[] table = new String[1024];
+
+    // hashes of the strings in the table, so that probing doesn't need to
+    // touch the strings themselves
+    private int[] hashes = new int[1024];
+    private int size;
+
+    /**
+     * Returns the string for a byte sequence, decoding it only if it isn't
+     * in the pool yet.
+     *
+     * @param bytes byte array
+     * @param offset offset of the sequence
+     * @param len length of the sequence
+     * @return pooled or new string
+     */
+    String get(byte[] bytes, int offset, int len) {
+        int hash = 0;
+        for (int i = 0; i < len; i++) {
+            hash = 31 * hash + (bytes[offset + i] & 0xff);
+        }
+
+        int mask = table.length - 1;
+
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            String s = table[i];
+
+            if (s == null) {
+                s = new String(bytes, offset, len, StandardCharsets.ISO_8859_1);
+
+                if (size < MAX_SIZE) {
+                    table[i] = s;
+                    hashes[i] = hash;
+
+                    // keep the load factor at or below 0.5
+                    if (++size << 1 > table.length) {
+                        rehash();
+                    }
+                }
+
+                return s;
+            }
+
+            if (hashes[i] == hash && equals(s, bytes, offset, len)) {
+                return s;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static boolean equals(String s, byte[] bytes, int offset, int len) {
+        if (s.length() != len) {
+            return false;
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != (bytes[offset + i] & 0xff)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void rehash() {
+        String[] oldTable = table;
+        int[] oldHashes = hashes;
+        table = new String[oldTable.length << 1];
+        hashes = new int[oldTable.length << 1];
+        int mask = table.length - 1;
+
+        for (int j = 0; j < oldTable.length; j++) {
+            if (oldTable[j] == null) {
+                continue;
+            }
+
+            int i = spread(oldHashes[j]) & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+
+            table[i] = oldTable[j];
+            hashes[i] = oldHashes[j];
+        }
+    }
+}
@@ -14,6 +14,7 @@ import info.ata4.bsplib.io.LzmaUtil;
 import info.ata4.io.buffer.ByteBufferInputStream;
 import info.ata4.io.buffer.ByteBufferOutputStream;
 import info.ata4.log.LogUtils;
+import org.tukaani.xz.LZMA2Options;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -35,6 +36,7 @@ public abstract class AbstractLump {
     private int version = 0;
     private int fourCC = 0;
     private boolean compressed = false;
+    private boolean closed = false;
 
     public int getOffset() {
         return offset;
@@ -51,19 +53,28 @@ public abstract class AbstractLump {
      * @return lump length
      */
     public int getLength() {
-        return buffer.limit();
+        return getBuffer().limit();
     }
 
     /**
      * Returns the buffer for this lump.
      * 
      * @return byte buffer of this lump
+     * @throws IllegalStateException if the lump has been closed
      */
     public ByteBuffer getBuffer() {
+        if (closed) {
+            throw new IllegalStateException("Lump " + getName() + " is closed");
+        }
+
         return buffer;
     }
 
     public void setBuffer(ByteBuffer buf) {
+        if (closed) {
+            throw new IllegalStateException("Lump " + getName() + " is closed");
+        }
+
         buffer = buf;
         buffer.rewind();
         setCompressed(LzmaUtil.isCompressed(buffer));
@@ -102,17 +113,26 @@ public abstract class AbstractLump {
     }
 
     public void compress() {
+        compress(new LZMA2Options());
+    }
+
+    /**
+     * Compresses this lump with the given encoder options. The lump stays
+     * uncompressed if the compression fails.
+     *
+     * @param options encoder options
+     */
+    public void compress(LZMA2Options options) {
         if (compressed) {
             return;
         }
 
         try {
-            buffer = LzmaUtil.compress(buffer);
+            buffer = LzmaUtil.compress(getBuffer(), options);
+            setCompressed(true);
         } catch (IOException ex) {
             L.log(Level.SEVERE, "Couldn't compress lump " + this, ex);
         }
-
-        setCompressed(true);
     }
 
     public void uncompress() {
@@ -121,7 +141,7 @@ public abstract class AbstractLump {
         }
 
         try {
-            buffer = LzmaUtil.uncompress(buffer);
+            buffer = LzmaUtil.uncompress(getBuffer());
         } catch (IOException ex) {
             L.log(Level.SEVERE, "Couldn't uncompress lump " + this, ex);
         }
@@ -129,6 +149,20 @@ public abstract class AbstractLump {
         setCompressed(false);
     }
 
+    /**
+     * Drops the buffer of this lump. Called when the file the buffer was
+     * mapped from is closed, so that further access fails with an
+     * {@link IllegalStateException} instead of reading unmapped memory.
+     */
+    public void close() {
+        closed = true;
+        buffer = null;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
     protected void setCompressed(boolean compressed) {
         this.compressed = compressed;
     }
@@ -0,0 +1,63 @@
+package info.ata4.bsplib.lump;
+
+/**
+ * Result of compressing a single lump or game lump.
+ */
+public class LumpCompression {
+
+    private final String name;
+    private final int uncompressedSize;
+    private final int compressedSize;
+    private final long nanos;
+    private final boolean compressed;
+
+    public LumpCompression(String name, int uncompressedSize, int compressedSize, long nanos,
+            boolean compressed) {
+        this.name = name;
+        this.uncompressedSize = uncompressedSize;
+        this.compressedSize = compressedSize;
+        this.nanos = nanos;
+        this.compressed = compressed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    public int getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * Returns the number of bytes saved by the compression, which is
+     * negative if the compressed lump is bigger.
+     */
+    public int getSavedSize() {
+        return uncompressedSize - compressedSize;
+    }
+
+    /**
+     * Returns the CPU time spent compressing the lump, or the elapsed time
+     * if the JVM doesn't measure thread CPU time.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns false if the compression failed and the lump was left
+     * uncompressed.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    @Override
+    public String toString() {
+        return "LumpCompression[" + name + ": " + uncompressedSize + " -> " + compressedSize + "]";
+    }
+}
@@ -11,6 +11,7 @@
 package info.ata4.bsplib.lump;
 
 import info.ata4.bsplib.BspFile;
+import info.ata4.bsplib.io.MappedBufferUtil;
 import info.ata4.io.buffer.ByteBufferUtils;
 import info.ata4.log.LogUtils;
 import java.io.IOException;
@@ -21,11 +22,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Low-level LMP file class for header and lump data access.
+ * Low-level LMP file class for header and lump data access. Loaded files
+ * are memory-mapped until the lump file is closed.
  *
  * @author Nico Bergemann <barracuda415 at yahoo.de>
  */
-public class LumpFile {
+public class LumpFile implements AutoCloseable {
 
     private static final Logger L = LogUtils.getLogger();
 
@@ -43,6 +45,10 @@ public class LumpFile {
     // fields from lumpfileheader_t
     private int mapRev;
 
+    // mapped .lmp file, released on close
+    private ByteBuffer mappedBuffer;
+    private boolean closed;
+
     public LumpFile(BspFile bsp) {
         this(bsp.getVersion());
         mapRev = bsp.getRevision();
@@ -53,6 +59,11 @@ public class LumpFile {
     }
 
     public void load(Path file, ByteOrder bo) throws IOException {
+        ensureOpen();
+
+        // release a previously loaded file
+        release();
+
         this.file = file;
 
         L.log(Level.FINE, "Loading lump header from {0}", file.getFileName());
@@ -60,6 +71,17 @@ public class LumpFile {
         ByteBuffer bb = ByteBufferUtils.openReadOnly(file);
         bb.order(bo);
 
+        try {
+            loadLump(bb);
+        } catch (IOException | RuntimeException ex) {
+            MappedBufferUtil.unmap(bb);
+            throw ex;
+        }
+
+        mappedBuffer = bb;
+    }
+
+    private void loadLump(ByteBuffer bb) throws IOException {
         // make sure we have enough room for reading
         if (bb.capacity() < HEADER_SIZE) {
             throw new LumpException("Invalid or missing lump header");
@@ -102,6 +124,8 @@ public class LumpFile {
     }
 
     public void save(Path file) throws IOException {
+        ensureOpen();
+
         if (lump == null) {
             throw new NullPointerException("Lump is undefined");
         }
@@ -125,9 +149,51 @@ public class LumpFile {
 
         // lump data
         bb.put(lump.getBuffer());
+
+        // don't keep the output file mapped until the next GC
+        MappedBufferUtil.unmap(bb);
+    }
+
+    /**
+     * Closes the lump loaded from the file and unmaps the file. Calling this
+     * method more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        release();
+    }
+
+    private void release() {
+        if (mappedBuffer == null) {
+            return;
+        }
+
+        if (lump != null) {
+            lump.close();
+            lump = null;
+        }
+
+        MappedBufferUtil.unmap(mappedBuffer);
+        mappedBuffer = null;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Lump file " + file + " is closed");
+        }
     }
 
     public Lump getLump() {
+        ensureOpen();
         return lump;
     }
 
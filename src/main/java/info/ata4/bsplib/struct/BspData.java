@@ -11,9 +11,12 @@
 package info.ata4.bsplib.struct;
 
 import info.ata4.bsplib.entity.Entity;
+import info.ata4.bsplib.entity.EntityIndex;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Data structure of the BSP file and their lumps.
@@ -35,7 +38,7 @@ public class BspData {
     public List<DDispTri> disptris;
     public List<DDispVert> dispverts;
     public List<DDispMultiBlend> dispmultiblend;
-    public List<? extends DEdge> edges;
+    public EdgeLump edges;
     public List<? extends DFace> faces;
     public List<? extends DFace> hdrFaces;
     public List<? extends DFace> origFaces;
@@ -47,23 +50,28 @@ public class BspData {
     public List<? extends DOverlay> overlays;
     public List<DOverlayFade> overlayFades;
     public List<DOverlaySystemLevel> overlaySysLevels;
-    public List<DPlane> planes;
+    public PlaneLump planes;
     public List<DPrimitive> prims;
-    public List<Integer> primIndices;
+    public IntLump primIndices;
     public List<DVertex> primVerts;
     public List<? extends DStaticProp> staticProps;
     public List<DTexData> texdatas;
     public List<? extends DTexInfo> texinfos;
     public List<DVertex> clipPortalVerts;
-    public List<DVertex> verts;
+    public VertexLump verts;
     public List<Entity> entities;
-    public List<Integer> leafBrushes;
-    public List<Integer> leafFaces;
-    public List<Integer> occluderVerts;
-    public List<Integer> surfEdges;
+    public EntityIndex entityIndex;
+    public IntLump leafBrushes;
+    public IntLump leafFaces;
+    public IntLump occluderVerts;
+    public IntLump surfEdges;
     public List<String> staticPropName;
-    public List<Integer> staticPropLeaf;
+    public IntLump staticPropLeaf;
     public List<String> texnames;
     public Set<LevelFlag> mapFlags;
 
+    // caches of data derived from the lumps, like windings, keyed by the
+    // class of the cache, so they live and die with the data of this map
+    public Map<Class<?>, Object> caches = new ConcurrentHashMap<>();
+
 }
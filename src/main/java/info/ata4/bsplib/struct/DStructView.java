@@ -0,0 +1,155 @@
+package info.ata4.bsplib.struct;
+
+import info.ata4.io.DataReader;
+import info.ata4.io.DataReaders;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Supplier;
+
+/**
+ * Read-only list view over the buffer of a struct lump that decodes the
+ * structs on demand from their offset in the buffer, so the lump costs no
+ * heap until an element is touched.
+ * <p>
+ * {@link #get(int)} returns a new struct on each call. For scans over large
+ * lumps, {@link #read(int, DStruct)} or a {@link Cursor} decode into an
+ * existing struct instead. Instances share a reader position and are not
+ * thread-safe, use {@link #copy()} to get a view for another thread.
+ *
+ * @param <E> struct type
+ */
+public class DStructView<E extends DStruct> extends AbstractList<E> implements RandomAccess {
+
+    private final ByteBuffer buffer;
+    private final Supplier<E> dStructSupplier;
+    private final int packetSize;
+    private final int size;
+    private final DataReader in;
+
+    /**
+     * Creates a view over the remaining bytes of the buffer. The buffer
+     * itself isn't modified.
+     *
+     * @param buffer lump buffer
+     * @param dStructSupplier supplier for the struct type
+     */
+    public DStructView(ByteBuffer buffer, Supplier<E> dStructSupplier) {
+        this.buffer = buffer.slice().order(buffer.order());
+        this.dStructSupplier = Objects.requireNonNull(dStructSupplier);
+        this.packetSize = dStructSupplier.get().getSize();
+        this.size = this.buffer.capacity() / packetSize;
+        this.in = DataReaders.forByteBuffer(this.buffer.duplicate().order(buffer.order()));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    /**
+     * Decodes the struct at the given index into a new instance.
+     *
+     * @param index struct index
+     * @return decoded struct
+     * @throws IndexOutOfBoundsException if the index is out of range
+     * @throws UncheckedIOException if the struct couldn't be decoded
+     */
+    @Override
+    public E get(int index) {
+        return read(index, dStructSupplier.get());
+    }
+
+    /**
+     * Decodes the struct at the given index into an existing instance,
+     * overwriting all of its fields.
+     *
+     * @param index struct index
+     * @param dStruct struct to decode into
+     * @return the given struct
+     * @throws IndexOutOfBoundsException if the index is out of range
+     * @throws UncheckedIOException if the struct couldn't be decoded
+     */
+    public E read(int index, E dStruct) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        try {
+            long pos = (long) index * packetSize;
+            in.position(pos);
+            dStruct.read(in);
+
+            if (in.position() - pos != packetSize) {
+                throw new IOException(String.format("DStruct bytes read: %d; expected: %d",
+                        in.position() - pos, packetSize));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return dStruct;
+    }
+
+    /**
+     * Returns a cursor that decodes all structs into one shared instance.
+     *
+     * @return new cursor positioned before the first struct
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Returns a new view over the same buffer with its own reader position.
+     *
+     * @return view copy
+     */
+    public DStructView<E> copy() {
+        return new DStructView<>(buffer, dStructSupplier);
+    }
+
+    /**
+     * Flyweight cursor over the view. The struct returned by {@link #get()}
+     * is reused and changes with every move of the cursor.
+     */
+    public class Cursor {
+
+        private final E dStruct = dStructSupplier.get();
+        private int index = -1;
+
+        public boolean next() {
+            if (index + 1 >= size) {
+                return false;
+            }
+
+            moveTo(index + 1);
+            return true;
+        }
+
+        public E moveTo(int index) {
+            read(index, dStruct);
+            this.index = index;
+            return dStruct;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public E get() {
+            if (index < 0) {
+                throw new IllegalStateException("Cursor isn't positioned on a struct");
+            }
+            return dStruct;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package info.ata4.bsplib.struct;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Edge lump stored as two arrays of vertex indices. A list of {@link DEdge}
+ * objects is only created on request for code that still needs them.
+ */
+public final class EdgeLump {
+
+    public static final EdgeLump EMPTY = new EdgeLump(0);
+
+    private final int[] edgeV0;
+    private final int[] edgeV1;
+    private List<DEdge> list;
+
+    /**
+     * Creates a lump with zeroed edges, to be filled with {@link #set}.
+     *
+     * @param size number of edges
+     */
+    public EdgeLump(int size) {
+        edgeV0 = new int[size];
+        edgeV1 = new int[size];
+    }
+
+    public void set(int index, int v0, int v1) {
+        edgeV0[index] = v0;
+        edgeV1[index] = v1;
+    }
+
+    public int size() {
+        return edgeV0.length;
+    }
+
+    public boolean isEmpty() {
+        return edgeV0.length == 0;
+    }
+
+    /**
+     * Returns the index of the first vertex of an edge.
+     *
+     * @param index edge index
+     * @return vertex index
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public int getV0(int index) {
+        return edgeV0[index];
+    }
+
+    /**
+     * Returns the index of the second vertex of an edge.
+     *
+     * @param index edge index
+     * @return vertex index
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public int getV1(int index) {
+        return edgeV1[index];
+    }
+
+    /**
+     * Returns the edges as list of structs, which is created on the first
+     * call.
+     *
+     * @return unmodifiable list of edges
+     */
+    public synchronized List<DEdge> asList() {
+        if (list == null) {
+            List<DEdge> edges = new ArrayList<>(size());
+
+            for (int i = 0; i < size(); i++) {
+                DEdge edge = new DEdge();
+                edge.v[0] = edgeV0[i];
+                edge.v[1] = edgeV1[i];
+                edges.add(edge);
+            }
+
+            list = Collections.unmodifiableList(edges);
+        }
+
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return "EdgeLump[" + size() + "]";
+    }
+}
@@ -0,0 +1,65 @@
+package info.ata4.bsplib.struct;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only container for lumps of plain integer indices, like surface edges
+ * or leaf faces, that keeps the values in a primitive array instead of
+ * boxing every element.
+ */
+public final class IntLump {
+
+    public static final IntLump EMPTY = new IntLump(new int[0]);
+
+    private final int[] values;
+
+    /**
+     * Creates a lump that takes ownership of the given array.
+     *
+     * @param values lump values
+     */
+    public IntLump(int[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Returns the value at the given index.
+     *
+     * @param index element index
+     * @return value at the index
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public int get(int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + values.length);
+        }
+        return values[index];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    public IntStream stream() {
+        return Arrays.stream(values);
+    }
+
+    /**
+     * Returns a copy of the values.
+     *
+     * @return new array with all values
+     */
+    public int[] toArray() {
+        return values.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "IntLump[" + values.length + "]";
+    }
+}
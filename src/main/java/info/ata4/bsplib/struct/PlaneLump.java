@@ -0,0 +1,112 @@
+package info.ata4.bsplib.struct;
+
+import info.ata4.bsplib.vector.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plane lump stored as arrays of normal components, distances and types.
+ * A list of {@link DPlane} objects is only created on request for code that
+ * still needs them.
+ */
+public final class PlaneLump {
+
+    public static final PlaneLump EMPTY = new PlaneLump(0);
+
+    private final float[] planeNormalX;
+    private final float[] planeNormalY;
+    private final float[] planeNormalZ;
+    private final float[] planeDist;
+    private final int[] planeType;
+    private List<DPlane> list;
+
+    /**
+     * Creates a lump with zeroed planes, to be filled with {@link #set}.
+     *
+     * @param size number of planes
+     */
+    public PlaneLump(int size) {
+        planeNormalX = new float[size];
+        planeNormalY = new float[size];
+        planeNormalZ = new float[size];
+        planeDist = new float[size];
+        planeType = new int[size];
+    }
+
+    public static PlaneLump of(List<DPlane> planes) {
+        PlaneLump lump = new PlaneLump(planes.size());
+
+        for (int i = 0; i < planes.size(); i++) {
+            DPlane plane = planes.get(i);
+            lump.set(i, plane.normal.x, plane.normal.y, plane.normal.z, plane.dist, plane.type);
+        }
+
+        return lump;
+    }
+
+    public void set(int index, float nx, float ny, float nz, float dist, int type) {
+        planeNormalX[index] = nx;
+        planeNormalY[index] = ny;
+        planeNormalZ[index] = nz;
+        planeDist[index] = dist;
+        planeType[index] = type;
+    }
+
+    public int size() {
+        return planeDist.length;
+    }
+
+    public boolean isEmpty() {
+        return planeDist.length == 0;
+    }
+
+    /**
+     * Returns the normal of the plane at the given index as a new vector.
+     *
+     * @param index plane index
+     * @return plane normal
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public Vector3f getNormal(int index) {
+        return new Vector3f(planeNormalX[index], planeNormalY[index], planeNormalZ[index]);
+    }
+
+    public float getDist(int index) {
+        return planeDist[index];
+    }
+
+    public int getType(int index) {
+        return planeType[index];
+    }
+
+    /**
+     * Returns the planes as list of structs, which is created on the first
+     * call.
+     *
+     * @return unmodifiable list of planes
+     */
+    public synchronized List<DPlane> asList() {
+        if (list == null) {
+            List<DPlane> planes = new ArrayList<>(size());
+
+            for (int i = 0; i < size(); i++) {
+                DPlane plane = new DPlane();
+                plane.normal = getNormal(i);
+                plane.dist = planeDist[i];
+                plane.type = planeType[i];
+                planes.add(plane);
+            }
+
+            list = Collections.unmodifiableList(planes);
+        }
+
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaneLump[" + size() + "]";
+    }
+}
@@ -0,0 +1,108 @@
+package info.ata4.bsplib.struct;
+
+import info.ata4.bsplib.vector.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Vertex lump stored as one coordinate array per axis. The geometry code
+ * reads the coordinates directly, a list of {@link DVertex} objects is only
+ * created on request for code that still needs them.
+ */
+public final class VertexLump {
+
+    public static final VertexLump EMPTY = new VertexLump(0);
+
+    private final float[] vx;
+    private final float[] vy;
+    private final float[] vz;
+    private List<DVertex> list;
+
+    /**
+     * Creates a lump with zeroed vertices, to be filled with {@link #set}.
+     *
+     * @param size number of vertices
+     */
+    public VertexLump(int size) {
+        vx = new float[size];
+        vy = new float[size];
+        vz = new float[size];
+    }
+
+    public static VertexLump of(List<DVertex> verts) {
+        VertexLump lump = new VertexLump(verts.size());
+
+        for (int i = 0; i < verts.size(); i++) {
+            Vector3f point = verts.get(i).point;
+            lump.set(i, point.x, point.y, point.z);
+        }
+
+        return lump;
+    }
+
+    public void set(int index, float x, float y, float z) {
+        vx[index] = x;
+        vy[index] = y;
+        vz[index] = z;
+    }
+
+    public int size() {
+        return vx.length;
+    }
+
+    public boolean isEmpty() {
+        return vx.length == 0;
+    }
+
+    public float getX(int index) {
+        return vx[index];
+    }
+
+    public float getY(int index) {
+        return vy[index];
+    }
+
+    public float getZ(int index) {
+        return vz[index];
+    }
+
+    /**
+     * Returns the vertex at the given index as a new vector.
+     *
+     * @param index vertex index
+     * @return vertex position
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public Vector3f getPoint(int index) {
+        return new Vector3f(vx[index], vy[index], vz[index]);
+    }
+
+    /**
+     * Returns the vertices as list of structs, which is created on the first
+     * call.
+     *
+     * @return unmodifiable list of vertices
+     */
+    public synchronized List<DVertex> asList() {
+        if (list == null) {
+            List<DVertex> verts = new ArrayList<>(size());
+
+            for (int i = 0; i < size(); i++) {
+                DVertex vert = new DVertex();
+                vert.point = getPoint(i);
+                verts.add(vert);
+            }
+
+            list = Collections.unmodifiableList(verts);
+        }
+
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return "VertexLump[" + size() + "]";
+    }
+}
@@ -0,0 +1,325 @@
+package info.ata4.bsplib.util;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects wall time and object counts of the phases that a map goes through
+ * while it is loaded and decompiled.
+ *
+ * Code that wants to be measured calls {@link #time(String)}, which records
+ * into the metrics that are attached to the current thread. If there are none,
+ * nothing is recorded, so instrumented code costs next to nothing when
+ * metrics are disabled.
+ * <pre>
+ * try (Metrics.Timer timer = Metrics.time("writeBrushes")) {
+ *     ...
+ *     timer.addObjects(brushes);
+ * }
+ * </pre>
+ */
+public class Metrics {
+
+    private static final ThreadLocal<Metrics> CURRENT = new ThreadLocal<>();
+
+    private static final Timer NO_TIMER = new Timer(null, null);
+
+    private final String name;
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    public Metrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the metrics that are attached to the current thread.
+     *
+     * @return current metrics or null if metrics are disabled
+     */
+    public static Metrics current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Starts measuring a phase in the current metrics.
+     *
+     * @param phase phase name
+     * @return timer that stops measuring when closed
+     */
+    public static Timer time(String phase) {
+        Metrics metrics = CURRENT.get();
+        if (metrics == null) {
+            return NO_TIMER;
+        }
+
+        return new Timer(metrics, phase);
+    }
+
+    /**
+     * Adds a value to a counter of the current metrics.
+     *
+     * @param counter counter name
+     * @param value value to add
+     */
+    public static void count(String counter, long value) {
+        Metrics metrics = CURRENT.get();
+        if (metrics != null) {
+            metrics.addCount(counter, value);
+        }
+    }
+
+    /**
+     * Attaches these metrics to the current thread until the returned scope
+     * is closed.
+     *
+     * @return scope that restores the previous metrics of this thread
+     */
+    public Scope attach() {
+        Metrics previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    public synchronized void addTime(String phase, long nanos, long objects) {
+        Phase p = phases.computeIfAbsent(phase, key -> new Phase());
+        p.nanos += nanos;
+        p.objects += objects;
+        p.calls++;
+    }
+
+    public synchronized void addCount(String counter, long value) {
+        counters.merge(counter, value, Long::sum);
+    }
+
+    /**
+     * Adds all phases and counters of another metrics object to this one.
+     *
+     * @param other metrics to add
+     */
+    public void add(Metrics other) {
+        Map<String, Phase> otherPhases;
+        Map<String, Long> otherCounters;
+
+        synchronized (other) {
+            otherPhases = new LinkedHashMap<>();
+            other.phases.forEach((key, value) -> otherPhases.put(key, value.copy()));
+            otherCounters = new LinkedHashMap<>(other.counters);
+        }
+
+        synchronized (this) {
+            otherPhases.forEach((key, value) -> {
+                Phase p = phases.computeIfAbsent(key, k -> new Phase());
+                p.nanos += value.nanos;
+                p.objects += value.objects;
+                p.calls += value.calls;
+            });
+            otherCounters.forEach((key, value) -> counters.merge(key, value, Long::sum));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns a snapshot of all measured phases in the order they were first
+     * measured.
+     */
+    public synchronized Map<String, Phase> getPhases() {
+        Map<String, Phase> copy = new LinkedHashMap<>();
+        phases.forEach((key, value) -> copy.put(key, value.copy()));
+        return copy;
+    }
+
+    /**
+     * Returns a snapshot of all counters.
+     */
+    public synchronized Map<String, Long> getCounters() {
+        return new LinkedHashMap<>(counters);
+    }
+
+    /**
+     * Writes these metrics as JSON object.
+     *
+     * @param out output
+     * @param indent indentation of the object
+     */
+    public void writeJson(Appendable out, String indent) throws IOException {
+        String indent2 = indent + "  ";
+        String indent3 = indent2 + "  ";
+
+        out.append("{\n");
+        out.append(indent2).append("\"name\": ").append(quote(name)).append(",\n");
+
+        out.append(indent2).append("\"phases\": {");
+        String sep = "\n";
+        for (Map.Entry<String, Phase> entry : getPhases().entrySet()) {
+            Phase phase = entry.getValue();
+            out.append(sep).append(indent3).append(quote(entry.getKey())).append(": ")
+                    .append(String.format(Locale.ROOT,
+                            "{\"millis\": %.3f, \"calls\": %d, \"objects\": %d}",
+                            phase.getMillis(), phase.getCalls(), phase.getObjects()));
+            sep = ",\n";
+        }
+        out.append("\n").append(indent2).append("},\n");
+
+        out.append(indent2).append("\"counters\": {");
+        sep = "\n";
+        for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+            out.append(sep).append(indent3).append(quote(entry.getKey())).append(": ")
+                    .append(String.valueOf(entry.getValue()));
+            sep = ",\n";
+        }
+        out.append("\n").append(indent2).append("}\n");
+
+        out.append(indent).append("}");
+    }
+
+    /**
+     * Writes a report of several metrics objects and their sum as JSON object.
+     *
+     * @param out output
+     * @param maps metrics of the single maps
+     * @param total sum of all metrics
+     */
+    public static void writeJsonReport(Appendable out, Collection<Metrics> maps, Metrics total) throws IOException {
+        out.append("{\n  \"total\": ");
+        total.writeJson(out, "  ");
+        out.append(",\n  \"maps\": [");
+
+        String sep = "\n    ";
+        for (Metrics metrics : maps) {
+            out.append(sep);
+            metrics.writeJson(out, "    ");
+            sep = ",\n    ";
+        }
+
+        out.append("\n  ]\n}\n");
+    }
+
+    private static String quote(String str) {
+        if (str == null) {
+            return "null";
+        }
+
+        StringBuilder sb = new StringBuilder(str.length() + 2);
+        sb.append('"');
+
+        for (char c : str.toCharArray()) {
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+
+        sb.append('"');
+        return sb.toString();
+    }
+
+    /**
+     * Accumulated values of a single phase.
+     */
+    public static class Phase {
+
+        private long nanos;
+        private long calls;
+        private long objects;
+
+        private Phase copy() {
+            Phase copy = new Phase();
+            copy.nanos = nanos;
+            copy.calls = calls;
+            copy.objects = objects;
+            return copy;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getMillis() {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getObjects() {
+            return objects;
+        }
+    }
+
+    /**
+     * Measures one execution of a phase.
+     */
+    public static class Timer implements AutoCloseable {
+
+        private final Metrics metrics;
+        private final String phase;
+        private final long start;
+        private long objects;
+
+        private Timer(Metrics metrics, String phase) {
+            this.metrics = metrics;
+            this.phase = phase;
+            this.start = metrics != null ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Adds to the number of objects that have been processed in this
+         * phase.
+         *
+         * @param count number of objects
+         */
+        public void addObjects(long count) {
+            if (metrics != null) {
+                objects += count;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (metrics != null) {
+                metrics.addTime(phase, System.nanoTime() - start, objects);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,192 @@
+package info.ata4.bsprepack;
+
+import info.ata4.bsplib.BspFile;
+import info.ata4.bsplib.lump.LumpCompression;
+import info.ata4.log.LogUtils;
+import org.apache.commons.cli.*;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+
+/**
+ * Repacks maps for distribution by compressing all lumps and game lumps with
+ * LZMA, using a selectable preset and dictionary size. Compressed maps are
+ * uncompressed first, so they can be repacked with other options.
+ */
+public class BspRepack {
+
+    private final LZMA2Options options;
+
+    public BspRepack(LZMA2Options options) {
+        this.options = options;
+    }
+
+    /**
+     * Compresses a map and writes it to a new file.
+     *
+     * @param src source map
+     * @param dst destination map, must not be the source map
+     * @return compression report
+     * @throws IOException if the map couldn't be read or written
+     */
+    public Report repack(Path src, Path dst) throws IOException {
+        if (Files.exists(dst) && Files.isSameFile(src, dst)) {
+            throw new IOException("Destination is the source file: " + dst);
+        }
+
+        try (BspFile bspFile = new BspFile()) {
+            bspFile.load(src);
+
+            if (bspFile.isCompressed()) {
+                bspFile.uncompress();
+            }
+
+            long start = System.nanoTime();
+            List<LumpCompression> results = bspFile.compress(options);
+            Report report = new Report(results, System.nanoTime() - start);
+
+            bspFile.save(dst);
+
+            return report;
+        }
+    }
+
+    private static double ratio(long compressed, long size) {
+        return size == 0 ? 100 : compressed * 100.0 / size;
+    }
+
+    static int parseSize(String size) {
+        String s = size.trim().toUpperCase(Locale.ROOT);
+        int scale = 1;
+
+        if (s.endsWith("K")) {
+            scale = 1 << 10;
+        } else if (s.endsWith("M")) {
+            scale = 1 << 20;
+        }
+
+        if (scale != 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+
+        return Math.multiplyExact(Integer.parseInt(s), scale);
+    }
+
+    public static void main(String[] args) {
+        LogUtils.configure(Level.WARNING);
+
+        Options opts = new Options();
+        opts.addOption(Option.builder("o").hasArg().argName("file")
+                .desc("Output BSP file, default <name>_repack.bsp next to the input file.").build());
+        opts.addOption(Option.builder("preset").hasArg().argName("0-9")
+                .desc("LZMA compression preset, default " + LZMA2Options.PRESET_DEFAULT + ".").build());
+        opts.addOption(Option.builder("dict").hasArg().argName("size")
+                .desc("LZMA dictionary size, like 4M or 512K, default depends on the preset.").build());
+
+        CommandLine cl;
+        LZMA2Options options;
+
+        try {
+            cl = new DefaultParser().parse(opts, args);
+
+            if (cl.getArgList().size() != 1) {
+                throw new ParseException("Expected one BSP file");
+            }
+
+            options = new LZMA2Options(Integer.parseInt(cl.getOptionValue("preset",
+                    String.valueOf(LZMA2Options.PRESET_DEFAULT))));
+
+            if (cl.hasOption("dict")) {
+                options.setDictSize(parseSize(cl.getOptionValue("dict")));
+            }
+        } catch (ParseException | UnsupportedOptionsException | NumberFormatException | ArithmeticException ex) {
+            System.err.println(ex.getMessage());
+            new HelpFormatter().printHelp("BspRepack [options] <BSP file>", opts);
+            System.exit(1);
+            return;
+        }
+
+        Path src = Paths.get(cl.getArgList().get(0));
+        Path dst;
+
+        if (cl.hasOption("o")) {
+            dst = Paths.get(cl.getOptionValue("o"));
+        } else {
+            String name = src.getFileName().toString().replaceFirst("(?i)\\.bsp$", "");
+            dst = src.resolveSibling(name + "_repack.bsp");
+        }
+
+        try {
+            new BspRepack(options).repack(src, dst).print(System.out);
+            System.out.println("Saved " + dst);
+        } catch (IOException ex) {
+            System.err.println("Can't repack " + src + ": " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compression results of a repacked map.
+     */
+    public static class Report {
+
+        private final List<LumpCompression> lumps;
+        private final long nanos;
+
+        public Report(List<LumpCompression> lumps, long nanos) {
+            this.lumps = lumps;
+            this.nanos = nanos;
+        }
+
+        public List<LumpCompression> getLumps() {
+            return lumps;
+        }
+
+        /**
+         * Returns the elapsed time of the compression of all lumps.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Prints a table with the size saved and the CPU time spent per lump,
+         * followed by the elapsed time of the whole compression.
+         *
+         * @param out output stream
+         */
+        public void print(PrintStream out) {
+            out.println(String.format("%-28s %12s %12s %12s %7s %9s",
+                    "Lump", "Size", "Compressed", "Saved", "Ratio", "CPU ms"));
+
+            long size = 0;
+            long compressedSize = 0;
+            long lumpNanos = 0;
+
+            for (LumpCompression lump : lumps) {
+                out.println(String.format(Locale.ROOT, "%-28s %12d %12d %12d %6.1f%% %9.1f%s",
+                        lump.getName(), lump.getUncompressedSize(), lump.getCompressedSize(),
+                        lump.getSavedSize(), ratio(lump.getCompressedSize(), lump.getUncompressedSize()),
+                        lump.getNanos() / 1e6, lump.isCompressed() ? "" : "  FAILED"));
+
+                size += lump.getUncompressedSize();
+                compressedSize += lump.getCompressedSize();
+                lumpNanos += lump.getNanos();
+            }
+
+            out.println(String.format(Locale.ROOT, "%-28s %12d %12d %12d %6.1f%% %9.1f",
+                    "Total", size, compressedSize, size - compressedSize, ratio(compressedSize, size),
+                    lumpNanos / 1e6));
+            out.println(String.format(Locale.ROOT, "Compressed in %.1f ms, %.1f ms saved by parallel compression",
+                    nanos / 1e6, Math.max(0, lumpNanos - nanos) / 1e6));
+        }
+    }
+}
@@ -12,17 +12,22 @@ package info.ata4.bspsrc;
 
 import info.ata4.bsplib.BspFile;
 import info.ata4.bsplib.BspFileReader;
+import info.ata4.bsplib.LumpGroup;
 import info.ata4.bsplib.PakFile;
 import info.ata4.bsplib.app.SourceAppID;
 import info.ata4.bsplib.nmo.NmoException;
 import info.ata4.bsplib.nmo.NmoFile;
+import info.ata4.bsplib.util.Metrics;
 import info.ata4.bspsrc.modules.BspDecompiler;
+import info.ata4.log.ContextFormatter;
 import info.ata4.log.LogUtils;
 import org.apache.commons.io.output.NullOutputStream;
 
-import java.io.File;
-import java.io.IOException;
-import java.util.Set;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,9 +48,44 @@ public class BspSource implements Runnable {
     public static final String VERSION = "1.4.0";
 
     private final BspSourceConfig config;
+    private HeapBudget heapBudget;
+    private boolean prepared;
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    // per-map metrics, only filled if enabled in the config
+    private final List<Metrics> metrics = Collections.synchronizedList(new ArrayList<>());
+
+    // incremental mode
+    private final Map<File, DecompileManifest> manifests;
+    private String fingerprint;
 
     public BspSource(BspSourceConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param config decompiling config
+     * @param heapBudget heap budget that is shared with other instances, or
+     *                   null to create one from the config
+     */
+    public BspSource(BspSourceConfig config, HeapBudget heapBudget) {
+        this(config, heapBudget, null);
+    }
+
+    /**
+     * @param config decompiling config
+     * @param heapBudget heap budget that is shared with other instances, or
+     *                   null to create one from the config
+     * @param manifests decompile manifests by output directory that are shared
+     *                  with other instances, or null to use a private map.
+     *                  Access to the map is synchronized on the map itself.
+     */
+    public BspSource(BspSourceConfig config, HeapBudget heapBudget,
+            Map<File, DecompileManifest> manifests) {
         this.config = config;
+        this.heapBudget = heapBudget;
+        this.manifests = manifests != null ? manifests : new HashMap<>();
     }
 
     /**
@@ -67,42 +107,301 @@ public class BspSource implements Runnable {
         if (entries.isEmpty()) {
             L.severe("No BSP files found");
         } else {
-            for (BspFileEntry entry : entries) {
-                try {
-                    decompile(entry);
-                    System.gc(); // try to free some resources
-                } catch (Exception ex) {
-                    // likely to be a critical error, but maybe it will work
-                    // with other files
-                    L.log(Level.SEVERE, "Decompiling error", ex);
+            int threads = Math.min(config.threads, entries.size());
+
+            prepare();
+
+            if (config.pipeline) {
+                decompilePipelined(entries, threads);
+            } else if (threads > 1) {
+                decompileParallel(entries, threads);
+            } else {
+                entries.forEach(this::decompileSafe);
+            }
+
+            if (isIncremental()) {
+                saveManifests();
+
+                if (skipped.get() > 0) {
+                    L.log(Level.INFO, "Skipped {0} unchanged file(s)", skipped.get());
                 }
             }
 
             // get total execution time
-            double duration = (System.currentTimeMillis() - startTime) / 1000.0;
+            long durationMillis = System.currentTimeMillis() - startTime;
+            double duration = durationMillis / 1000.0;
             L.log(Level.INFO, "Processed {0} file(s) in {1} seconds",
                     new Object[]{entries.size(), String.format("%.4f", duration)});
+
+            if (config.collectMetrics && config.metricsFile != null) {
+                writeMetrics(config.metricsFile, durationMillis);
+            }
         }
     }
 
     /**
-     * Starts the decompiling process
+     * Decompiles a single file on the current thread, for callers that manage
+     * their own list of files. Can be called concurrently.
+     *
+     * @param entry file to decompile
+     * @return true if the file has been decompiled or skipped because it was
+     *         up to date, false if it couldn't be decompiled
      */
-    private void decompile(BspFileEntry entry) {
-        File bspFile = entry.getBspFile();
-        File vmfFile = entry.getVmfFile();
+    public boolean decompileFile(BspFileEntry entry) throws InterruptedException {
+        prepare();
 
-        // Only used for 'No More Room in Hell'
-        File nmoFile = entry.getNmoFile();
-        File nmosFile = entry.getNmosFile();
+        Job job = runStage(entry, this::decompile);
 
-        // load BSP
-        BspFileReader reader;
+        if (job != null && job != Job.SKIPPED && isIncremental()) {
+            saveManifests();
+        }
 
-        L.log(Level.INFO, "Loading {0}", bspFile);
+        return job != null;
+    }
+
+    /**
+     * Sets up the state that is shared by all decompiling jobs.
+     */
+    private synchronized void prepare() {
+        if (prepared) {
+            return;
+        }
+
+        prepared = true;
+
+        ContextFormatter.install(Logger.getLogger(""));
+
+        if (heapBudget == null) {
+            heapBudget = new HeapBudget(config.heapBudget);
+            L.log(Level.FINE, "Heap budget: {0} MB", heapBudget.getBudget() / (1 << 20));
+        }
+
+        if (isIncremental()) {
+            fingerprint = config.getFingerprint();
+            L.log(Level.FINE, "Config fingerprint: {0}", fingerprint);
+        }
+    }
+
+    /**
+     * Decompiles all entries on a pool of worker threads
+     */
+    private void decompileParallel(Set<BspFileEntry> entries, int threads) {
+        L.log(Level.INFO, "Decompiling {0} file(s) using {1} threads",
+                new Object[]{entries.size(), threads});
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("bspsrc-worker-"));
+
+        try {
+            for (BspFileEntry entry : entries) {
+                executor.execute(() -> decompileSafe(entry));
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            L.warning("Decompiling interrupted");
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decompiles a single entry and logs all errors instead of throwing them
+     */
+    private void decompileSafe(BspFileEntry entry) {
+        try {
+            runStage(entry, this::decompile);
+        } catch (InterruptedException ex) {
+            L.log(Level.WARNING, "Decompiling of {0} interrupted", entry);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decompiles all entries in a pipeline of three stages that are connected
+     * by bounded queues, so that the next map is loaded while the current map
+     * is being decompiled and the previous map is being written.
+     */
+    private void decompilePipelined(Set<BspFileEntry> entries, int threads) {
+        L.log(Level.INFO, "Decompiling {0} file(s) in a pipeline using {1} decompiler threads",
+                new Object[]{entries.size(), threads});
+
+        BlockingQueue<Job> decompileQueue = new ArrayBlockingQueue<>(threads);
+        BlockingQueue<Job> writeQueue = new ArrayBlockingQueue<>(threads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 2, new DaemonThreadFactory("bspsrc-worker-"));
+
+        // load stage
+        executor.execute(() -> {
+            try {
+                for (BspFileEntry entry : entries) {
+                    Job job = runStage(entry, this::load);
+                    if (job != null && job != Job.SKIPPED) {
+                        decompileQueue.put(job);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // tell all decompiler threads to stop
+                putEnd(decompileQueue, threads);
+            }
+        });
+
+        // decompile stage
+        CountDownLatch decompilers = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    for (Job job = decompileQueue.take(); job != Job.END; job = decompileQueue.take()) {
+                        if (runStage(job, this::decompileBuffered) != null) {
+                            writeQueue.put(job);
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    decompilers.countDown();
+                }
+            });
+        }
+
+        // write stage
+        executor.execute(() -> {
+            try {
+                for (Job job = writeQueue.take(); job != Job.END; job = writeQueue.take()) {
+                    runStage(job, this::write);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
 
         try {
-            BspFile bsp = new BspFile();
+            decompilers.await();
+            putEnd(writeQueue, 1);
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            L.warning("Decompiling interrupted");
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a single decompiling stage and logs all errors instead of throwing
+     * them. Errors like an OutOfMemoryError are caught as well, since a stage
+     * thread that dies would leave the other stages of the pipeline blocked
+     * on their queues forever. The stages release their jobs on failure.
+     *
+     * @return the result of the stage or null if it failed
+     */
+    private <T, R> R runStage(T input, Stage<T, R> stage) throws InterruptedException {
+        // prefix log messages with the current file so that messages from
+        // concurrent jobs can be told apart
+        String context = ContextFormatter.getContext();
+        ContextFormatter.setContext(String.valueOf(input));
+
+        try {
+            R result = stage.run(input);
+            if (result == null) {
+                failed.incrementAndGet();
+            }
+            return result;
+        } catch (InterruptedException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            // likely to be a critical error, but maybe it will work
+            // with other files
+            L.log(Level.SEVERE, "Decompiling error in " + input, ex);
+            failed.incrementAndGet();
+            return null;
+        } finally {
+            ContextFormatter.setContext(context);
+        }
+    }
+
+    /**
+     * Signals the consumers of a queue that there are no more jobs to process.
+     */
+    private static void putEnd(BlockingQueue<Job> queue, int consumers) {
+        try {
+            for (int i = 0; i < consumers; i++) {
+                queue.put(Job.END);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs all stages for a single entry on the current thread.
+     */
+    private Job decompile(BspFileEntry entry) throws InterruptedException {
+        Job job = load(entry);
+
+        if (job == null || job == Job.SKIPPED) {
+            return job;
+        }
+
+        try (
+            Metrics.Scope scope = attach(job.metrics);
+            VmfWriter writer = getVmfWriter(entry.getVmfFile())
+        ) {
+            decompile(job, writer);
+        } catch (IOException ex) {
+            L.log(Level.SEVERE, "Can't decompile " + entry.getBspFile() + " to " + entry.getVmfFile(), ex);
+            return null;
+        } finally {
+            job.release();
+        }
+
+        countVmfBytes(job, entry.getVmfFile());
+        updateManifest(entry);
+
+        return job;
+    }
+
+    /**
+     * Loads the BSP file and the lumps required by the config once the map
+     * fits into the heap budget.
+     *
+     * @return loaded job, {@link Job#SKIPPED} if the entry is up to date or
+     *         null if the file couldn't be loaded
+     */
+    private Job load(BspFileEntry entry) throws InterruptedException {
+        Metrics jobMetrics = config.collectMetrics ? new Metrics(entry.getBspFile().getName()) : null;
+
+        try (Metrics.Scope scope = attach(jobMetrics)) {
+            Job job = loadJob(entry);
+
+            if (job != null && job != Job.SKIPPED && jobMetrics != null) {
+                job.metrics = jobMetrics;
+                metrics.add(jobMetrics);
+            }
+
+            return job;
+        }
+    }
+
+    private Job loadJob(BspFileEntry entry) throws InterruptedException {
+        File bspFile = entry.getBspFile();
+
+        if (isIncremental() && !config.forceRebuild
+                && getManifest(entry).isUpToDate(entry, fingerprint)) {
+            L.log(Level.INFO, "Skipping {0}, VMF file is up to date", bspFile);
+            skipped.incrementAndGet();
+            return Job.SKIPPED;
+        }
+
+        L.log(Level.INFO, "Loading {0}", bspFile);
+
+        BspFile bsp = new BspFile();
+
+        try (Metrics.Timer timer = Metrics.time("loadFile")) {
             bsp.setSourceApp(config.defaultApp);
             bsp.load(bspFile.toPath());
 
@@ -110,9 +409,41 @@ public class BspSource implements Runnable {
                 bsp.loadLumpFiles();
             }
 
+            Metrics.count("bspBytes", bspFile.length());
+        } catch (IOException ex) {
+            L.log(Level.SEVERE, "Can't load " + bspFile, ex);
+            bsp.close();
+            return null;
+        }
+
+        Set<LumpGroup> groups = BspDecompiler.getRequiredLumps(config);
+
+        // wait until the estimated heap usage fits into the budget
+        long heapCost = HeapBudget.estimate(bsp, groups);
+
+        // the pipeline buffers the VMF in memory until it's written
+        if (config.pipeline && !config.nullOutput) {
+            heapCost += HeapBudget.estimateVmf(bsp);
+        }
+
+        L.log(Level.FINE, "Estimated heap usage for {0}: {1} MB",
+                new Object[]{bsp.getName(), heapCost / (1 << 20)});
+
+        try (Metrics.Timer timer = Metrics.time("heapBudgetWait")) {
+            heapBudget.acquire(heapCost);
+        } catch (InterruptedException ex) {
+            bsp.close();
+            throw ex;
+        }
+
+        Job job = new Job(entry, heapBudget, heapCost);
+        job.bsp = bsp;
+        boolean loaded = false;
+
+        try {
             // extract embedded files
             if (config.unpackEmbedded) {
-                try {
+                try (Metrics.Timer timer = Metrics.time("unpackEmbedded")) {
                     bsp.getPakFile().unpack(
                             entry.getPakDir().toPath(),
                             fileName -> !config.smartUnpack || !PakFile.isVBSPGeneratedFile(bsp.getName(), fileName)
@@ -122,52 +453,227 @@ public class BspSource implements Runnable {
                 }
             }
 
-            reader = new BspFileReader(bsp);
-            reader.loadAll();
+            job.reader = new BspFileReader(bsp);
+
+            try (Metrics.Timer timer = Metrics.time("loadLumps")) {
+                if (config.parallelLoad) {
+                    job.reader.load(groups, ForkJoinPool.commonPool());
+                } else {
+                    job.reader.load(groups);
+                }
+            }
+
+            // load NMO if game is 'No More Room in Hell'
+            if (bsp.getSourceApp().getAppID() == SourceAppID.NO_MORE_ROOM_IN_HELL) {
+                loadNmo(job, entry);
+            }
+
+            loaded = true;
         } catch (IOException ex) {
             L.log(Level.SEVERE, "Can't load " + bspFile, ex);
-            return;
+            return null;
+        } finally {
+            // release the job on any failure, including unchecked exceptions
+            if (!loaded) {
+                job.release();
+            }
         }
 
-        // load NMO if game is 'No More Room in Hell'
-        NmoFile nmo = null;
-        if (reader.getBspFile().getSourceApp().getAppID() == SourceAppID.NO_MORE_ROOM_IN_HELL) {
-            if (nmoFile.exists()) {
+        if (!config.isDebug()) {
+            if (config.threads > 1) {
+                L.log(Level.INFO, "{0}: BSP version {1}, game {2}", new Object[]{bspFile.getName(),
+                        bsp.getVersion(), bsp.getSourceApp()});
+            } else {
+                L.log(Level.INFO, "BSP version: {0}", bsp.getVersion());
+                L.log(Level.INFO, "Game: {0}", bsp.getSourceApp());
+            }
+        }
+
+        return job;
+    }
+
+    /**
+     * Loads the NMO file of a 'No More Room in Hell' map and writes it as
+     * NMOS file.
+     */
+    private void loadNmo(Job job, BspFileEntry entry) {
+        File nmoFile = entry.getNmoFile();
+        File nmosFile = entry.getNmosFile();
+
+        if (nmoFile.exists()) {
+            try {
+                NmoFile nmo = new NmoFile();
+                nmo.load(nmoFile.toPath(), true);
+                job.nmo = nmo;
+
+                // write nmos
                 try {
-                    nmo = new NmoFile();
-                    nmo.load(nmoFile.toPath(), true);
-
-	                // write nmos
-	                try {
-		                nmo.writeAsNmos(nmosFile.toPath());
-	                } catch (IOException ex) {
-		                L.log(Level.SEVERE, "Error while writing nmos", ex);
-	                }
-                } catch (IOException | NmoException ex) {
-                    L.log(Level.SEVERE, "Can't load " + nmoFile, ex);
-                    nmo = null;
+                    nmo.writeAsNmos(nmosFile.toPath());
+                } catch (IOException ex) {
+                    L.log(Level.SEVERE, "Error while writing nmos", ex);
+                }
+            } catch (IOException | NmoException ex) {
+                L.log(Level.SEVERE, "Can't load " + nmoFile, ex);
+            }
+        } else {
+            L.warning("Missing .nmo file! If the bsp is for the objective game mode, its objectives will be missing");
+        }
+    }
+
+    /**
+     * Decompiles a loaded map into an in-memory buffer that is written to the
+     * VMF file by the write stage.
+     */
+    private Job decompileBuffered(Job job) {
+        boolean buffered = false;
+
+        try (Metrics.Scope scope = attach(job.metrics)) {
+            if (config.nullOutput) {
+                try (VmfWriter writer = new VmfWriter(new NullOutputStream())) {
+                    decompile(job, writer);
                 }
             } else {
-                L.warning("Missing .nmo file! If the bsp is for the objective game mode, its objectives will be missing");
+                job.vmf = new ByteArrayOutputStream();
+                try (VmfWriter writer = new VmfWriter(job.vmf, VmfWriter.CHARSET)) {
+                    decompile(job, writer);
+                }
+                buffered = true;
+            }
+        } finally {
+            // the BSP data isn't needed anymore at this point, but the heap
+            // of a buffered VMF is returned by the write stage
+            if (buffered) {
+                job.close();
+            } else {
+                job.vmf = null;
+                job.release();
             }
         }
 
-        if (!config.isDebug()) {
-            L.log(Level.INFO, "BSP version: {0}", reader.getBspFile().getVersion());
-            L.log(Level.INFO, "Game: {0}", reader.getBspFile().getSourceApp());
+        return job;
+    }
+
+    /**
+     * Writes the buffered VMF data of a decompiled map to its file.
+     */
+    private Job write(Job job) throws IOException {
+        if (job.vmf == null) {
+            return job;
+        }
+
+        File vmfFile = job.entry.getVmfFile();
+
+        try (
+            Metrics.Scope scope = attach(job.metrics);
+            Metrics.Timer timer = Metrics.time("vmfWrite");
+            OutputStream os = new FileOutputStream(vmfFile)
+        ) {
+            job.vmf.writeTo(os);
+        } catch (IOException ex) {
+            throw new IOException("Can't write " + vmfFile, ex);
+        } finally {
+            job.vmf = null;
+            job.release();
+        }
+
+        L.log(Level.FINE, "Wrote {0}", vmfFile);
+
+        countVmfBytes(job, vmfFile);
+        updateManifest(job.entry);
+
+        return job;
+    }
+
+    /**
+     * Creates the decompiler for a loaded map and starts decompiling
+     */
+    private void decompile(Job job, VmfWriter writer) {
+        // only the entities have been loaded for the inventory
+        if (config.nullOutput) {
+            L.log(Level.INFO, "Finished reading {0}", job.entry.getBspFile());
+            return;
         }
 
-        // create and configure decompiler and start decompiling
-        try (VmfWriter writer = getVmfWriter(vmfFile)) {
-            BspDecompiler decompiler = new BspDecompiler(reader, writer, config);
+        try (Metrics.Timer timer = Metrics.time("decompile")) {
+            BspDecompiler decompiler = new BspDecompiler(job.reader, writer, config);
 
-            if (nmo != null)
-                decompiler.setNmoData(nmo);
+            if (job.nmo != null)
+                decompiler.setNmoData(job.nmo);
 
             decompiler.start();
-            L.log(Level.INFO, "Finished decompiling {0}", bspFile);
+        }
+
+        try (Metrics.Timer timer = Metrics.time("vmfFlush")) {
+            writer.flush();
+        }
+
+        L.log(Level.INFO, "Finished decompiling {0}", job.entry.getBspFile());
+    }
+
+    private static Metrics.Scope attach(Metrics metrics) {
+        return metrics != null ? metrics.attach() : () -> {};
+    }
+
+    private void countVmfBytes(Job job, File vmfFile) {
+        if (job.metrics != null && !config.nullOutput) {
+            job.metrics.addCount("vmfBytes", vmfFile.length());
+        }
+    }
+
+    /**
+     * Writes the metrics of all maps and their sum to a JSON file.
+     */
+    private void writeMetrics(File file, long durationMillis) {
+        Metrics total = new Metrics("total");
+        List<Metrics> maps;
+
+        synchronized (metrics) {
+            maps = new ArrayList<>(metrics);
+        }
+
+        maps.forEach(total::add);
+        total.addTime("batch", TimeUnit.MILLISECONDS.toNanos(durationMillis), maps.size());
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            Metrics.writeJsonReport(out, maps, total);
         } catch (IOException ex) {
-            L.log(Level.SEVERE, "Can't decompile " + bspFile + " to " + vmfFile, ex);
+            L.log(Level.WARNING, "Can't write metrics to " + file, ex);
+            return;
+        }
+
+        L.log(Level.INFO, "Wrote metrics to {0}", file);
+    }
+
+    private boolean isIncremental() {
+        return config.incremental && !config.nullOutput;
+    }
+
+    /**
+     * Returns the manifest for the output directory of an entry.
+     */
+    private DecompileManifest getManifest(BspFileEntry entry) {
+        File dir = entry.getVmfFile().getAbsoluteFile().getParentFile();
+
+        synchronized (manifests) {
+            return manifests.computeIfAbsent(dir, key -> DecompileManifest.load(key.toPath()));
+        }
+    }
+
+    private void updateManifest(BspFileEntry entry) {
+        if (isIncremental()) {
+            getManifest(entry).update(entry, fingerprint);
+        }
+    }
+
+    private void saveManifests() {
+        synchronized (manifests) {
+            for (DecompileManifest manifest : manifests.values()) {
+                try {
+                    manifest.save();
+                } catch (IOException ex) {
+                    L.log(Level.WARNING, "Can't save decompile manifest", ex);
+                }
+            }
         }
     }
 
@@ -183,4 +689,108 @@ public class BspSource implements Runnable {
     public BspSourceConfig getConfig() {
         return config;
     }
+
+    /**
+     * Returns the metrics of all maps that have been loaded so far. The list
+     * is empty unless {@link BspSourceConfig#collectMetrics} is enabled.
+     *
+     * @return list of per-map metrics
+     */
+    public List<Metrics> getMetrics() {
+        synchronized (metrics) {
+            return new ArrayList<>(metrics);
+        }
+    }
+
+    /**
+     * Returns the number of files that couldn't be decompiled.
+     *
+     * @return number of failed files
+     */
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of files that have been skipped in incremental mode.
+     *
+     * @return number of skipped files
+     */
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+
+    @FunctionalInterface
+    private interface Stage<T, R> {
+        R run(T input) throws Exception;
+    }
+
+    /**
+     * State of a single map that is passed through the decompiling stages.
+     */
+    private static class Job {
+
+        // marks the end of a queue
+        private static final Job END = new Job(null, null, 0);
+
+        // marks an entry that doesn't need to be decompiled
+        private static final Job SKIPPED = new Job(null, null, 0);
+
+        private final BspFileEntry entry;
+        private final HeapBudget heapBudget;
+        private final long heapCost;
+        private boolean closed;
+        private boolean released;
+
+        private BspFile bsp;
+        private BspFileReader reader;
+        private NmoFile nmo;
+        private Metrics metrics;
+        private ByteArrayOutputStream vmf;
+
+        private Job(BspFileEntry entry, HeapBudget heapBudget, long heapCost) {
+            this.entry = entry;
+            this.heapBudget = heapBudget;
+            this.heapCost = heapCost;
+        }
+
+        /**
+         * Drops the loaded BSP data and unmaps the BSP file.
+         */
+        private void close() {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+
+            if (bsp != null) {
+                bsp.close();
+            }
+
+            bsp = null;
+            reader = null;
+            nmo = null;
+        }
+
+        /**
+         * Drops the loaded BSP data, unmaps the BSP file and returns its heap
+         * to the budget.
+         */
+        private void release() {
+            close();
+
+            if (released) {
+                return;
+            }
+
+            released = true;
+            heapBudget.release(heapCost);
+        }
+
+        @Override
+        public String toString() {
+            return entry.toString();
+        }
+    }
 }
@@ -15,12 +15,17 @@ import info.ata4.bspsrc.modules.geom.BrushMode;
 import info.ata4.bspsrc.util.SourceFormat;
 import info.ata4.log.LogUtils;
 
+import java.io.File;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.zip.CRC32;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,6 +39,12 @@ public final class BspSourceConfig implements Serializable {
     // logger
     private static final Logger L = LogUtils.getLogger();
 
+    // fields that control how files are processed, but not the output. debug
+    // isn't one of them, it adds bspsrc_debug blocks and visgroups to the VMF
+    private static final Set<String> FINGERPRINT_IGNORED = new HashSet<>(Arrays.asList(
+            "files", "threads", "heapBudget", "pipeline", "parallelLoad", "incremental", "forceRebuild",
+            "collectMetrics", "metricsFile"));
+
     public SourceApp defaultApp = SourceApp.UNKNOWN;
     public BrushMode brushMode = BrushMode.BRUSHPLANES;
     public SourceFormat sourceFormat = SourceFormat.AUTO;
@@ -50,6 +61,14 @@ public final class BspSourceConfig implements Serializable {
     public float backfaceDepth = 1;
     public int maxCubemapSides = 8;
     public int maxOverlaySides = 64;
+    public int threads = 1;
+    public long heapBudget = 0;
+    public boolean pipeline = false;
+    public boolean parallelLoad = false;
+    public boolean incremental = false;
+    public boolean forceRebuild = false;
+    public boolean collectMetrics = false;
+    public File metricsFile = null;
     public boolean detailMerge = true;
     public float detailMergeThresh = 1;
     public boolean apForceManualMapping = false;
@@ -99,6 +118,35 @@ public final class BspSourceConfig implements Serializable {
         }
     }
 
+    /**
+     * Returns a checksum of all settings that affect the decompiled output.
+     *
+     * @return config fingerprint as hex string
+     */
+    public String getFingerprint() {
+        CRC32 crc = new CRC32();
+
+        Field[] fields = getClass().getDeclaredFields();
+        Arrays.sort(fields, Comparator.comparing(Field::getName));
+
+        for (Field field : fields) {
+            if (Modifier.isStatic(field.getModifiers()) || FINGERPRINT_IGNORED.contains(field.getName())) {
+                continue;
+            }
+
+            try {
+                String value = field.getName() + "=" + field.get(this) + ";";
+                crc.update(value.getBytes(StandardCharsets.UTF_8));
+            } catch (IllegalAccessException ex) {
+                continue;
+            }
+        }
+
+        crc.update(BspSource.VERSION.getBytes(StandardCharsets.UTF_8));
+
+        return Long.toHexString(crc.getValue());
+    }
+
     public void setFileSet(Set<BspFileEntry> entries) {
         this.files = new HashSet<>(entries);
     }
@@ -130,4 +178,14 @@ public final class BspSourceConfig implements Serializable {
         updateLogger(debug);
         this.debug = debug;
     }
+
+    /**
+     * Sets the debug mode without changing the log level, for configs that
+     * share the logging setup of a running process.
+     *
+     * @param debug true to add debug data to the VMF files
+     */
+    public void setDebugOutput(boolean debug) {
+        this.debug = debug;
+    }
 }
@@ -0,0 +1,226 @@
+package info.ata4.bspsrc;
+
+import info.ata4.log.LogUtils;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a directory for new or changed BSP files and decompiles them as soon
+ * as they have been written completely.
+ *
+ * A file counts as complete once its size and modification time haven't
+ * changed for {@link #STABLE_MILLIS} milliseconds. Up to
+ * {@link BspSourceConfig#threads} files are decompiled at the same time.
+ */
+public class BspSourceWatcher {
+
+    private static final Logger L = LogUtils.getLogger();
+
+    public static final long STABLE_MILLIS = 2000;
+    private static final long POLL_MILLIS = 500;
+
+    private final BspSource bspsrc;
+    private final Path dir;
+    private final File outputDir;
+    private final boolean recursive;
+
+    // files that have changed recently, waiting to become stable
+    private final Map<Path, Candidate> pending = new HashMap<>();
+
+    // files that are currently being decompiled
+    private final Set<Path> active = Collections.synchronizedSet(new HashSet<>());
+
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private WatchService watchService;
+
+    /**
+     * @param bspsrc decompiler with the configuration for all files
+     * @param dir directory to watch
+     * @param outputDir directory for the VMF files or null to write them next
+     *                  to the BSP files
+     * @param recursive watch all subdirectories as well
+     */
+    public BspSourceWatcher(BspSource bspsrc, Path dir, File outputDir, boolean recursive) {
+        this.bspsrc = Objects.requireNonNull(bspsrc);
+        this.dir = Objects.requireNonNull(dir);
+        this.outputDir = outputDir;
+        this.recursive = recursive;
+    }
+
+    /**
+     * Watches the directory until the current thread is interrupted. Files
+     * that already exist are ignored unless they're changed.
+     */
+    public void watch() throws IOException, InterruptedException {
+        int threads = bspsrc.getConfig().threads;
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("bspsrc-watch-"));
+
+        try (WatchService ws = dir.getFileSystem().newWatchService()) {
+            watchService = ws;
+            register(dir);
+
+            L.log(Level.INFO, "Watching {0} for BSP files using {1} thread(s)", new Object[]{dir, threads});
+
+            while (true) {
+                WatchKey key = pending.isEmpty()
+                        ? ws.take()
+                        : ws.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                // collect all events that are available right now
+                for (; key != null; key = ws.poll()) {
+                    processEvents(key);
+                }
+
+                submitStable(executor);
+            }
+        } catch (ClosedWatchServiceException ex) {
+            // stopped from outside
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void register(Path start) throws IOException {
+        if (!recursive) {
+            keys.put(start.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), start);
+            return;
+        }
+
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+                keys.put(path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), path);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void processEvents(WatchKey key) {
+        Path keyDir = keys.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                L.log(Level.WARNING, "Too many changes in {0}, rescanning", keyDir);
+                rescan(keyDir);
+                continue;
+            }
+
+            Path path = keyDir.resolve((Path) event.context());
+
+            if (recursive && event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    register(path);
+                    rescan(path);
+                } catch (IOException ex) {
+                    L.log(Level.WARNING, "Can't watch " + path, ex);
+                }
+            } else if (isBspFile(path)) {
+                pending.put(path, new Candidate());
+            }
+        }
+
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * Adds all BSP files in a directory whose events may have been lost.
+     */
+    private void rescan(Path start) {
+        try (Stream<Path> paths = Files.walk(start, recursive ? Integer.MAX_VALUE : 1)) {
+            paths.filter(BspSourceWatcher::isBspFile)
+                    .forEach(path -> pending.putIfAbsent(path, new Candidate()));
+        } catch (IOException ex) {
+            L.log(Level.WARNING, "Can't scan " + start, ex);
+        }
+    }
+
+    private void submitStable(ExecutorService executor) {
+        long now = System.currentTimeMillis();
+
+        for (Iterator<Map.Entry<Path, Candidate>> it = pending.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Path, Candidate> mapEntry = it.next();
+            Path path = mapEntry.getKey();
+            Candidate candidate = mapEntry.getValue();
+
+            long size;
+            long modified;
+
+            try {
+                size = Files.size(path);
+                modified = Files.getLastModifiedTime(path).toMillis();
+            } catch (NoSuchFileException ex) {
+                // deleted or renamed before it was complete
+                it.remove();
+                continue;
+            } catch (IOException ex) {
+                L.log(Level.WARNING, "Can't read attributes of " + path, ex);
+                it.remove();
+                continue;
+            }
+
+            if (size != candidate.size || modified != candidate.modified) {
+                candidate.size = size;
+                candidate.modified = modified;
+                candidate.since = now;
+                continue;
+            }
+
+            // wait until the file hasn't changed for a while and isn't being
+            // decompiled already
+            if (size == 0 || now - candidate.since < STABLE_MILLIS || !active.add(path)) {
+                continue;
+            }
+
+            it.remove();
+            executor.execute(() -> decompile(path));
+        }
+    }
+
+    private void decompile(Path path) {
+        try {
+            bspsrc.decompileFile(getEntry(path));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.remove(path);
+        }
+    }
+
+    private BspFileEntry getEntry(Path path) {
+        File bspFile = path.toFile();
+
+        if (outputDir == null) {
+            return new BspFileEntry(bspFile);
+        }
+
+        String base = FilenameUtils.removeExtension(bspFile.getName());
+        return new BspFileEntry(bspFile, new File(outputDir, base + "_d.vmf"));
+    }
+
+    private static boolean isBspFile(Path path) {
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".bsp")
+                && !Files.isDirectory(path);
+    }
+
+    private static class Candidate {
+        private long size = -1;
+        private long modified = -1;
+        private long since;
+    }
+}
@@ -0,0 +1,265 @@
+package info.ata4.bspsrc;
+
+import info.ata4.log.LogUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent index of decompiled maps in an output directory. It records size,
+ * modification time and checksum of each BSP file together with the config
+ * fingerprint used, so that unchanged maps can be skipped in later runs.
+ */
+public class DecompileManifest {
+
+    private static final Logger L = LogUtils.getLogger();
+
+    public static final String FILE_NAME = ".bspsrc_manifest";
+
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final Properties records = new Properties();
+
+    // state of the BSP files that were found to be out of date, recorded by
+    // update() so they don't have to be hashed again after decompiling
+    private final Map<String, Record> checked = new HashMap<>();
+    private boolean modified;
+
+    private DecompileManifest(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the manifest for an output directory. Returns an empty manifest
+     * if there is none yet or if it can't be read.
+     *
+     * @param dir output directory
+     * @return manifest for the directory
+     */
+    public static DecompileManifest load(Path dir) {
+        DecompileManifest manifest = new DecompileManifest(dir.resolve(FILE_NAME));
+
+        if (Files.exists(manifest.file)) {
+            try (InputStream is = Files.newInputStream(manifest.file)) {
+                manifest.records.load(is);
+            } catch (IOException | IllegalArgumentException ex) {
+                L.log(Level.WARNING, "Can't read manifest " + manifest.file + ", ignoring it", ex);
+                manifest.records.clear();
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest back to its directory if it has been changed. The
+     * manifest is written to a temporary file first and then moved in place,
+     * so readers never see a partially written file.
+     *
+     * @throws IOException if the manifest couldn't be written
+     */
+    public synchronized void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+
+        Path tmpFile = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+
+        try {
+            try (OutputStream os = Files.newOutputStream(tmpFile)) {
+                records.store(os, "BSPSource " + BspSource.VERSION + " decompile manifest");
+            }
+
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+
+        modified = false;
+    }
+
+    /**
+     * Checks if the VMF file of an entry has been created from the current
+     * BSP file with the same config and hasn't been changed since.
+     *
+     * @param entry BSP file entry
+     * @param fingerprint config fingerprint
+     * @return true if the entry doesn't need to be decompiled again
+     */
+    public boolean isUpToDate(BspFileEntry entry, String fingerprint) {
+        String key = getKey(entry);
+        Record record;
+
+        synchronized (this) {
+            record = Record.parse(records.getProperty(key));
+        }
+
+        Record current;
+
+        try {
+            current = getState(entry.getBspFile().toPath(), record);
+        } catch (IOException ex) {
+            L.log(Level.FINE, "Can't check " + entry, ex);
+            return false;
+        }
+
+        if (record == null || !record.fingerprint.equals(fingerprint)
+                || current.bspSize != record.bspSize || current.bspHash != record.bspHash
+                || !isUnchanged(entry.getVmfFile().toPath(), record)) {
+            synchronized (this) {
+                checked.put(key, current);
+            }
+            return false;
+        }
+
+        // the content is still the same if only the time has changed
+        if (current.bspTime != record.bspTime) {
+            record.bspTime = current.bspTime;
+
+            synchronized (this) {
+                records.setProperty(key, record.toString());
+                modified = true;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Records the current state of an entry after it has been decompiled.
+     *
+     * @param entry BSP file entry
+     * @param fingerprint config fingerprint
+     */
+    public void update(BspFileEntry entry, String fingerprint) {
+        String key = getKey(entry);
+        Path vmfFile = entry.getVmfFile().toPath();
+        Record record;
+
+        synchronized (this) {
+            record = checked.remove(key);
+        }
+
+        try {
+            // use the state from the check before decompiling if there is
+            // one, it describes the content the VMF file was created from
+            if (record == null) {
+                record = getState(entry.getBspFile().toPath(), null);
+            }
+
+            record.vmfSize = Files.size(vmfFile);
+            record.vmfTime = Files.getLastModifiedTime(vmfFile).toMillis();
+            record.fingerprint = fingerprint;
+
+            synchronized (this) {
+                records.setProperty(key, record.toString());
+                modified = true;
+            }
+        } catch (IOException ex) {
+            L.log(Level.WARNING, "Can't update manifest for " + entry, ex);
+        }
+    }
+
+    private static String getKey(BspFileEntry entry) {
+        return entry.getBspFile().getAbsolutePath();
+    }
+
+    /**
+     * Reads size, modification time and checksum of a BSP file. The checksum
+     * of a previous record is reused if size and time haven't changed.
+     */
+    private static Record getState(Path bspFile, Record previous) throws IOException {
+        Record state = new Record();
+        state.bspSize = Files.size(bspFile);
+        state.bspTime = Files.getLastModifiedTime(bspFile).toMillis();
+
+        if (previous != null && previous.bspSize == state.bspSize && previous.bspTime == state.bspTime) {
+            state.bspHash = previous.bspHash;
+        } else {
+            state.bspHash = hash(bspFile);
+        }
+
+        return state;
+    }
+
+    private static boolean isUnchanged(Path vmfFile, Record record) {
+        try {
+            return Files.exists(vmfFile)
+                    && Files.size(vmfFile) == record.vmfSize
+                    && Files.getLastModifiedTime(vmfFile).toMillis() == record.vmfTime;
+        } catch (IOException ex) {
+            L.log(Level.FINE, "Can't check " + vmfFile, ex);
+            return false;
+        }
+    }
+
+    private static long hash(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer bb = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (fc.read(bb) != -1) {
+                bb.flip();
+                crc.update(bb);
+                bb.clear();
+            }
+        }
+
+        return crc.getValue();
+    }
+
+    private static class Record {
+
+        private long bspSize;
+        private long bspTime;
+        private long bspHash;
+        private long vmfSize;
+        private long vmfTime;
+        private String fingerprint;
+
+        private static Record parse(String value) {
+            if (value == null) {
+                return null;
+            }
+
+            String[] fields = value.split(",");
+            if (fields.length != 6) {
+                return null;
+            }
+
+            try {
+                Record record = new Record();
+                record.bspSize = Long.parseLong(fields[0]);
+                record.bspTime = Long.parseLong(fields[1]);
+                record.bspHash = Long.parseLong(fields[2], 16);
+                record.vmfSize = Long.parseLong(fields[3]);
+                record.vmfTime = Long.parseLong(fields[4]);
+                record.fingerprint = fields[5];
+                return record;
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return bspSize + "," + bspTime + "," + Long.toHexString(bspHash) + ","
+                    + vmfSize + "," + vmfTime + "," + fingerprint;
+        }
+    }
+}
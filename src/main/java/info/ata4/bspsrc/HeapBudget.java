@@ -0,0 +1,229 @@
+package info.ata4.bspsrc;
+
+import info.ata4.bsplib.BspFile;
+import info.ata4.bsplib.LumpGroup;
+import info.ata4.bsplib.io.LzmaUtil;
+import info.ata4.bsplib.lump.GameLump;
+import info.ata4.bsplib.lump.Lump;
+import info.ata4.bsplib.lump.LumpType;
+import info.ata4.log.LogUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Admission control for decompiling jobs. Each job estimates its heap usage
+ * from the lump table of the BSP file and has to acquire that amount from the
+ * budget before it is allowed to proceed.
+ */
+public class HeapBudget {
+
+    private static final Logger L = LogUtils.getLogger();
+
+    // fraction of the max heap that is used if no budget is configured
+    private static final double DEFAULT_HEAP_FRACTION = 0.75;
+
+    // rough memory overhead for lump data decoded into objects
+    private static final int EXPANSION_STRUCT = 4;
+    private static final int EXPANSION_TEXT = 6;
+
+    // lumps decoded into primitive arrays, which are as large as the lump
+    // data or twice as large if unsigned shorts are widened to ints
+    private static final int EXPANSION_ARRAY = 1;
+    private static final int EXPANSION_USHORT_ARRAY = 2;
+
+    // rough size of a decompiled VMF file relative to its BSP file
+    private static final int EXPANSION_VMF = 6;
+
+    private final long budget;
+    private long used;
+    private int jobs;
+
+    /**
+     * @param budget heap budget in bytes, uses a fraction of the max heap size
+     *               if zero or negative
+     */
+    public HeapBudget(long budget) {
+        if (budget <= 0) {
+            budget = (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION);
+        }
+
+        this.budget = budget;
+    }
+
+    /**
+     * Blocks until the requested amount of heap fits into the budget. A job
+     * that exceeds the budget on its own is admitted once no other jobs are
+     * running.
+     *
+     * @param bytes estimated heap usage of the job
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        while (jobs > 0 && used + bytes > budget) {
+            wait();
+        }
+
+        used += bytes;
+        jobs++;
+    }
+
+    /**
+     * Returns heap previously acquired with {@link #acquire(long)} to the budget.
+     *
+     * @param bytes estimated heap usage of the job
+     */
+    public synchronized void release(long bytes) {
+        used -= bytes;
+        jobs--;
+        notifyAll();
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * Estimates the heap required to read and decompile a loaded BSP file.
+     * Memory-mapped lump data isn't counted, only the uncompressed buffers and
+     * the objects created from the lumps of the given groups.
+     *
+     * @param bspFile loaded BSP file
+     * @param groups lump groups that are going to be read
+     * @return estimated heap usage in bytes
+     */
+    public static long estimate(BspFile bspFile, Set<LumpGroup> groups) {
+        Set<LumpType> lumpTypes = EnumSet.noneOf(LumpType.class);
+        groups.forEach(group -> lumpTypes.addAll(group.getLumpTypes()));
+
+        // embedded files are read from the pakfile without decoding it
+        lumpTypes.add(LumpType.LUMP_PAKFILE);
+
+        long bytes = 0;
+
+        for (Lump lump : bspFile.getLumps()) {
+            if (!lumpTypes.contains(lump.getType())) {
+                continue;
+            }
+
+            int length = getUncompressedLength(lump.getBuffer(), lump.getLength());
+
+            // compressed lumps are uncompressed into heap buffers
+            if (lump.isCompressed()) {
+                bytes += length;
+            }
+
+            bytes += (long) length * getExpansion(lump.getType());
+        }
+
+        for (GameLump gameLump : bspFile.getGameLumps()) {
+            // only static props are decoded
+            if (!groups.contains(LumpGroup.STATIC_PROPS) || !gameLump.getName().equalsIgnoreCase("sprp")) {
+                continue;
+            }
+
+            int length = getUncompressedLength(gameLump.getBuffer(), gameLump.getLength());
+
+            if (gameLump.isCompressed()) {
+                bytes += length;
+            }
+
+            bytes += (long) length * EXPANSION_STRUCT;
+        }
+
+        // maps that can't be memory-mapped are loaded into the heap entirely
+        if (!bspFile.isMemoryMapped()) {
+            try {
+                bytes += Files.size(bspFile.getFile());
+            } catch (IOException ex) {
+                L.log(Level.FINE, "Can't get file size of " + bspFile.getFile(), ex);
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Estimates the heap required to buffer the decompiled VMF file of a
+     * loaded BSP file in memory until it is written.
+     *
+     * @param bspFile loaded BSP file
+     * @return estimated VMF size in bytes
+     */
+    public static long estimateVmf(BspFile bspFile) {
+        try {
+            return Files.size(bspFile.getFile()) * EXPANSION_VMF;
+        } catch (IOException ex) {
+            L.log(Level.FINE, "Can't get file size of " + bspFile.getFile(), ex);
+            return 0;
+        }
+    }
+
+    private static int getUncompressedLength(ByteBuffer buffer, int length) {
+        if (!LzmaUtil.isCompressed(buffer)) {
+            return length;
+        }
+
+        try {
+            return LzmaUtil.getUncompressedSize(buffer);
+        } catch (IOException ex) {
+            return length;
+        }
+    }
+
+    private static int getExpansion(LumpType type) {
+        switch (type) {
+            case LUMP_ENTITIES:
+            case LUMP_TEXDATA_STRING_DATA:
+                return EXPANSION_TEXT;
+
+            case LUMP_PLANES:
+            case LUMP_VERTEXES:
+            case LUMP_SURFEDGES:
+            case LUMP_TEXDATA_STRING_TABLE:
+                return EXPANSION_ARRAY;
+
+            case LUMP_EDGES:
+            case LUMP_LEAFFACES:
+            case LUMP_LEAFBRUSHES:
+                return EXPANSION_USHORT_ARRAY;
+
+            case LUMP_TEXDATA:
+            case LUMP_NODES:
+            case LUMP_TEXINFO:
+            case LUMP_FACES:
+            case LUMP_FACES_HDR:
+            case LUMP_OCCLUSION:
+            case LUMP_LEAFS:
+            case LUMP_MODELS:
+            case LUMP_BRUSHES:
+            case LUMP_BRUSHSIDES:
+            case LUMP_AREAPORTALS:
+            case LUMP_DISPINFO:
+            case LUMP_ORIGINALFACES:
+            case LUMP_DISP_VERTS:
+            case LUMP_DISP_TRIS:
+            case LUMP_DISP_MULTIBLEND:
+            case LUMP_CLIPPORTALVERTS:
+            case LUMP_CUBEMAPS:
+            case LUMP_OVERLAYS:
+            case LUMP_OVERLAY_FADES:
+            case LUMP_OVERLAY_SYSTEM_LEVELS:
+            case LUMP_MAP_FLAGS:
+                return EXPANSION_STRUCT;
+
+            default:
+                // not read by the decompiler
+                return 0;
+        }
+    }
+}
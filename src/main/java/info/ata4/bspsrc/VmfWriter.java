@@ -20,8 +20,11 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.Collections;
@@ -41,18 +44,25 @@ public class VmfWriter implements Closeable {
 
     private static final Logger L = LogUtils.getLogger();
 
+    public static final Charset CHARSET = StandardCharsets.US_ASCII;
+
     private final PrintWriter pw;
     private final Stack<String> section = new Stack<>();
+    private long sectionCount;
     private final DecimalFormat decimalFormat = new DecimalFormat("0.####", new DecimalFormatSymbols(Locale.ENGLISH));
 
     public VmfWriter(File file) throws FileNotFoundException, UnsupportedEncodingException {
-        pw = new PrintWriter(file, "US-ASCII");
+        pw = new PrintWriter(file, CHARSET.name());
     }
 
     public VmfWriter(OutputStream os) {
         pw = new PrintWriter(os);
     }
 
+    public VmfWriter(OutputStream os, Charset charset) {
+        pw = new PrintWriter(new OutputStreamWriter(os, charset));
+    }
+
     private void indent() {
         for (int i = 0; i < section.size(); i++) {
             pw.print("\t");
@@ -67,6 +77,7 @@ public class VmfWriter implements Closeable {
         pw.print("{\r\n");
 
         section.push(name);
+        sectionCount++;
     }
 
     public void end(String name) {
@@ -85,6 +96,15 @@ public class VmfWriter implements Closeable {
         pw.print("}\r\n");
     }
 
+    /**
+     * Returns the number of sections that have been started so far.
+     *
+     * @return number of written sections
+     */
+    public long getSectionCount() {
+        return sectionCount;
+    }
+
     public void put(String key, Object value) {
         indent();
         pw.printf("\"%s\" \"%s\"\r\n", key, value);
@@ -212,6 +232,10 @@ public class VmfWriter implements Closeable {
         return decimalFormat.format(f);
     }
 
+    public void flush() {
+        pw.flush();
+    }
+
     @Override
     public void close() {
         pw.close();
@@ -15,6 +15,8 @@ import info.ata4.bsplib.app.SourceAppDB;
 import info.ata4.bspsrc.BspFileEntry;
 import info.ata4.bspsrc.BspSource;
 import info.ata4.bspsrc.BspSourceConfig;
+import info.ata4.bspsrc.BspSourceWatcher;
+import info.ata4.bspsrc.DecompileManifest;
 import info.ata4.bspsrc.modules.geom.BrushMode;
 import info.ata4.bspsrc.util.SourceFormat;
 import info.ata4.log.LogUtils;
@@ -26,6 +28,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -58,9 +61,12 @@ public class BspSourceCli {
     private Option ntexfixOpt, ntooltexfixOpt, ftexOpt, bftexOpt;
     private Options optsTexture = new Options();
 
-    private Option nvmfOpt, nlumpfilesOpt, nprotOpt, appidOpt, nvisgrpOpt, ncamsOpt, formatOpt, unpackOpt, nsmartUnpackOpt;
+    private Option nvmfOpt, nlumpfilesOpt, nprotOpt, appidOpt, nvisgrpOpt, ncamsOpt, formatOpt, unpackOpt, nsmartUnpackOpt, threadsOpt, heapBudgetOpt, pipelineOpt, parallelLoadOpt, incrementalOpt, rebuildOpt, watchOpt, metricsOpt;
     private Options optsOther = new Options();
 
+    private Option serverOpt, serverPortOpt;
+    private Options optsServer = new Options();
+
     private MultiOptions optsAll = new MultiOptions();
 
     /**
@@ -181,6 +187,50 @@ public class BspSourceCli {
         optsOther.addOption(nsmartUnpackOpt = new Option("no_smart_unpack",
                 "Disable 'smart' extracting of embedded files.\n Smart extracting automatically skips all files " +
                         "generated by vbsp, that are only relevant to running the map in the engine."));
+        optsOther.addOption(threadsOpt = Option.builder("threads")
+                .hasArg()
+                .argName("int")
+                .desc("Number of maps to decompile in parallel.\n" +
+                        "default: " + config.threads)
+                .build());
+        optsOther.addOption(heapBudgetOpt = Option.builder("heap_budget")
+                .hasArg()
+                .argName("MB")
+                .desc("Maximum estimated heap usage of all maps that are decompiled in parallel.\n" +
+                        "default: 75% of the max heap size")
+                .build());
+        optsOther.addOption(pipelineOpt = new Option("pipeline",
+                "Load, decompile and write maps in separate stages that run concurrently. " +
+                        "Useful for large batches on slow storage."));
+        optsOther.addOption(parallelLoadOpt = new Option("parallel_load",
+                "Decode the lumps of each map in parallel. Speeds up loading of large maps on multi-core machines."));
+        optsOther.addOption(incrementalOpt = new Option("incremental",
+                "Skip maps whose VMF file has been created from the same BSP file with the same options. " +
+                        "Decompiled maps are recorded in a " + DecompileManifest.FILE_NAME + " file in the output directory."));
+        optsOther.addOption(rebuildOpt = new Option("rebuild",
+                "Decompile all maps in incremental mode, even if they are up to date."));
+        optsOther.addOption(metricsOpt = Option.builder("metrics")
+                .hasArg()
+                .argName("file")
+                .desc("Measure the time spent in each loading and decompiling phase and write a JSON report " +
+                        "for every map and the whole batch to the given file.")
+                .build());
+        optsOther.addOption(watchOpt = Option.builder("watch")
+                .hasArg()
+                .argName("dir")
+                .desc("Watch a directory and decompile BSP files as soon as they have been written. " +
+                        "Use -r to include subdirectories and -o to set an output directory.")
+                .build());
+
+        // server options
+        optsServer.addOption(serverOpt = new Option("server",
+                "Run as server that reads decompiling jobs from stdin, one per line. " +
+                        "Each line contains BSP files and options that override the ones given on the command line."));
+        optsServer.addOption(serverPortOpt = Option.builder("server_port")
+                .hasArg()
+                .argName("port")
+                .desc("Like -server, but reads the jobs from TCP connections on the loopback interface.")
+                .build());
 
         // all options
         optsAll.addOptions(optsMain)
@@ -188,7 +238,8 @@ public class BspSourceCli {
                 .addOptions(optsEntityMapping)
                 .addOptions(optsWorld)
                 .addOptions(optsTexture)
-                .addOptions(optsOther);
+                .addOptions(optsOther)
+                .addOptions(optsServer);
     }
 
     private void run(String[] args) throws IOException, BspSourceCliParseException, ParseException {
@@ -211,6 +262,16 @@ public class BspSourceCli {
             return;
         }
 
+        if (commandLine.hasOption(serverOpt.getOpt()) || commandLine.hasOption(serverPortOpt.getOpt())) {
+            runServer(commandLine);
+            return;
+        }
+
+        if (commandLine.hasOption(watchOpt.getOpt())) {
+            runWatcher(commandLine);
+            return;
+        }
+
         BspSourceConfig config = getConfig(commandLine);
         if (config.getFileSet().isEmpty()) {
             L.severe("No BSP file(s) specified");
@@ -220,6 +281,148 @@ public class BspSourceCli {
         }
     }
 
+    private void runServer(CommandLine commandLine) throws IOException, BspSourceCliParseException {
+        // pass all options except the server options on to the jobs
+        List<String> baseArgs = new ArrayList<>();
+        for (Option opt : commandLine.getOptions()) {
+            if (optsServer.hasOption(opt.getOpt())) {
+                continue;
+            }
+
+            baseArgs.add("-" + opt.getOpt());
+            if (opt.hasArg()) {
+                baseArgs.addAll(opt.getValuesList());
+            }
+        }
+
+        if (commandLine.hasOption(metricsOpt.getOpt()) || commandLine.hasOption(watchOpt.getOpt())) {
+            throw new BspSourceCliParseException("-" + metricsOpt.getOpt() + " and -" + watchOpt.getOpt()
+                    + " aren't supported in server mode");
+        }
+
+        BspSourceConfig baseConfig = getConfig(commandLine);
+        BspSourceServer server = new BspSourceServer(this, baseArgs, baseConfig);
+
+        try {
+            if (commandLine.hasOption(serverPortOpt.getOpt())) {
+                String portStr = commandLine.getOptionValue(serverPortOpt.getOpt());
+                int port;
+
+                try {
+                    port = Integer.parseInt(portStr);
+                } catch (NumberFormatException ex) {
+                    throw new BspSourceCliParseException("Invalid server port: " + portStr);
+                }
+
+                if (port < 0 || port > 0xffff) {
+                    throw new BspSourceCliParseException("Invalid server port: " + portStr);
+                }
+
+                server.serveTcp(port);
+            } else {
+                server.serveStdin();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWatcher(CommandLine commandLine) throws IOException, BspSourceCliParseException {
+        Path dir = Paths.get(commandLine.getOptionValue(watchOpt.getOpt()));
+
+        if (!Files.isDirectory(dir)) {
+            throw new BspSourceCliParseException("Invalid watch directory: " + dir);
+        }
+
+        File outputDir = null;
+
+        if (commandLine.hasOption(outputOpt.getOpt())) {
+            outputDir = new File(commandLine.getOptionValue(outputOpt.getOpt()));
+
+            if (!outputDir.isDirectory()) {
+                throw new BspSourceCliParseException("Invalid output directory: " + outputDir);
+            }
+        }
+
+        BspSourceConfig config = getConfig(commandLine);
+        BspSource bspsrc = new BspSource(config);
+        BspSourceWatcher watcher = new BspSourceWatcher(bspsrc, dir, outputDir,
+                commandLine.hasOption(recursiveOpt.getOpt()));
+
+        try {
+            watcher.watch();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parses the arguments of a server job into a new configuration, without
+     * changing the logging configuration.
+     * <p>
+     * Options of the job take precedence over the base options the server has
+     * been started with. A flag of the base options can be switched off with
+     * "-&lt;flag&gt;=false". Options that control the concurrency, the log
+     * level or the mode of the server apply to the whole server and can't be
+     * given per job.
+     *
+     * @param baseArgs options the server has been started with
+     * @param jobArgs job arguments
+     */
+    BspSourceConfig parseJobConfig(List<String> baseArgs, String[] jobArgs)
+            throws IOException, BspSourceCliParseException, ParseException {
+        List<String> args = new ArrayList<>();
+        Set<String> disabled = new HashSet<>();
+
+        for (String arg : jobArgs) {
+            if (arg.startsWith("-") && arg.endsWith("=false")) {
+                Option opt = optsAll.getOption(arg.substring(1, arg.length() - "=false".length()));
+
+                if (opt == null || opt.hasArg()) {
+                    throw new BspSourceCliParseException("Invalid flag: " + arg);
+                }
+
+                disabled.add("-" + opt.getOpt());
+            } else {
+                args.add(arg);
+            }
+        }
+
+        CommandLineParser parser = new DefaultParser();
+
+        for (Option opt : parser.parse(optsAll, args.toArray(new String[0])).getOptions()) {
+            if (isServerOption(opt)) {
+                throw new BspSourceCliParseException("Option -" + opt.getOpt() + " can't be used per job");
+            }
+        }
+
+        // job arguments come first so that their option values take
+        // precedence over the base arguments
+        baseArgs.stream()
+                .filter(arg -> !disabled.contains(arg))
+                .forEach(args::add);
+
+        BspSourceConfig config = getConfig(parser.parse(optsAll, args.toArray(new String[0])), false);
+
+        // the files of all jobs are decompiled on the threads of the server
+        config.threads = 1;
+        config.pipeline = false;
+
+        return config;
+    }
+
+    private boolean isServerOption(Option opt) {
+        return optsServer.hasOption(opt.getOpt())
+                || opt.equals(threadsOpt)
+                || opt.equals(heapBudgetOpt)
+                || opt.equals(pipelineOpt)
+                || opt.equals(metricsOpt)
+                || opt.equals(watchOpt)
+                || opt.equals(helpOpt)
+                || opt.equals(versionOpt)
+                || opt.equals(listappidsOpt);
+    }
+
     /**
      * Prints application usage, then exits the app.
      */
@@ -235,6 +438,7 @@ public class BspSourceCli {
         clHelp.printHelp("World brush options:", optsWorld);
         clHelp.printHelp("Texture options:", optsTexture);
         clHelp.printHelp("Other options:", optsOther);
+        clHelp.printHelp("Server options:", optsServer);
     }
 
     /**
@@ -263,12 +467,21 @@ public class BspSourceCli {
      * @param cl Command line arguments
      */
     public BspSourceConfig getConfig(CommandLine cl) throws IOException, BspSourceCliParseException {
+        return getConfig(cl, true);
+    }
+
+    private BspSourceConfig getConfig(CommandLine cl, boolean configureLogging)
+            throws IOException, BspSourceCliParseException {
         BspSourceConfig config = new BspSourceConfig();
 
         Set<BspFileEntry> files = new HashSet<>();
 
         // main options
-        config.setDebug(cl.hasOption(debugOpt.getOpt()));
+        if (configureLogging) {
+            config.setDebug(cl.hasOption(debugOpt.getOpt()));
+        } else {
+            config.setDebugOutput(cl.hasOption(debugOpt.getOpt()));
+        }
 
         File outputFile;
         if (cl.hasOption(outputOpt.getOpt())) {
@@ -350,6 +563,38 @@ public class BspSourceCli {
         config.unpackEmbedded = cl.hasOption(unpackOpt.getOpt());
         config.smartUnpack = !cl.hasOption(nsmartUnpackOpt.getOpt());
 
+        if (cl.hasOption(threadsOpt.getOpt())) {
+            String threadsStr = cl.getOptionValue(threadsOpt.getOpt());
+            try {
+                config.threads = Integer.parseInt(threadsStr);
+            } catch (NumberFormatException e) {
+                throw new BspSourceCliParseException("Invalid thread count: " + threadsStr);
+            }
+
+            if (config.threads < 1) {
+                throw new BspSourceCliParseException("Invalid thread count: " + threadsStr);
+            }
+        }
+
+        config.pipeline = cl.hasOption(pipelineOpt.getOpt());
+        config.parallelLoad = cl.hasOption(parallelLoadOpt.getOpt());
+        config.incremental = cl.hasOption(incrementalOpt.getOpt());
+        config.forceRebuild = cl.hasOption(rebuildOpt.getOpt());
+
+        if (cl.hasOption(metricsOpt.getOpt())) {
+            config.collectMetrics = true;
+            config.metricsFile = new File(cl.getOptionValue(metricsOpt.getOpt()));
+        }
+
+        if (cl.hasOption(heapBudgetOpt.getOpt())) {
+            String heapBudgetStr = cl.getOptionValue(heapBudgetOpt.getOpt());
+            try {
+                config.heapBudget = Long.parseLong(heapBudgetStr) << 20;
+            } catch (NumberFormatException e) {
+                throw new BspSourceCliParseException("Invalid heap budget: " + heapBudgetStr);
+            }
+        }
+
         if (cl.hasOption(appidOpt.getOpt())) {
             String appidStr = cl.getOptionValue(appidOpt.getOpt()).toUpperCase();
 
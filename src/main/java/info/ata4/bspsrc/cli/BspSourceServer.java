@@ -0,0 +1,283 @@
+package info.ata4.bspsrc.cli;
+
+import info.ata4.bsplib.app.SourceAppDB;
+import info.ata4.bspsrc.BspFileEntry;
+import info.ata4.bspsrc.BspSource;
+import info.ata4.bspsrc.BspSourceConfig;
+import info.ata4.bspsrc.DaemonThreadFactory;
+import info.ata4.bspsrc.DecompileManifest;
+import info.ata4.bspsrc.HeapBudget;
+import info.ata4.log.LogUtils;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-running decompiling service that keeps the JVM and all static data
+ * warm between jobs.
+ *
+ * Jobs are read line by line, either from stdin or from local TCP connections.
+ * Each line contains BSP files and options like the command line, which
+ * override the options the server has been started with. A flag the server has
+ * been started with can be switched off for a job with "-&lt;flag&gt;=false".
+ * The options -threads, -heap_budget, -pipeline, -metrics, -watch and the
+ * server options apply to the whole server and can't be given per job: the
+ * files of all jobs share the worker threads and the heap budget of the
+ * server. For each job, the server responds with these lines:
+ * <pre>
+ * &lt;id&gt; STARTED &lt;arguments&gt;
+ * &lt;id&gt; FINISHED &lt;files&gt; &lt;failed&gt; &lt;skipped&gt; &lt;seconds&gt;
+ * &lt;id&gt; ERROR &lt;message&gt;
+ * </pre>
+ * The line "quit" ends the current session, "shutdown" stops the server.
+ */
+public class BspSourceServer {
+
+    private static final Logger L = LogUtils.getLogger();
+
+    private static final String CMD_QUIT = "quit";
+    private static final String CMD_SHUTDOWN = "shutdown";
+
+    private final BspSourceCli cli;
+    private final List<String> baseArgs;
+    private final HeapBudget heapBudget;
+    // shared by all jobs so that jobs writing to the same directory don't
+    // overwrite each other's records
+    private final Map<File, DecompileManifest> manifests = new HashMap<>();
+    private final ExecutorService executor;
+    private final AtomicInteger jobCount = new AtomicInteger();
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * @param cli CLI used to parse the job arguments
+     * @param baseArgs arguments that are used for all jobs
+     * @param baseConfig config parsed from the base arguments, its thread count
+     *                   and heap budget are shared by all jobs
+     */
+    public BspSourceServer(BspSourceCli cli, List<String> baseArgs, BspSourceConfig baseConfig) {
+        this.cli = cli;
+        this.baseArgs = new ArrayList<>(baseArgs);
+        this.heapBudget = new HeapBudget(baseConfig.heapBudget);
+        this.executor = Executors.newFixedThreadPool(baseConfig.threads, new DaemonThreadFactory("bspsrc-worker-"));
+
+        // load static data now rather than in the first job
+        SourceAppDB.getInstance();
+    }
+
+    /**
+     * Reads jobs from stdin and writes responses to stdout until the input
+     * ends or the server is told to stop.
+     */
+    public void serveStdin() throws IOException, InterruptedException {
+        L.info("Reading jobs from stdin");
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+
+        serve(in, out);
+        shutdown();
+    }
+
+    /**
+     * Accepts jobs from TCP connections on the loopback interface until the
+     * server is told to stop.
+     *
+     * @param port TCP port
+     */
+    public void serveTcp(int port) throws IOException, InterruptedException {
+        try (ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            serverSocket = socket;
+
+            L.log(Level.INFO, "Listening for jobs on {0}", socket.getLocalSocketAddress());
+
+            while (!socket.isClosed()) {
+                Socket client;
+
+                try {
+                    client = socket.accept();
+                } catch (SocketException ex) {
+                    // closed by "shutdown"
+                    break;
+                }
+
+                Thread thread = new Thread(() -> serveClient(client), "bspsrc-client-" + client.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void serveClient(Socket client) {
+        L.log(Level.FINE, "Client connected: {0}", client.getRemoteSocketAddress());
+
+        try (
+            Socket socket = client;
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))
+        ) {
+            serve(in, out);
+        } catch (IOException ex) {
+            L.log(Level.WARNING, "Client connection error", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs all jobs of one session and waits for them to finish.
+     */
+    private void serve(BufferedReader in, PrintWriter out) throws IOException, InterruptedException {
+        List<CompletableFuture<?>> jobs = new ArrayList<>();
+
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            line = line.trim();
+
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            if (line.equals(CMD_QUIT)) {
+                break;
+            }
+
+            if (line.equals(CMD_SHUTDOWN)) {
+                if (serverSocket != null) {
+                    serverSocket.close();
+                }
+                break;
+            }
+
+            int id = jobCount.incrementAndGet();
+            jobs.removeIf(CompletableFuture::isDone);
+            jobs.add(startJob(id, splitArgs(line), out));
+        }
+
+        for (CompletableFuture<?> job : jobs) {
+            try {
+                job.get();
+            } catch (ExecutionException ex) {
+                L.log(Level.SEVERE, "Job error", ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Queues all files of a job on the worker threads.
+     *
+     * @return future that completes once the job has been finished
+     */
+    private CompletableFuture<?> startJob(int id, String[] jobArgs, PrintWriter out) {
+        respond(out, id, "STARTED " + String.join(" ", jobArgs));
+
+        long startTime = System.currentTimeMillis();
+        BspSourceConfig config;
+
+        try {
+            config = cli.parseJobConfig(baseArgs, jobArgs);
+        } catch (Exception ex) {
+            L.log(Level.FINE, "Job " + id + " failed", ex);
+            respond(out, id, "ERROR " + ex.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (config.getFileSet().isEmpty()) {
+            respond(out, id, "ERROR no BSP file(s) specified");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        BspSource bspsrc = new BspSource(config, heapBudget, manifests);
+        List<CompletableFuture<?>> files = new ArrayList<>();
+
+        try {
+            for (BspFileEntry entry : config.getFileSet()) {
+                files.add(CompletableFuture.runAsync(() -> decompile(bspsrc, entry), executor));
+            }
+        } catch (RejectedExecutionException ex) {
+            respond(out, id, "ERROR server is shutting down");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return CompletableFuture.allOf(files.toArray(new CompletableFuture[0])).whenComplete((result, ex) -> {
+            if (ex != null) {
+                L.log(Level.FINE, "Job " + id + " failed", ex);
+                respond(out, id, "ERROR " + ex.getMessage());
+                return;
+            }
+
+            double duration = (System.currentTimeMillis() - startTime) / 1000.0;
+            respond(out, id, String.format("FINISHED %d %d %d %.4f", config.getFileSet().size(),
+                    bspsrc.getFailedCount(), bspsrc.getSkippedCount(), duration));
+        });
+    }
+
+    private void decompile(BspSource bspsrc, BspFileEntry entry) {
+        try {
+            bspsrc.decompileFile(entry);
+        } catch (InterruptedException ex) {
+            L.log(Level.WARNING, "Decompiling of {0} interrupted", entry);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void respond(PrintWriter out, int id, String message) {
+        synchronized (out) {
+            out.print(id);
+            out.print(' ');
+            out.print(message.replace('\n', ' ').replace('\r', ' '));
+            out.print('\n');
+            out.flush();
+        }
+    }
+
+    private void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Splits a job line into arguments. Arguments that contain whitespace can
+     * be enclosed in double quotes.
+     */
+    static String[] splitArgs(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        boolean token = false;
+
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                token = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (token) {
+                    args.add(sb.toString());
+                    sb.setLength(0);
+                    token = false;
+                }
+            } else {
+                sb.append(c);
+                token = true;
+            }
+        }
+
+        if (token) {
+            args.add(sb.toString());
+        }
+
+        return args.toArray(new String[0]);
+    }
+}
@@ -11,6 +11,7 @@
 package info.ata4.bspsrc.gui;
 
 import info.ata4.log.ConsoleFormatter;
+import info.ata4.log.ContextFormatter;
 import info.ata4.util.gui.TextAreaHandler;
 import java.util.logging.Logger;
 
@@ -29,7 +30,7 @@ public class BspSourceLogFrame extends javax.swing.JFrame {
     public BspSourceLogFrame() {
         initComponents();
         handler = new TextAreaHandler(messageTextArea, errorTextArea);
-        handler.setFormatter(new ConsoleFormatter());
+        handler.setFormatter(new ContextFormatter(new ConsoleFormatter()));
     }
 
     public void setLogging(boolean logging) {
@@ -10,16 +10,14 @@
 package info.ata4.bspsrc.modules;
 
 import info.ata4.bsplib.BspFileReader;
+import info.ata4.bsplib.PakFile;
 import info.ata4.bsplib.lump.LumpType;
 import info.ata4.bsplib.struct.LevelFlag;
 import info.ata4.log.LogUtils;
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipFile;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -47,10 +45,8 @@ public class BspCompileParams extends ModuleRead {
         boolean stale = false;
         boolean hasVhv = false;
 
-        try (ZipFile zip = bspFile.getPakFile().getZipFile()) {
-            Enumeration<ZipArchiveEntry> enumeration = zip.getEntries();
-            while (enumeration.hasMoreElements()) {
-                ZipArchiveEntry ze = enumeration.nextElement();
+        try {
+            for (PakFile.Entry ze : bspFile.getPakFile().getEntries()) {
 
                 // check for stale.txt, which marks possibly screwed up maps
                 if (ze.getName().equals("stale.txt")) {
@@ -11,8 +11,10 @@
 package info.ata4.bspsrc.modules;
 
 import info.ata4.bsplib.BspFileReader;
+import info.ata4.bsplib.LumpGroup;
 import info.ata4.bsplib.app.SourceAppID;
 import info.ata4.bsplib.nmo.NmoFile;
+import info.ata4.bsplib.util.Metrics;
 import info.ata4.bspsrc.BspSource;
 import info.ata4.bspsrc.BspSourceConfig;
 import info.ata4.bspsrc.VmfWriter;
@@ -24,7 +26,9 @@ import info.ata4.bspsrc.modules.texture.TextureSource;
 import info.ata4.bspsrc.util.WindingFactory;
 import info.ata4.log.LogUtils;
 
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,17 +54,65 @@ public class BspDecompiler extends ModuleDecompile {
     public BspDecompiler(BspFileReader reader, VmfWriter writer, BspSourceConfig config) {
         super(reader, writer);
 
-        WindingFactory.clearCache();
+        WindingFactory.clearCache(reader.getData());
 
         this.config = config;
 
-        texsrc = new TextureSource(reader);
+        try (Metrics.Timer timer = Metrics.time("textureSource")) {
+            texsrc = new TextureSource(reader);
+        }
+
         bspprot = new BspProtection(reader, texsrc);
         vmfmeta = new VmfMeta(reader, writer);
         brushsrc = new BrushSource(reader, writer, config, texsrc, bspprot, vmfmeta);
         facesrc = new FaceSource(reader, writer, config, texsrc, vmfmeta);
-        entsrc = new EntitySource(reader, writer, config, brushsrc, facesrc,
-                texsrc, bspprot, vmfmeta);
+
+        try (Metrics.Timer timer = Metrics.time("entitySource")) {
+            entsrc = new EntitySource(reader, writer, config, brushsrc, facesrc,
+                    texsrc, bspprot, vmfmeta);
+        }
+    }
+
+    /**
+     * Returns the lump groups that need to be loaded to decompile a map with
+     * the given config, including all groups they depend on.
+     *
+     * @param config decompiling config
+     * @return set of required lump groups
+     */
+    public static Set<LumpGroup> getRequiredLumps(BspSourceConfig config) {
+        // nothing is decompiled without output, the map is only inventoried
+        if (config.nullOutput) {
+            return LumpDependencies.resolve(EnumSet.of(LumpGroup.ENTITIES));
+        }
+
+        // used by the sub-modules in any case
+        Set<LumpGroup> groups = EnumSet.of(
+                LumpGroup.ENTITIES,
+                LumpGroup.TEX_INFO,
+                LumpGroup.CUBEMAPS,
+                LumpGroup.ORIGINAL_FACES,
+                LumpGroup.MODELS,
+                LumpGroup.AREAPORTALS,
+                LumpGroup.OCCLUDERS,
+                LumpGroup.DISP_INFOS
+        );
+
+        if (config.writeDisp && (config.writeWorldBrushes || config.writeBrushEntities)) {
+            groups.add(LumpGroup.DISP_VERTICES);
+            groups.add(LumpGroup.DISP_TRIANGLE_TAGS);
+            groups.add(LumpGroup.DISP_MULTIBLEND);
+        }
+
+        if (config.writePointEntities && config.writeOverlays) {
+            groups.add(LumpGroup.OVERLAYS);
+        }
+
+        if (config.writePointEntities && config.writeStaticProps) {
+            groups.add(LumpGroup.STATIC_PROPS);
+        }
+
+        return LumpDependencies.resolve(groups);
     }
 
     /**
@@ -80,7 +132,9 @@ public class BspDecompiler extends ModuleDecompile {
 
         // check for protection and warn if the map has been protected
         if (!config.skipProt) {
-            checkProtection();
+            try (Metrics.Timer timer = Metrics.time("protectionCheck")) {
+                checkProtection();
+            }
         }
 
         // set comment
@@ -91,7 +145,7 @@ public class BspDecompiler extends ModuleDecompile {
 
         // write brushes and displacements
         if (config.writeWorldBrushes) {
-            writeBrushes();
+            measure("writeBrushes", this::writeBrushes);
         }
 
         // end worldspawn
@@ -159,34 +213,46 @@ public class BspDecompiler extends ModuleDecompile {
 
     private void writeEntities() {
         if (config.isWriteEntities()) {
-            entsrc.writeEntities();
+            measure("writeEntities", entsrc::writeEntities);
         }
 
         if (config.writeBrushEntities && config.writeDetails
                 && config.brushMode == BrushMode.BRUSHPLANES) {
-            entsrc.writeDetails();
+            measure("writeDetails", entsrc::writeDetails);
         }
 
         if (config.writePointEntities) {
             if (config.writeOverlays) {
-                entsrc.writeOverlays();
+                measure("writeOverlays", entsrc::writeOverlays);
             }
 
             if (config.writeStaticProps) {
-                entsrc.writeStaticProps();
+                measure("writeStaticProps", entsrc::writeStaticProps);
             }
 
             if (config.writeCubemaps) {
-                entsrc.writeCubemaps();
+                measure("writeCubemaps", entsrc::writeCubemaps);
             }
 
             // Only write func_ladder if game is not csgo. Cso doesn't use the func_ladder entity
             if (config.writeLadders && bspFile.getSourceApp().getAppID() != SourceAppID.COUNTER_STRIKE_GO) {
-                entsrc.writeLadders();
+                measure("writeLadders", entsrc::writeLadders);
             }
         }
     }
 
+    /**
+     * Runs a writing phase and records its time and the number of VMF
+     * sections it has written in the current metrics.
+     */
+    private void measure(String phase, Runnable writeMethod) {
+        try (Metrics.Timer timer = Metrics.time(phase)) {
+            long sections = writer.getSectionCount();
+            writeMethod.run();
+            timer.addObjects(writer.getSectionCount() - sections);
+        }
+    }
+
     /**
      * @see EntitySource#setNmo(NmoFile)
      */
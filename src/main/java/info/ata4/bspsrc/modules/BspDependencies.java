@@ -118,30 +118,30 @@ public class BspDependencies extends ModuleRead {
     public Set<String> getSoundScripts() {
         Set<String> soundScripts = new TreeSet<>();
 
-        for (Entity ent : bsp.entities) {
-            for (Map.Entry<String, String> kv : ent.getEntrySet()) {
+        for (String key : bsp.entityIndex.getKeys()) {
+            // heuristic soundscript detection
+            if (!key.contains("sound") && !key.contains("noise")) {
+                continue;
+            }
+
+            for (Entity ent : bsp.entityIndex.getByKey(key)) {
                 // soundscapes are not our job
                 if (ent.getClassName().equals("env_soundscape")) {
                     continue;
                 }
 
-                String key = kv.getKey();
-                String value = kv.getValue();
-
-                // heuristic soundscript detection
-                if (key.contains("sound") || key.contains("noise")) {
-                    // ignore empty strings, scripted sentences and numeric values
-                    if (value == null
-                            || value.length() == 0
-                            || value.startsWith("!")
-                            || value.matches("^-?[0-9]+$")) {
-                        continue;
-                    }
+                String value = ent.getValue(key);
 
-                    soundScripts.add(value);
+                // ignore empty strings, scripted sentences and numeric values
+                if (value == null
+                        || value.length() == 0
+                        || value.startsWith("!")
+                        || value.matches("^-?[0-9]+$")) {
+                    continue;
                 }
-            }
 
+                soundScripts.add(value);
+            }
         }
 
         return soundScripts;
@@ -150,10 +150,8 @@ public class BspDependencies extends ModuleRead {
     public Set<String> getSoundscapes() {
         Set<String> soundScapes = new TreeSet<>();
 
-        for (Entity ent : bsp.entities) {
-            if (ent.getClassName().equals("env_soundscape")) {
-                soundScapes.add(ent.getValue("soundscape"));
-            }
+        for (Entity ent : bsp.entityIndex.getByClass("env_soundscape")) {
+            soundScapes.add(ent.getValue("soundscape"));
         }
 
         return soundScapes;
@@ -162,11 +160,9 @@ public class BspDependencies extends ModuleRead {
     public Set<String> getParticles() {
         Set<String> particles = new TreeSet<>();
 
-        for (Entity ent : bsp.entities) {
+        for (Entity ent : bsp.entityIndex.getByClass("info_particle_system")) {
             try {
-                if (ent.getClassName().equals("info_particle_system")) {
-                    particles.add(ent.getValue("effect_name"));
-                }
+                particles.add(ent.getValue("effect_name"));
             } catch (NullPointerException ex) {
             }
         }
@@ -14,13 +14,12 @@ import info.ata4.bsplib.BspFileReader;
 import info.ata4.bsplib.entity.Entity;
 import info.ata4.bsplib.struct.DBrush;
 import info.ata4.bsplib.struct.DBrushSide;
-import info.ata4.bsplib.struct.DPlane;
+import info.ata4.bsplib.struct.DStructView;
 import info.ata4.bsplib.vector.Vector3f;
 import info.ata4.bspsrc.modules.geom.BrushUtils;
 import info.ata4.bspsrc.modules.texture.TextureSource;
 import info.ata4.bspsrc.modules.texture.ToolTexture;
 import info.ata4.log.LogUtils;
-import org.apache.commons.compress.archivers.zip.ZipFile;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -61,6 +60,10 @@ public class BspProtection extends ModuleRead {
     // sub-modules
     private final TextureSource texsrc;
 
+    // brush sides are decoded on demand from the lump buffer
+    private final DStructView<? extends DBrushSide> brushSides;
+    private final DStructView<? extends DBrushSide>.Cursor brushSide;
+
     // flags
     private boolean flaggedEnt;
     private boolean flaggedTex;
@@ -79,9 +82,11 @@ public class BspProtection extends ModuleRead {
         reader.loadEntities();
         reader.loadPlanes();
         reader.loadBrushes();
-        reader.loadBrushSides();
 
         this.texsrc = texsrc;
+
+        brushSides = reader.viewBrushSides();
+        brushSide = brushSides.cursor();
     }
 
     public boolean check() {
@@ -227,7 +232,7 @@ public class BspProtection extends ModuleRead {
             }
 
             // get brush dimensions
-            Vector3f bsize = BrushUtils.getBounds(bsp, b).getSize();
+            Vector3f bsize = BrushUtils.getBounds(bsp, brushSides, b).getSize();
 
             // check brush dimensions with prefab constants
             if (PB1.sub(bsize).length() < EPS_SIZE) {
@@ -261,13 +266,15 @@ public class BspProtection extends ModuleRead {
 
         double nodrawSides = 0;
 
-        for (DBrushSide bs : bsp.brushSides) {
-            if (bs.texinfo == 0) {
+        DStructView<? extends DBrushSide>.Cursor cursor = brushSides.cursor();
+
+        while (cursor.next()) {
+            if (cursor.get().texinfo == 0) {
                 nodrawSides++;
             }
         }
 
-        double nodrawRatio = nodrawSides / bsp.brushSides.size();
+        double nodrawRatio = nodrawSides / brushSides.size();
 
         // check if there're too many nodraw brush sides
         modifedTexinfo = nodrawRatio > NODRAW_RATIO_LIMIT;
@@ -282,7 +289,10 @@ public class BspProtection extends ModuleRead {
         int targetnames = 0;
         int targetnamesObfs = 0;
 
-        for (Entity ent : bsp.entities) {
+        // the index only lists entities that had a targetname when loading,
+        // but getTargetName() returns the current value, or null if the key
+        // has been removed since
+        for (Entity ent : bsp.entityIndex.getByKey("targetname")) {
             String targetName = ent.getTargetName();
 
             // check for obfuscated target names
@@ -293,14 +303,15 @@ public class BspProtection extends ModuleRead {
                     targetnamesObfs++;
                 }
             }
+        }
 
-            // search for no_decomp entity property
-            for (String key : ent.getKeys()) {
-                if (key.equals(VMEX_LOCKED_ENT)) {
-                    L.fine("Found lock key!");
-                    protEntities.add(ent);
-                    flaggedEnt = true;
-                }
+        // search for no_decomp entity property, which may have been removed
+        // since the index has been built
+        for (Entity ent : bsp.entityIndex.getByKey(VMEX_LOCKED_ENT)) {
+            if (ent.hasKey(VMEX_LOCKED_ENT)) {
+                L.fine("Found lock key!");
+                protEntities.add(ent);
+                flaggedEnt = true;
             }
         }
 
@@ -342,8 +353,8 @@ public class BspProtection extends ModuleRead {
             return;
         }
 
-        try (ZipFile zip = bspFile.getPakFile().getZipFile()) {
-            if (zip.getEntries(BSPPROTECT_FILE).iterator().hasNext()) {
+        try {
+            if (bspFile.getPakFile().exists(BSPPROTECT_FILE)) {
                 L.fine("Found encrypted entities!");
                 encryptedEnt = true;
             }
@@ -367,10 +378,10 @@ public class BspProtection extends ModuleRead {
         }
 
         for (int i = 0; i < 6; i++) {
-            DBrushSide bs = bsp.brushSides.get(brush.fstside + i);
-            DPlane bpl = bsp.planes.get(bs.pnum);
+            DBrushSide bs = brushSide.moveTo(brush.fstside + i);
+            Vector3f normal = bsp.planes.getNormal(bs.pnum);
 
-            for (float value : bpl.normal) {
+            for (float value : normal) {
                 if (Math.abs(value) > ALIGNED_ALPHA) {
                     return true;
                 }
@@ -387,7 +398,7 @@ public class BspProtection extends ModuleRead {
      * @return true if all brush sides share the same texture
      */
     private boolean isSameTexBrush(DBrush brush) {
-        DBrushSide bs = bsp.brushSides.get(brush.fstside);
+        DBrushSide bs = brushSide.moveTo(brush.fstside);
         String texname = texsrc.getTextureName(bs.texinfo);
 
         if (texname.equals(ToolTexture.SKIP)) {
@@ -396,7 +407,7 @@ public class BspProtection extends ModuleRead {
         }
 
         for (int i = 1; i < brush.numside; i++) {
-            bs = bsp.brushSides.get(brush.fstside + i);
+            bs = brushSide.moveTo(brush.fstside + i);
             String nexttexname = texsrc.getTextureName(bs.texinfo);
 
             if (!texname.equalsIgnoreCase(nexttexname)) {
@@ -0,0 +1,84 @@
+package info.ata4.bspsrc.modules;
+
+import info.ata4.bsplib.LumpGroup;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import static info.ata4.bsplib.LumpGroup.*;
+
+/**
+ * Dependency graph between lump groups. A group depends on another one if
+ * the decompiling modules can't use its data without the data of the other
+ * group, like faces that reference their vertices through edges and surface
+ * edges.
+ */
+public class LumpDependencies {
+
+    private static final Map<LumpGroup, Set<LumpGroup>> DEPENDENCIES = new EnumMap<>(LumpGroup.class);
+
+    static {
+        depends(FACES, VERTICES, EDGES, SURFACE_EDGES, PLANES, TEX_INFO);
+        depends(ORIGINAL_FACES, FACES);
+        depends(MODELS, NODES, FACES, BRUSHES);
+        depends(NODES, PLANES, LEAVES);
+        depends(LEAVES, LEAF_FACES, LEAF_BRUSHES);
+        depends(BRUSHES, BRUSH_SIDES);
+        depends(BRUSH_SIDES, PLANES, TEX_INFO);
+        depends(TEX_INFO, TEX_DATA);
+        depends(OCCLUDERS, VERTICES, BRUSHES, MODELS);
+        depends(AREAPORTALS, CLIP_PORTAL_VERTICES, PLANES, BRUSHES, MODELS);
+        depends(DISP_INFOS, FACES);
+        depends(DISP_VERTICES, DISP_INFOS);
+        depends(DISP_TRIANGLE_TAGS, DISP_INFOS);
+        depends(DISP_MULTIBLEND, DISP_INFOS);
+        depends(OVERLAYS, FACES, TEX_INFO);
+        depends(CUBEMAPS, TEX_DATA);
+    }
+
+    private LumpDependencies() {
+    }
+
+    private static void depends(LumpGroup group, LumpGroup... dependencies) {
+        Set<LumpGroup> set = DEPENDENCIES.computeIfAbsent(group, key -> EnumSet.noneOf(LumpGroup.class));
+        Collections.addAll(set, dependencies);
+    }
+
+    /**
+     * Returns the direct dependencies of a lump group.
+     *
+     * @param group lump group
+     * @return set of lump groups that are required by the group
+     */
+    public static Set<LumpGroup> getDependencies(LumpGroup group) {
+        return Collections.unmodifiableSet(DEPENDENCIES.getOrDefault(group, EnumSet.noneOf(LumpGroup.class)));
+    }
+
+    /**
+     * Returns the given lump groups and all groups they depend on, directly
+     * or indirectly.
+     *
+     * @param groups lump groups
+     * @return set of all required lump groups
+     */
+    public static Set<LumpGroup> resolve(Collection<LumpGroup> groups) {
+        Set<LumpGroup> resolved = EnumSet.noneOf(LumpGroup.class);
+        Deque<LumpGroup> pending = new ArrayDeque<>(groups);
+
+        while (!pending.isEmpty()) {
+            LumpGroup group = pending.pop();
+
+            if (resolved.add(group)) {
+                pending.addAll(getDependencies(group));
+            }
+        }
+
+        return resolved;
+    }
+}
@@ -14,11 +14,13 @@ import info.ata4.bsplib.BspFileReader;
 import info.ata4.bsplib.app.SourceAppID;
 import info.ata4.bsplib.entity.Entity;
 import info.ata4.bsplib.entity.EntityIO;
+import info.ata4.bsplib.entity.EntityIndex;
 import info.ata4.bsplib.entity.KeyValue;
 import info.ata4.bsplib.nmo.NmoAntiObjective;
 import info.ata4.bsplib.nmo.NmoFile;
 import info.ata4.bsplib.nmo.NmoObjective;
 import info.ata4.bsplib.struct.*;
+import info.ata4.bsplib.util.Metrics;
 import info.ata4.bsplib.vector.Vector3f;
 import info.ata4.bspsrc.BspSourceConfig;
 import info.ata4.bspsrc.VmfWriter;
@@ -93,11 +95,17 @@ public class EntitySource extends ModuleDecompile {
 
         processEntities();
 
-        areaportalMapper = new AreaportalMapper(bsp, config);
-        apBrushMap = areaportalMapper.getApBrushMapping();
+        try (Metrics.Timer timer = Metrics.time("areaportalMapper")) {
+            areaportalMapper = new AreaportalMapper(bsp, config);
+            apBrushMap = areaportalMapper.getApBrushMapping();
+            timer.addObjects(apBrushMap.size());
+        }
 
-        occluderMapper = new OccluderMapper(bsp, config);
-        occBrushesMap = occluderMapper.getOccBrushMapping();
+        try (Metrics.Timer timer = Metrics.time("occluderMapper")) {
+            occluderMapper = new OccluderMapper(bsp, config);
+            occBrushesMap = occluderMapper.getOccBrushMapping();
+            timer.addObjects(occBrushesMap.size());
+        }
 
         // Because the Texturebuilder needs to know which brush is a occluder we flag them here. (The Texturebuilder needs to know this information, because the brushside that represents the occluder has almost always the wrong tooltexture applied, which we need to fix)
         occBrushesMap.values().forEach(brushIndexes -> brushIndexes.forEach(index -> bsp.brushes.get(index).flagAsOccluder(true)));
@@ -953,45 +961,47 @@ public class EntitySource extends ModuleDecompile {
     }
 
     private void processEntities() {
-        for (Entity ent : bsp.entities) {
-            String className = ent.getClassName();
-
-            // fix worldspawn
-            if (className.equals("worldspawn")) {
-                // remove values that are unknown to Hammer
-                ent.removeValue("world_mins");
-                ent.removeValue("world_maxs");
-                ent.removeValue("hammerid");
-
-                // rebuild mapversion
-                if (!ent.hasKey("mapversion")) {
-                    ent.setValue("mapversion", bspFile.getRevision());
-                }
+        EntityIndex index = bsp.entityIndex;
+
+        // fix worldspawn
+        for (Entity ent : index.getByClass("worldspawn")) {
+            // remove values that are unknown to Hammer
+            ent.removeValue("world_mins");
+            ent.removeValue("world_maxs");
+            ent.removeValue("hammerid");
+
+            // rebuild mapversion
+            if (!ent.hasKey("mapversion")) {
+                ent.setValue("mapversion", bspFile.getRevision());
             }
+        }
 
-            // convert VMF format if requested
-            if (config.sourceFormat != SourceFormat.AUTO) {
-                char srcSep;
-                char dstSep;
+        // convert VMF format if requested
+        if (config.sourceFormat != SourceFormat.AUTO) {
+            char srcSep;
+            char dstSep;
 
-                if (config.sourceFormat == SourceFormat.NEW) {
-                    srcSep = EntityIO.SEP_CHR_OLD;
-                    dstSep = EntityIO.SEP_CHR_NEW;
-                } else {
-                    srcSep = EntityIO.SEP_CHR_NEW;
-                    dstSep = EntityIO.SEP_CHR_OLD;
-                }
+            if (config.sourceFormat == SourceFormat.NEW) {
+                srcSep = EntityIO.SEP_CHR_OLD;
+                dstSep = EntityIO.SEP_CHR_NEW;
+            } else {
+                srcSep = EntityIO.SEP_CHR_NEW;
+                dstSep = EntityIO.SEP_CHR_OLD;
+            }
 
+            for (Entity ent : bsp.entities) {
                 for (KeyValue kv : ent.getIO()) {
                     String value = kv.getValue();
                     value = value.replace(srcSep, dstSep);
                     kv.setValue(value);
                 }
             }
+        }
 
-            // replace escaped quotes for VTMB so they can be loaded with the
-            // inofficial SDK Hammer
-            if (bspFile.getSourceApp().getAppID() == SourceAppID.VAMPIRE_BLOODLINES) {
+        // replace escaped quotes for VTMB so they can be loaded with the
+        // inofficial SDK Hammer
+        if (bspFile.getSourceApp().getAppID() == SourceAppID.VAMPIRE_BLOODLINES) {
+            for (Entity ent : bsp.entities) {
                 for (Map.Entry<String, String> kv : ent.getEntrySet()) {
                     String value = kv.getValue();
                     value = value.replace("\\\"", "");
@@ -1004,31 +1014,34 @@ public class EntitySource extends ModuleDecompile {
                     kv.setValue(value);
                 }
             }
+        }
 
-            // func_simpleladder entities are used by the engine only and won't
-            // work when re-compiling, so replace them with empty func_ladder's
-            // instead.
-            if (className.equals("func_simpleladder")) {
-                int modelNum = ent.getModelNum();
+        // func_simpleladder entities are used by the engine only and won't
+        // work when re-compiling, so replace them with empty func_ladder's
+        // instead.
+        for (Entity ent : index.getByClass("func_simpleladder")) {
+            int modelNum = ent.getModelNum();
 
-                ent.clear();
-                ent.setClassName("func_ladder");
-                ent.setModelNum(modelNum);
-            }
+            ent.clear();
+            ent.setClassName("func_ladder");
+            ent.setModelNum(modelNum);
+        }
 
-            // fix light entities (except for dynamic lights)
-            if (className.startsWith("light")
-                    && !className.equals("light_dynamic")) {
+        // fix light entities (except for dynamic lights)
+        for (Entity ent : index.getByClassPrefix("light")) {
+            if (!ent.getClassName().equals("light_dynamic")) {
                 fixLightEntity(ent);
             }
+        }
 
-            // add cameras based on info_player_* positions
-            if (className.startsWith("info_player_")) {
-                createCamera(ent);
-            }
+        // add cameras based on info_player_* positions
+        for (Entity ent : index.getByClassPrefix("info_player_")) {
+            createCamera(ent);
+        }
 
-            // add hammerid to UID blacklist to make sure they're not generated
-            // for anything else
+        // add hammerid to UID blacklist to make sure they're not generated
+        // for anything else
+        for (Entity ent : index.getByKey("hammerid")) {
             int hammerid = getHammerID(ent);
             if (hammerid != -1) {
                 vmfmeta.getUIDBlackList().add(hammerid);
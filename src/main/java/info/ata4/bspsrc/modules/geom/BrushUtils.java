@@ -11,9 +11,12 @@ package info.ata4.bspsrc.modules.geom;
 
 import info.ata4.bsplib.struct.BspData;
 import info.ata4.bsplib.struct.DBrush;
+import info.ata4.bsplib.struct.DBrushSide;
 import info.ata4.bspsrc.util.AABB;
 import info.ata4.bspsrc.util.WindingFactory;
 
+import java.util.List;
+
 /**
  * Brush utility class.
  * 
@@ -40,4 +43,21 @@ public class BrushUtils {
         }
         return bounds;
     }
+
+    /**
+     * Returns the bounding box of a brush with the brush sides taken from a
+     * list other than the one in the BSP data, like a struct view.
+     *
+     * @param bsp bsp data
+     * @param brushSides brush sides of the map
+     * @param brush a brush
+     * @return the bounding box of the brush
+     */
+    public static AABB getBounds(BspData bsp, List<? extends DBrushSide> brushSides, DBrush brush) {
+        AABB bounds = new AABB();
+        for (int i = 0; i < brush.numside; i++) {
+            bounds = bounds.include(WindingFactory.fromSide(bsp, brushSides, brush, i).getBounds());
+        }
+        return bounds;
+    }
 }
@@ -191,8 +191,7 @@ public class AreaportalMapper {
 
         //In debug mode we write all probabilities to the entities for debugging
         if (config.isDebug()) {
-            bsp.entities.stream()
-                    .filter(entity -> entity.getClassName().startsWith("func_areaportal"))
+            bsp.entityIndex.getByClassPrefix("func_areaportal")
                     .forEach(entity -> {
                         try {
                             int portalId = Integer.parseInt(entity.getValue("portalnumber"));
@@ -13,10 +13,7 @@ import info.ata4.bsplib.struct.*;
 import info.ata4.bsplib.vector.Vector3f;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
@@ -26,21 +23,26 @@ import java.util.stream.Collectors;
  */
 public class WindingFactory {
 
-    private static Map<DFace, Winding> faceCache = new HashMap<>();
-    private static Map<Map.Entry<DBrush, DBrushSide>, Winding> brushSideCache = new HashMap<>();
-    private static Map<DAreaportal, Winding> areaportalCache = new HashMap<>();
-    private static Map<DOccluderPolyData, Winding> occluderCache = new HashMap<>();
-    private static Map<DPlane, Winding> planeCache = new HashMap<>();
-
     private WindingFactory() {
     }
 
-    public static void clearCache() {
-        faceCache.clear();
-        brushSideCache.clear();
-        areaportalCache.clear();
-        occluderCache.clear();
-        planeCache.clear();
+    private static Cache getCache(BspData bsp) {
+        // the cache is kept in the BSP data of each map, so concurrent jobs
+        // don't share a cache or a lock
+        Cache cache = (Cache) bsp.caches.get(Cache.class);
+        if (cache == null) {
+            cache = (Cache) bsp.caches.computeIfAbsent(Cache.class, key -> new Cache());
+        }
+        return cache;
+    }
+
+    /**
+     * Clears all cached windings that were created for the given BSP data.
+     *
+     * @param bsp BSP data
+     */
+    public static void clearCache(BspData bsp) {
+        bsp.caches.remove(Cache.class);
     }
 
     /**
@@ -52,6 +54,7 @@ public class WindingFactory {
      * @return Winding for the face
      */
     public static Winding fromFace(BspData bsp, DFace face) {
+        Map<DFace, Winding> faceCache = getCache(bsp).faceCache;
         if (faceCache.containsKey(face)) {
             return faceCache.get(face);
         }
@@ -64,13 +67,13 @@ public class WindingFactory {
 
             if (sedge < 0) {
                 // backwards wound edge
-                v = bsp.edges.get(-sedge).v[1];
+                v = bsp.edges.getV1(-sedge);
             } else {
                 // forwards wound edge
-                v = bsp.edges.get(sedge).v[0];
+                v = bsp.edges.getV0(sedge);
             }
 
-            verts.add(bsp.verts.get(v).point);
+            verts.add(bsp.verts.getPoint(v));
         }
 
         Winding w = new Winding(verts);
@@ -91,6 +94,7 @@ public class WindingFactory {
      * @return Winding for the brush side
      */
     public static Winding fromSide(BspData bsp, DBrush brush, DBrushSide bside) {
+        Map<Map.Entry<DBrush, DBrushSide>, Winding> brushSideCache = getCache(bsp).brushSideCache;
         ImmutablePair<DBrush, DBrushSide> key = ImmutablePair.of(brush, bside);
         if (brushSideCache.containsKey(key)) {
             return brushSideCache.get(key);
@@ -99,7 +103,7 @@ public class WindingFactory {
         int iplane = bside.pnum;
         boolean hasSide = false;
 
-        Winding w = fromPlane(bsp.planes.get(iplane));
+        Winding w = fromPlane(bsp, iplane);
 
         // clip to all other planes
         for (int i = 0; i < brush.numside; i++) {
@@ -119,11 +123,9 @@ public class WindingFactory {
 
             // remove everything behind the plane
             int iplane2 = bside2.pnum;
-            DPlane plane = bsp.planes.get(iplane2);
-            DPlane flipPlane = new DPlane();
-            flipPlane.normal = plane.normal.scalar(-1);
-            flipPlane.dist = -plane.dist;
-            w = w.clipPlane(flipPlane, false);
+            Vector3f flipNormal = bsp.planes.getNormal(iplane2).scalar(-1);
+            float flipDist = -bsp.planes.getDist(iplane2);
+            w = w.clipEpsilon(flipNormal, flipDist, Winding.EPS_SPLIT, false);
         }
 
         if (!hasSide) {
@@ -152,7 +154,50 @@ public class WindingFactory {
         return fromSide(bsp, brush, bside);
     }
 
+    /**
+     * Constructs a winding from a brush, for a brush side, with the brush
+     * sides taken from a list other than the one in the BSP data, like a
+     * struct view. The sides are compared by index, since such lists may
+     * return new structs on every access, and the winding isn't cached.
+     *
+     * @param bsp BSP data with the planes
+     * @param brushSides brush sides of the map
+     * @param brush Brush
+     * @param side Brush side ID
+     * @return Winding for the brush side
+     */
+    public static Winding fromSide(BspData bsp, List<? extends DBrushSide> brushSides, DBrush brush, int side) {
+        int ibside = brush.fstside + side;
+        Winding w = fromPlane(bsp, brushSides.get(ibside).pnum);
+
+        // clip to all other planes
+        for (int i = 0; i < brush.numside; i++) {
+            int ibside2 = brush.fstside + i;
+
+            // don't clip plane to itself
+            if (ibside2 == ibside) {
+                continue;
+            }
+
+            DBrushSide bside2 = brushSides.get(ibside2);
+
+            // don't clip to bevel planes
+            if (bside2.bevel) {
+                continue;
+            }
+
+            // remove everything behind the plane
+            int iplane2 = bside2.pnum;
+            Vector3f flipNormal = bsp.planes.getNormal(iplane2).scalar(-1);
+            float flipDist = -bsp.planes.getDist(iplane2);
+            w = w.clipEpsilon(flipNormal, flipDist, Winding.EPS_SPLIT, false);
+        }
+
+        return w;
+    }
+
     public static Winding fromAreaportal(BspData bsp, DAreaportal ap) {
+        Map<DAreaportal, Winding> areaportalCache = getCache(bsp).areaportalCache;
         if (areaportalCache.containsKey(ap)) {
             return areaportalCache.get(ap);
         }
@@ -174,6 +219,7 @@ public class WindingFactory {
      * @return Winding for the occluder
      */
     public static Winding fromOccluder(BspData bsp, DOccluderPolyData opd) {
+        Map<DOccluderPolyData, Winding> occluderCache = getCache(bsp).occluderCache;
         if (occluderCache.containsKey(opd)) {
             return occluderCache.get(opd);
         }
@@ -182,7 +228,7 @@ public class WindingFactory {
 
         for (int k = 0; k < opd.vertexcount; k++) {
             int pvi = bsp.occluderVerts.get(opd.firstvertexindex + k);
-            verts.add(bsp.verts.get(pvi).point);
+            verts.add(bsp.verts.getPoint(pvi));
         }
 
         Winding w = new Winding(verts);
@@ -197,20 +243,50 @@ public class WindingFactory {
      * 
      * Equals BaseWindingForPlane() in polylib.cpp
      * 
+     * @param bsp BSP data
+     * @param iplane plane index
+     */
+    public static Winding fromPlane(BspData bsp, int iplane) {
+        Map<Integer, Winding> planeCache = getCache(bsp).planeCache;
+        if (planeCache.containsKey(iplane)) {
+            return planeCache.get(iplane);
+        }
+
+        Winding w = fromPlane(bsp.planes.getNormal(iplane), bsp.planes.getDist(iplane));
+
+        planeCache.put(iplane, w);
+
+        return w;
+    }
+
+    /**
+     * Constructs a huge square winding from a plane without caching it
+     *
+     * Equals BaseWindingForPlane() in polylib.cpp
+     *
      * @param pl plane
      */
     public static Winding fromPlane(DPlane pl) {
-        if (planeCache.containsKey(pl)) {
-            return planeCache.get(pl);
-        }
+        return fromPlane(pl.normal, pl.dist);
+    }
 
+    /**
+     * Constructs a huge square winding from a plane normal and distance
+     * without caching it
+     *
+     * Equals BaseWindingForPlane() in polylib.cpp
+     *
+     * @param normal plane normal
+     * @param dist plane distance to origin
+     */
+    public static Winding fromPlane(Vector3f normal, float dist) {
         // find the dominant axis of plane normal
         float dmax = -1.0F;
         int idir = -1;
 
         // for each axis
-        for (int i = 0; i < pl.normal.size; i++) {
-            float dc = Math.abs(pl.normal.get(i));
+        for (int i = 0; i < normal.size; i++) {
+            float dc = Math.abs(normal.get(i));
             // find the biggest component
             if (dc <= dmax) {
                 continue;
@@ -221,7 +297,7 @@ public class WindingFactory {
 
         // didn't find one (null or NaN'ed vector)
         if (idir == -1) {
-            throw new RuntimeException("Plane " + pl + ": bad normal");
+            throw new RuntimeException("Plane [n:" + normal + ", d:" + dist + "]: bad normal");
         }
 
         // this will be the "upwards" pointing vector
@@ -239,17 +315,17 @@ public class WindingFactory {
         }
 
         // remove the component of this vector along the normal
-        float vdot = vup.dot(pl.normal);
-        vup = vup.add(pl.normal.scalar(-vdot));
+        float vdot = vup.dot(normal);
+        vup = vup.add(normal.scalar(-vdot));
 
         // make it a unit (perpendicular)
         vup = vup.normalize();
 
         // the vector from origin perpendicularly touching plane
-        Vector3f org = pl.normal.scalar(pl.dist);
+        Vector3f org = normal.scalar(dist);
 
         // this is the "rightwards" pointing vector
-        Vector3f vrt = vup.cross(pl.normal);
+        Vector3f vrt = vup.cross(normal);
 
         vup = vup.scalar(Winding.MAX_LEN);
         vrt = vrt.scalar(Winding.MAX_LEN);
@@ -262,10 +338,14 @@ public class WindingFactory {
         verts.add(org.add(vrt).sub(vup)); // right down
         verts.add(org.sub(vrt).sub(vup)); // left down
 
-        Winding w = new Winding(verts);
-
-        planeCache.put(pl, w);
+        return new Winding(verts);
+    }
 
-        return w;
+    private static class Cache {
+        private final Map<DFace, Winding> faceCache = new HashMap<>();
+        private final Map<Map.Entry<DBrush, DBrushSide>, Winding> brushSideCache = new HashMap<>();
+        private final Map<DAreaportal, Winding> areaportalCache = new HashMap<>();
+        private final Map<DOccluderPolyData, Winding> occluderCache = new HashMap<>();
+        private final Map<Integer, Winding> planeCache = new HashMap<>();
     }
 }
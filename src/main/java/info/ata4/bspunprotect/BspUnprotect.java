@@ -11,11 +11,10 @@
 package info.ata4.bspunprotect;
 
 import info.ata4.bsplib.BspFile;
+import info.ata4.bsplib.PakFile;
 import info.ata4.bsplib.lump.Lump;
 import info.ata4.bsplib.lump.LumpFile;
 import info.ata4.bsplib.lump.LumpType;
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.IOUtils;
 
 import java.io.ByteArrayInputStream;
@@ -24,7 +23,6 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Iterator;
 
 /**
  * BSPProtect map decrypter.
@@ -84,6 +82,15 @@ public class BspUnprotect {
             throw new RuntimeException("Couldn't load BSP file", ex);
         }
 
+        try {
+            restoreEntities();
+        } finally {
+            // unmap the BSP file
+            bspFile.close();
+        }
+    }
+
+    private void restoreEntities() {
         System.out.println("Reading pakfile lump");
 
         byte[] encEnt = readEncryptedEntities();
@@ -155,10 +162,12 @@ public class BspUnprotect {
     }
 
     private byte[] readEncryptedEntities() {
-        try (ZipFile zip = bspFile.getPakFile().getZipFile()) {
-            Iterator<ZipArchiveEntry> iterator = zip.getEntries(BSPPROTECT_FILE).iterator();
-            if (iterator.hasNext()) {
-                return IOUtils.toByteArray(zip.getInputStream(iterator.next()));
+        try {
+            PakFile pakFile = bspFile.getPakFile();
+            if (pakFile.exists(BSPPROTECT_FILE)) {
+                try (InputStream is = pakFile.open(BSPPROTECT_FILE)) {
+                    return IOUtils.toByteArray(is);
+                }
             }
         } catch (IOException ex) {
             throw new RuntimeException("Couldn't read pakfile", ex);
@@ -0,0 +1,126 @@
+package info.ata4.log;
+
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Log formatter that prefixes the messages of a thread with the context that
+ * thread is working on, like the name of the decompiled file, so messages of
+ * concurrent jobs can be told apart. Formatting is delegated to another
+ * formatter.
+ */
+public class ContextFormatter extends Formatter {
+
+    private static final ThreadLocal<String> CONTEXT = new ThreadLocal<>();
+
+    private final Formatter formatter;
+
+    public ContextFormatter(Formatter formatter) {
+        this.formatter = formatter;
+    }
+
+    /**
+     * Returns the context of the current thread.
+     *
+     * @return context or null if there is none
+     */
+    public static String getContext() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * Sets the context of the current thread.
+     *
+     * @param context context, or null to remove it
+     */
+    public static void setContext(String context) {
+        if (context == null) {
+            CONTEXT.remove();
+        } else {
+            CONTEXT.set(context);
+        }
+    }
+
+    /**
+     * Wraps a task that is handed to another thread, like a pool thread, so
+     * that it runs with the context of the current thread. The previous
+     * context of the executing thread is restored afterwards.
+     *
+     * @param task task to wrap
+     * @return task that runs with the current context
+     */
+    public static Runnable wrap(Runnable task) {
+        String context = CONTEXT.get();
+
+        return () -> {
+            String previous = CONTEXT.get();
+            setContext(context);
+
+            try {
+                task.run();
+            } finally {
+                setContext(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps the formatters of all handlers of a logger that aren't wrapped
+     * yet.
+     *
+     * @param logger logger, usually the root logger
+     */
+    public static void install(Logger logger) {
+        for (Handler handler : logger.getHandlers()) {
+            Formatter formatter = handler.getFormatter();
+            if (formatter != null && !(formatter instanceof ContextFormatter)) {
+                handler.setFormatter(new ContextFormatter(formatter));
+            }
+        }
+    }
+
+    @Override
+    public String format(LogRecord record) {
+        // handlers format on the logging thread, so this is the context of
+        // the thread that created the record
+        String context = CONTEXT.get();
+
+        if (context == null || record.getMessage() == null) {
+            return formatter.format(record);
+        }
+
+        // messages with parameters are MessageFormat patterns, same test as in
+        // Formatter.formatMessage
+        Object[] params = record.getParameters();
+        String message = record.getMessage();
+        if (params != null && params.length > 0 && (message.contains("{0")
+                || message.contains("{1") || message.contains("{2") || message.contains("{3"))) {
+            context = context.replace("'", "''").replace("{", "'{'");
+        }
+
+        // format a copy, the record is shared with other handlers
+        LogRecord copy = new LogRecord(record.getLevel(), "[" + context + "] " + message);
+        copy.setParameters(params);
+        copy.setThrown(record.getThrown());
+        copy.setLoggerName(record.getLoggerName());
+        copy.setMillis(record.getMillis());
+        copy.setSequenceNumber(record.getSequenceNumber());
+        copy.setSourceClassName(record.getSourceClassName());
+        copy.setSourceMethodName(record.getSourceMethodName());
+        copy.setThreadID(record.getThreadID());
+
+        return formatter.format(copy);
+    }
+
+    @Override
+    public String getHead(Handler h) {
+        return formatter.getHead(h);
+    }
+
+    @Override
+    public String getTail(Handler h) {
+        return formatter.getTail(h);
+    }
+}